@@ -1,9 +1,25 @@
 package com.learncity.backend_flexible;
 
+import com.learncity.backend_flexible.messaging.framework.Constants;
+import com.learncity.backend_flexible.messaging.framework.client.dispatch.InboundDispatcher;
+import com.learncity.backend_flexible.messaging.framework.client.outbox.MappedOutbox;
+import com.learncity.backend_flexible.messaging.framework.client.ratelimit.DeviceRateLimiter;
+import com.learncity.backend_flexible.messaging.framework.client.ratelimit.TopicRateGovernor;
+import com.learncity.backend_flexible.messaging.framework.client.retry.RetryScheduler;
+import com.learncity.backend_flexible.messaging.framework.client.status.MessageStatusStore;
+import com.learncity.backend_flexible.messaging.framework.client.tokens.CanonicalTokenCache;
+import com.learncity.backend_flexible.messaging.framework.client.tokens.DeadTokenRegistry;
+import com.learncity.backend_flexible.messaging.framework.util.capture.WireCaptureRing;
+import com.learncity.backend_flexible.messaging.framework.util.correlation.CorrelationRegistry;
+import com.learncity.backend_flexible.messaging.framework.util.logging.AsyncLogHandler;
+import com.learncity.backend_flexible.messaging.framework.util.logging.MessageLogger;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.PropertySource;
 import org.springframework.stereotype.Component;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Created by DJ on 4/23/2017.
  */
@@ -17,6 +33,73 @@ public class ApplicationProperties {
     private String projectId;
     private String senderId;
 
+    // Number of connections to CCS
+    private int connectionPoolSize = Constants.DEFAULT_CONNECTION_POOL_SIZE;
+
+    // Outbound send queue
+    private int sendQueueCapacity = Constants.DEFAULT_SEND_QUEUE_CAPACITY;
+    private int senderCount = Constants.DEFAULT_SENDER_COUNT;
+
+    // Retries of the messages NACKed for a transient server failure
+    private int retryMaxAttempts = RetryScheduler.DEFAULT_MAX_ATTEMPTS;
+    private long retryBaseDelayMillis = RetryScheduler.DEFAULT_BASE_DELAY_MILLIS;
+    private long retryMaxDelayMillis = RetryScheduler.DEFAULT_MAX_DELAY_MILLIS;
+
+    // How long a request waits for the ACK/NACK of its message
+    private long responseTimeoutMillis = CorrelationRegistry.DEFAULT_EXPIRY_MILLIS;
+
+    // Threads the inbound messages are handled on, in order for each device
+    private int inboundDispatchLanes = InboundDispatcher.DEFAULT_LANE_COUNT;
+    private int inboundDispatchLaneCapacity = InboundDispatcher.DEFAULT_LANE_CAPACITY;
+
+    // Decode the inbound JSON at XML-parse time, in the extension provider
+    private boolean typedInboundDecoding;
+
+    // Logging of the messages sent and received: sample rates per message type(for ex.,
+    // app.messageLogSampleRates.ack = 0.01), and publishing off the logging threads
+    private Map<String, Double> messageLogSampleRates = new HashMap<String, Double>();
+    private double messageLogDefaultSampleRate = MessageLogger.DEFAULT_SAMPLE_RATE;
+    private boolean asyncLogging;
+    private int asyncLogCapacity = AsyncLogHandler.DEFAULT_CAPACITY;
+
+    // Ring file the raw JSON going in and out is captured into; none if no file is given
+    private String wireCaptureFile;
+    private int wireCaptureSize = WireCaptureRing.DEFAULT_FILE_SIZE;
+    private int wireCaptureSlotSize = WireCaptureRing.DEFAULT_SLOT_SIZE;
+
+    // Serve the /debug endpoints(the wire capture dump); they give out raw tokens and payloads
+    private boolean debugEndpoints;
+
+    // Durable outbox of the accepted messages; none if no directory is given
+    private String outboxDirectory;
+    private int outboxSegmentSize = MappedOutbox.DEFAULT_SEGMENT_SIZE;
+
+    // Tracking of where the downstream messages have got to, for the status queries; 0 capacity for none
+    private int messageStatusCapacity = MessageStatusStore.DEFAULT_CAPACITY;
+    private long messageStatusRetentionMillis = MessageStatusStore.DEFAULT_RETENTION_MILLIS;
+    private boolean messageStatusOffHeap;
+
+    // Keep the messages to the tokens CCS has NACKed as dead from being sent; the file keeps them across restarts.
+    // Up to a max number of them are kept, each for a while
+    private boolean deadTokenFiltering = true;
+    private String deadTokenSnapshotFile;
+    private int deadTokenMaxSize = DeadTokenRegistry.DEFAULT_MAX_SIZE;
+    private long deadTokenRetentionMillis = DeadTokenRegistry.DEFAULT_RETENTION_MILLIS;
+
+    // Old registration tokens the canonical ones(as of the ACKs) are remembered for; 0 for none
+    private int canonicalTokenCacheSize = CanonicalTokenCache.DEFAULT_MAX_SIZE;
+
+    // Messages a device may be sent a minute(0 for no limit) and at once, and the longest a message
+    // over it may be held back before it is rejected
+    private int deviceMessagesPerMinute = DeviceRateLimiter.DEFAULT_MESSAGES_PER_MINUTE;
+    private int deviceMessageBurst = DeviceRateLimiter.DEFAULT_BURST;
+    private long deviceRateMaxDelayMillis = DeviceRateLimiter.DEFAULT_MAX_DELAY_MILLIS;
+
+    // The same, for the messages to a topic(or, a condition on the topics)
+    private int topicMessagesPerMinute = TopicRateGovernor.DEFAULT_MESSAGES_PER_MINUTE;
+    private int topicMessageBurst = TopicRateGovernor.DEFAULT_BURST;
+    private long topicRateMaxDelayMillis = TopicRateGovernor.DEFAULT_MAX_DELAY_MILLIS;
+
     public String getServerKey() {
         return serverKey;
     }
@@ -40,4 +123,276 @@ public class ApplicationProperties {
     public void setSenderId(String senderId) {
         this.senderId = senderId;
     }
+
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    public void setConnectionPoolSize(int connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
+    public int getSendQueueCapacity() {
+        return sendQueueCapacity;
+    }
+
+    public void setSendQueueCapacity(int sendQueueCapacity) {
+        this.sendQueueCapacity = sendQueueCapacity;
+    }
+
+    public int getSenderCount() {
+        return senderCount;
+    }
+
+    public void setSenderCount(int senderCount) {
+        this.senderCount = senderCount;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    public void setRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+    }
+
+    public long getRetryBaseDelayMillis() {
+        return retryBaseDelayMillis;
+    }
+
+    public void setRetryBaseDelayMillis(long retryBaseDelayMillis) {
+        this.retryBaseDelayMillis = retryBaseDelayMillis;
+    }
+
+    public long getRetryMaxDelayMillis() {
+        return retryMaxDelayMillis;
+    }
+
+    public void setRetryMaxDelayMillis(long retryMaxDelayMillis) {
+        this.retryMaxDelayMillis = retryMaxDelayMillis;
+    }
+
+    public String getOutboxDirectory() {
+        return outboxDirectory;
+    }
+
+    public void setOutboxDirectory(String outboxDirectory) {
+        this.outboxDirectory = outboxDirectory;
+    }
+
+    public int getOutboxSegmentSize() {
+        return outboxSegmentSize;
+    }
+
+    public void setOutboxSegmentSize(int outboxSegmentSize) {
+        this.outboxSegmentSize = outboxSegmentSize;
+    }
+
+    public long getResponseTimeoutMillis() {
+        return responseTimeoutMillis;
+    }
+
+    public void setResponseTimeoutMillis(long responseTimeoutMillis) {
+        this.responseTimeoutMillis = responseTimeoutMillis;
+    }
+
+    public boolean isTypedInboundDecoding() {
+        return typedInboundDecoding;
+    }
+
+    public void setTypedInboundDecoding(boolean typedInboundDecoding) {
+        this.typedInboundDecoding = typedInboundDecoding;
+    }
+
+    public Map<String, Double> getMessageLogSampleRates() {
+        return messageLogSampleRates;
+    }
+
+    public void setMessageLogSampleRates(Map<String, Double> messageLogSampleRates) {
+        this.messageLogSampleRates = messageLogSampleRates;
+    }
+
+    public double getMessageLogDefaultSampleRate() {
+        return messageLogDefaultSampleRate;
+    }
+
+    public void setMessageLogDefaultSampleRate(double messageLogDefaultSampleRate) {
+        this.messageLogDefaultSampleRate = messageLogDefaultSampleRate;
+    }
+
+    public boolean isAsyncLogging() {
+        return asyncLogging;
+    }
+
+    public void setAsyncLogging(boolean asyncLogging) {
+        this.asyncLogging = asyncLogging;
+    }
+
+    public int getAsyncLogCapacity() {
+        return asyncLogCapacity;
+    }
+
+    public void setAsyncLogCapacity(int asyncLogCapacity) {
+        this.asyncLogCapacity = asyncLogCapacity;
+    }
+
+    public String getWireCaptureFile() {
+        return wireCaptureFile;
+    }
+
+    public void setWireCaptureFile(String wireCaptureFile) {
+        this.wireCaptureFile = wireCaptureFile;
+    }
+
+    public int getWireCaptureSize() {
+        return wireCaptureSize;
+    }
+
+    public void setWireCaptureSize(int wireCaptureSize) {
+        this.wireCaptureSize = wireCaptureSize;
+    }
+
+    public int getWireCaptureSlotSize() {
+        return wireCaptureSlotSize;
+    }
+
+    public void setWireCaptureSlotSize(int wireCaptureSlotSize) {
+        this.wireCaptureSlotSize = wireCaptureSlotSize;
+    }
+
+    public boolean isDebugEndpoints() {
+        return debugEndpoints;
+    }
+
+    public void setDebugEndpoints(boolean debugEndpoints) {
+        this.debugEndpoints = debugEndpoints;
+    }
+
+    public int getInboundDispatchLanes() {
+        return inboundDispatchLanes;
+    }
+
+    public void setInboundDispatchLanes(int inboundDispatchLanes) {
+        this.inboundDispatchLanes = inboundDispatchLanes;
+    }
+
+    public int getInboundDispatchLaneCapacity() {
+        return inboundDispatchLaneCapacity;
+    }
+
+    public void setInboundDispatchLaneCapacity(int inboundDispatchLaneCapacity) {
+        this.inboundDispatchLaneCapacity = inboundDispatchLaneCapacity;
+    }
+
+    public int getMessageStatusCapacity() {
+        return messageStatusCapacity;
+    }
+
+    public void setMessageStatusCapacity(int messageStatusCapacity) {
+        this.messageStatusCapacity = messageStatusCapacity;
+    }
+
+    public long getMessageStatusRetentionMillis() {
+        return messageStatusRetentionMillis;
+    }
+
+    public void setMessageStatusRetentionMillis(long messageStatusRetentionMillis) {
+        this.messageStatusRetentionMillis = messageStatusRetentionMillis;
+    }
+
+    public boolean isMessageStatusOffHeap() {
+        return messageStatusOffHeap;
+    }
+
+    public void setMessageStatusOffHeap(boolean messageStatusOffHeap) {
+        this.messageStatusOffHeap = messageStatusOffHeap;
+    }
+
+    public boolean isDeadTokenFiltering() {
+        return deadTokenFiltering;
+    }
+
+    public void setDeadTokenFiltering(boolean deadTokenFiltering) {
+        this.deadTokenFiltering = deadTokenFiltering;
+    }
+
+    public String getDeadTokenSnapshotFile() {
+        return deadTokenSnapshotFile;
+    }
+
+    public void setDeadTokenSnapshotFile(String deadTokenSnapshotFile) {
+        this.deadTokenSnapshotFile = deadTokenSnapshotFile;
+    }
+
+    public int getDeadTokenMaxSize() {
+        return deadTokenMaxSize;
+    }
+
+    public void setDeadTokenMaxSize(int deadTokenMaxSize) {
+        this.deadTokenMaxSize = deadTokenMaxSize;
+    }
+
+    public long getDeadTokenRetentionMillis() {
+        return deadTokenRetentionMillis;
+    }
+
+    public void setDeadTokenRetentionMillis(long deadTokenRetentionMillis) {
+        this.deadTokenRetentionMillis = deadTokenRetentionMillis;
+    }
+
+    public int getCanonicalTokenCacheSize() {
+        return canonicalTokenCacheSize;
+    }
+
+    public void setCanonicalTokenCacheSize(int canonicalTokenCacheSize) {
+        this.canonicalTokenCacheSize = canonicalTokenCacheSize;
+    }
+
+    public int getDeviceMessagesPerMinute() {
+        return deviceMessagesPerMinute;
+    }
+
+    public void setDeviceMessagesPerMinute(int deviceMessagesPerMinute) {
+        this.deviceMessagesPerMinute = deviceMessagesPerMinute;
+    }
+
+    public int getDeviceMessageBurst() {
+        return deviceMessageBurst;
+    }
+
+    public void setDeviceMessageBurst(int deviceMessageBurst) {
+        this.deviceMessageBurst = deviceMessageBurst;
+    }
+
+    public long getDeviceRateMaxDelayMillis() {
+        return deviceRateMaxDelayMillis;
+    }
+
+    public void setDeviceRateMaxDelayMillis(long deviceRateMaxDelayMillis) {
+        this.deviceRateMaxDelayMillis = deviceRateMaxDelayMillis;
+    }
+
+    public int getTopicMessagesPerMinute() {
+        return topicMessagesPerMinute;
+    }
+
+    public void setTopicMessagesPerMinute(int topicMessagesPerMinute) {
+        this.topicMessagesPerMinute = topicMessagesPerMinute;
+    }
+
+    public int getTopicMessageBurst() {
+        return topicMessageBurst;
+    }
+
+    public void setTopicMessageBurst(int topicMessageBurst) {
+        this.topicMessageBurst = topicMessageBurst;
+    }
+
+    public long getTopicRateMaxDelayMillis() {
+        return topicRateMaxDelayMillis;
+    }
+
+    public void setTopicRateMaxDelayMillis(long topicRateMaxDelayMillis) {
+        this.topicRateMaxDelayMillis = topicRateMaxDelayMillis;
+    }
 }
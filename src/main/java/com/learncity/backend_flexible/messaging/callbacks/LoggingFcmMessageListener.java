@@ -0,0 +1,39 @@
+package com.learncity.backend_flexible.messaging.callbacks;
+
+import com.learncity.backend_flexible.messaging.framework.message.listeners.AbstractFcmMessageListener;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DeliveryReceiptOrControlMessage;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse;
+import com.learncity.backend_flexible.messaging.framework.util.logging.MessageLogger;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Created by DJ on 5/4/2017.
+ *
+ * Logs the messages received(sampled, by type). The results of the messages sent are
+ * matched to their responses by the {@link com.learncity.backend_flexible.messaging.framework.client.CcsClient}
+ * itself; see {@link com.learncity.backend_flexible.messaging.framework.client.CcsClient#sendAsync(com.learncity.backend_flexible.messaging.framework.message.model.outgoing.AbstractDownstreamMessage)}.
+ */
+public class LoggingFcmMessageListener<Message> extends AbstractFcmMessageListener<Message> {
+
+    private static final Logger logger = Logger.getLogger(LoggingFcmMessageListener.class.getSimpleName());
+    private static final MessageLogger receivedLogger = new MessageLogger(logger, Level.INFO);
+
+    @Override
+    public void onReceiveMessage(Message response) {
+
+        receivedLogger.log(getMessageType(response), "The Message received is: {0}", response);
+    }
+
+    // Type the message is sampled as, for logging
+    private static String getMessageType(Object message) {
+        if(message instanceof DownstreamMessageResponse){
+            return ((DownstreamMessageResponse) message).getMessageType();
+        }
+        if(message instanceof DeliveryReceiptOrControlMessage){
+            return ((DeliveryReceiptOrControlMessage) message).getMessageType();
+        }
+        return MessageLogger.UPSTREAM;
+    }
+}
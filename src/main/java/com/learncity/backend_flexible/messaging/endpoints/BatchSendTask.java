@@ -0,0 +1,209 @@
+package com.learncity.backend_flexible.messaging.endpoints;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learncity.backend_flexible.messaging.framework.client.CcsClient;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse;
+import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.AbstractDownstreamMessage;
+import com.learncity.backend_flexible.messaging.model.Message;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the messages of a JSON array, read off the request body as a stream, and writes
+ * back a result line(NDJSON) for each of them as CCS responds:
+ *
+ * <pre>
+ * {"index":0,"message_id":"...","status":"ack"}
+ * {"index":1,"message_id":"...","status":"nack","error":"...","error_description":"..."}
+ * {"index":2,"status":"error","error":"..."}
+ * </pre>
+ *
+ * Neither the request nor the response is held in memory as a whole; only up to
+ * {@link #MAX_PENDING_MESSAGES} messages of a batch are waiting on CCS at a time - the
+ * reading of the rest waits for them.
+ */
+public class BatchSendTask implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(BatchSendTask.class.getSimpleName());
+
+    public static final MediaType NDJSON = new MediaType("application", "x-ndjson");
+
+    // Messages of a batch that can be waiting on CCS at a time
+    static final int MAX_PENDING_MESSAGES = 1000;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final JsonFactory jsonFactory = objectMapper.getFactory();
+
+    private final CcsClient client;
+    private final InputStream requestBody;
+    private final ResponseBodyEmitter emitter;
+    private final long responseTimeoutMillis;
+
+    private final Semaphore pendingPermits = new Semaphore(MAX_PENDING_MESSAGES);
+    // The reading of the batch counts as one, so that it doesn't complete before it is all read
+    private final AtomicInteger outstanding = new AtomicInteger(1);
+    // The client is gone; no point in going on
+    private final AtomicBoolean aborted = new AtomicBoolean();
+
+    public BatchSendTask(CcsClient client, InputStream requestBody, ResponseBodyEmitter emitter, long responseTimeoutMillis) {
+        this.client = client;
+        this.requestBody = requestBody;
+        this.emitter = emitter;
+        this.responseTimeoutMillis = responseTimeoutMillis;
+    }
+
+    @Override
+    public void run() {
+        int index = 0;
+        try {
+            JsonParser parser = jsonFactory.createParser(requestBody);
+            if(parser.nextToken() != JsonToken.START_ARRAY){
+                emitError(-1, "Expected a JSON array of messages.");
+                return;
+            }
+            JsonStreamContext batch = parser.getParsingContext();
+            JsonToken token;
+            while(!aborted.get() && (token = parser.nextToken()) != JsonToken.END_ARRAY){
+                if(token != JsonToken.START_OBJECT){
+                    emitError(index, "Expected a message object.");
+                    return;
+                }
+                Message message;
+                try {
+                    // Binds just this one element; the parser is left at its end
+                    message = objectMapper.readValue(parser, Message.class);
+                } catch (JsonMappingException e) {
+                    // Well-formed, but not a message(an unknown field, for ex.); only this one fails
+                    skipRestOfElement(parser, batch);
+                    emitError(index++, "Invalid message: " + e.getOriginalMessage());
+                    continue;
+                }
+                pendingPermits.acquire();
+                send(index++, message);
+            }
+        } catch (IOException e) {
+            // Malformed past this point; whatever was read has been sent
+            logger.log(Level.WARNING, "Failed reading a batch at message " + index, e);
+            emitError(index, "Malformed batch: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            emitError(index, "Interrupted.");
+        } finally {
+            onDone();
+        }
+    }
+
+    /**
+     * Moves the parser on to the end of the element that failed to bind, wherever in it the
+     * binding stopped
+     *
+     * @param batch Context of the array the element is in
+     */
+    private static void skipRestOfElement(JsonParser parser, JsonStreamContext batch) throws IOException {
+        while(parser.getParsingContext() != batch){
+            if(parser.nextToken() == null){
+                throw new JsonParseException(parser, "Unexpected end of the batch.");
+            }
+        }
+    }
+
+    private void send(final int index, Message message) {
+        final AbstractDownstreamMessage fcmMessage;
+        CompletableFuture<DownstreamMessageResponse> response;
+        try {
+            fcmMessage = Message.obtainFCMMessage(message);
+            response = client.sendAsync(fcmMessage, responseTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            pendingPermits.release();
+            emitError(index, e.getMessage());
+            return;
+        }
+
+        outstanding.incrementAndGet();
+        response.whenComplete(new BiConsumer<DownstreamMessageResponse, Throwable>() {
+            @Override
+            public void accept(DownstreamMessageResponse downstreamMessageResponse, Throwable throwable) {
+                pendingPermits.release();
+                if(throwable != null){
+                    Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                            ? throwable.getCause() : throwable;
+                    emit(index, fcmMessage.getMessageId(), "error", cause.toString(), null);
+                }
+                else{
+                    emit(index, downstreamMessageResponse.getMessageId(), downstreamMessageResponse.getMessageType(),
+                            downstreamMessageResponse.getError(), downstreamMessageResponse.getErrorDescription());
+                }
+                onDone();
+            }
+        });
+    }
+
+    private void onDone() {
+        if(outstanding.decrementAndGet() == 0 && !aborted.get()){
+            emitter.complete();
+        }
+    }
+
+    private void emitError(int index, String error) {
+        emit(index, null, "error", error, null);
+    }
+
+    private void emit(int index, String messageId, String status, String error, String errorDescription) {
+        if(aborted.get()){
+            return;
+        }
+        try {
+            StringWriter line = new StringWriter(128);
+            JsonGenerator generator = jsonFactory.createGenerator(line);
+            generator.writeStartObject();
+            if(index >= 0){
+                generator.writeNumberField("index", index);
+            }
+            if(messageId != null){
+                generator.writeStringField("message_id", messageId);
+            }
+            generator.writeStringField("status", status);
+            if(error != null){
+                generator.writeStringField("error", error);
+            }
+            if(errorDescription != null){
+                generator.writeStringField("error_description", errorDescription);
+            }
+            generator.writeEndObject();
+            generator.close();
+            line.write('\n');
+
+            // One line at a time; send() is synchronized on the emitter
+            emitter.send(line.toString(), MediaType.TEXT_PLAIN);
+        } catch (IOException e) {
+            // Connection to the client is gone
+            if(aborted.compareAndSet(false, true)){
+                logger.warning("Batch client went away: " + e.getMessage());
+                emitter.completeWithError(e);
+            }
+        } catch (IllegalStateException e) {
+            // Completed already(timed out, for ex.)
+            aborted.set(true);
+        }
+    }
+}
@@ -2,21 +2,43 @@ package com.learncity.backend_flexible.messaging.endpoints;
 
 
 import com.learncity.backend_flexible.ApplicationProperties;
-import com.learncity.backend_flexible.messaging.callbacks.DeferringFcmMessageListener;
+import com.learncity.backend_flexible.messaging.callbacks.LoggingFcmMessageListener;
 import com.learncity.backend_flexible.messaging.framework.client.listeners.FcmStanzaListener;
+import com.learncity.backend_flexible.messaging.framework.client.status.MessageStatus;
+import com.learncity.backend_flexible.messaging.framework.client.status.MessageStatusStore;
 import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DeliveryReceiptOrControlMessage;
 import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse;
 import com.learncity.backend_flexible.messaging.framework.message.model.incoming.UpstreamMessage;
+import com.learncity.backend_flexible.messaging.framework.util.capture.WireCaptureRing;
+import com.learncity.backend_flexible.messaging.framework.util.correlation.DuplicateMessageIdException;
+import com.learncity.backend_flexible.messaging.framework.util.logging.AsyncLogHandler;
+import com.learncity.backend_flexible.messaging.framework.util.logging.MessageLogger;
 import com.learncity.backend_flexible.messaging.model.Message;
 import com.learncity.backend_flexible.messaging.framework.client.CcsClient;
 import org.jivesoftware.smack.XMPPException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
@@ -36,27 +58,40 @@ public class MessagingController {
     private ApplicationProperties properties;
 
     private FcmStanzaListener fcmStanzaListener;
-    private DeferringFcmMessageListener<DownstreamMessageResponse> downstreamMessageResponseListener;
-    private DeferringFcmMessageListener<UpstreamMessage> upstreamMessageListener;
-    private DeferringFcmMessageListener<DeliveryReceiptOrControlMessage> deliveryReceiptOrControlMessageListener;
+    private LoggingFcmMessageListener<DownstreamMessageResponse> downstreamMessageResponseListener;
+    private LoggingFcmMessageListener<UpstreamMessage> upstreamMessageListener;
+    private LoggingFcmMessageListener<DeliveryReceiptOrControlMessage> deliveryReceiptOrControlMessageListener;
+
+    // Reads the batches off the request bodies; the request threads don't wait on them
+    private static final int BATCH_READER_COUNT = 4;
+    private final ExecutorService batchExecutorService = Executors.newFixedThreadPool(BATCH_READER_COUNT);
+
+    // Longest stretch of the wire capture dumped at once
+    private static final long MAX_WIRE_DUMP_SECONDS = TimeUnit.MINUTES.toSeconds(10);
 
     @Autowired
     public MessagingController(ApplicationProperties properties) throws IOException{
         this.properties = properties;
 
+        MessageLogger.setDefaultSampleRate(properties.getMessageLogDefaultSampleRate());
+        MessageLogger.setSampleRates(properties.getMessageLogSampleRates());
+        if(properties.isAsyncLogging()){
+            AsyncLogHandler.install(Logger.getLogger(""), properties.getAsyncLogCapacity());
+        }
+
         if(client == null){
             client = CcsClient.prepareClient(properties.getSenderId(), properties.getServerKey(), true);
             if(fcmStanzaListener == null){
                 fcmStanzaListener = new FcmStanzaListener();
             }
             if(downstreamMessageResponseListener == null){
-                downstreamMessageResponseListener = new DeferringFcmMessageListener<DownstreamMessageResponse>();
+                downstreamMessageResponseListener = new LoggingFcmMessageListener<DownstreamMessageResponse>();
             }
             if(upstreamMessageListener == null){
-                upstreamMessageListener = new DeferringFcmMessageListener<UpstreamMessage>();
+                upstreamMessageListener = new LoggingFcmMessageListener<UpstreamMessage>();
             }
             if(deliveryReceiptOrControlMessageListener == null){
-                deliveryReceiptOrControlMessageListener = new DeferringFcmMessageListener<DeliveryReceiptOrControlMessage>();
+                deliveryReceiptOrControlMessageListener = new LoggingFcmMessageListener<DeliveryReceiptOrControlMessage>();
             }
 
             fcmStanzaListener.setDownstreamMessageResponseListener(downstreamMessageResponseListener);
@@ -64,6 +99,41 @@ public class MessagingController {
             fcmStanzaListener.setDeliveryReceiptOrControlMessageListener(deliveryReceiptOrControlMessageListener);
 
             client.setFcmStanzaListener(fcmStanzaListener);
+            client.setConnectionPoolSize(properties.getConnectionPoolSize());
+            client.setSendQueueCapacity(properties.getSendQueueCapacity());
+            client.setSenderCount(properties.getSenderCount());
+            client.setRetryMaxAttempts(properties.getRetryMaxAttempts());
+            client.setRetryBaseDelayMillis(properties.getRetryBaseDelayMillis());
+            client.setRetryMaxDelayMillis(properties.getRetryMaxDelayMillis());
+            client.setResponseTimeoutMillis(properties.getResponseTimeoutMillis());
+            client.setTypedInboundDecoding(properties.isTypedInboundDecoding());
+            client.setInboundDispatchLanes(properties.getInboundDispatchLanes());
+            client.setInboundDispatchLaneCapacity(properties.getInboundDispatchLaneCapacity());
+            client.setMessageStatusCapacity(properties.getMessageStatusCapacity());
+            client.setMessageStatusRetentionMillis(properties.getMessageStatusRetentionMillis());
+            client.setMessageStatusOffHeap(properties.isMessageStatusOffHeap());
+            client.setCanonicalTokenCacheSize(properties.getCanonicalTokenCacheSize());
+            client.setDeviceMessagesPerMinute(properties.getDeviceMessagesPerMinute());
+            client.setDeviceMessageBurst(properties.getDeviceMessageBurst());
+            client.setDeviceRateMaxDelayMillis(properties.getDeviceRateMaxDelayMillis());
+            client.setTopicMessagesPerMinute(properties.getTopicMessagesPerMinute());
+            client.setTopicMessageBurst(properties.getTopicMessageBurst());
+            client.setTopicRateMaxDelayMillis(properties.getTopicRateMaxDelayMillis());
+            client.setDeadTokenFiltering(properties.isDeadTokenFiltering());
+            client.setDeadTokenMaxSize(properties.getDeadTokenMaxSize());
+            client.setDeadTokenRetentionMillis(properties.getDeadTokenRetentionMillis());
+            if(properties.getDeadTokenSnapshotFile() != null && !properties.getDeadTokenSnapshotFile().isEmpty()){
+                client.setDeadTokenSnapshotFile(properties.getDeadTokenSnapshotFile());
+            }
+            if(properties.getWireCaptureFile() != null && !properties.getWireCaptureFile().isEmpty()){
+                client.setWireCaptureFile(properties.getWireCaptureFile());
+                client.setWireCaptureSize(properties.getWireCaptureSize());
+                client.setWireCaptureSlotSize(properties.getWireCaptureSlotSize());
+            }
+            if(properties.getOutboxDirectory() != null && !properties.getOutboxDirectory().isEmpty()){
+                client.setOutboxDirectory(properties.getOutboxDirectory());
+                client.setOutboxSegmentSize(properties.getOutboxSegmentSize());
+            }
             try {
                 client.connect();
             }
@@ -92,7 +162,7 @@ public class MessagingController {
             method = RequestMethod.POST,
             consumes = "application/json"
     )
-    public @ResponseBody DeferredResult<DownstreamMessageResponse> sendMessage(@RequestBody Message message){
+    public @ResponseBody CompletableFuture<DownstreamMessageResponse> sendMessage(@RequestBody Message message){
         // Retrieve the Firebase Token of the Receiver
         String firebaseTokenReceiver = message.getTo();
 
@@ -103,15 +173,101 @@ public class MessagingController {
             return null;
         }
 
-        // Lets not block this thread for this request anymore
-        DeferredResult<DownstreamMessageResponse> deferredResult = new DeferredResult<DownstreamMessageResponse>();
+        // Lets not block this thread for this request anymore; the response is
+        // written once the message is ACKed/NACKed
+        try {
+            return client.sendAsync(Message.obtainFCMMessage(message), properties.getResponseTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException | DuplicateMessageIdException e) {
+            CompletableFuture<DownstreamMessageResponse> rejected = new CompletableFuture<DownstreamMessageResponse>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
 
-        // Maintain this deferred result with the callback for later setting.
-        downstreamMessageResponseListener.setDeferredResultHolder(deferredResult);
+    /**
+     * A message with the same "message_id" is still waiting on its response
+     */
+    @ExceptionHandler(DuplicateMessageIdException.class)
+    public ResponseEntity<String> onDuplicateMessageId(DuplicateMessageIdException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+    }
 
-        client.sendAsync(Message.obtainFCMMessage(message));
+    /**
+     * Sends a JSON array of messages, streaming back a line of JSON(NDJSON) with the result
+     * of each as CCS responds. See {@link BatchSendTask}.
+     */
+    @RequestMapping(
+            path = "/send/batch",
+            method = RequestMethod.POST,
+            consumes = "application/json"
+    )
+    public ResponseEntity<ResponseBodyEmitter> sendMessages(HttpServletRequest request) throws IOException {
+        // No timeout of its own; each of the messages times out on its own
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(0L);
+        batchExecutorService.execute(new BatchSendTask(client, request.getInputStream(), emitter, properties.getResponseTimeoutMillis()));
+        return ResponseEntity.ok().contentType(BatchSendTask.NDJSON).body(emitter);
+    }
 
-        return deferredResult;
+    /**
+     * Where the message has got to - accepted, sent, ACKed/NACKed, delivered. Not found if it
+     * is not tracked(never sent or, too long ago). See {@link MessageStatusStore}.
+     */
+    @RequestMapping(
+            path = "/messages/{id}",
+            method = RequestMethod.GET
+    )
+    public ResponseEntity<MessageStatus> getMessageStatus(@PathVariable("id") String messageId) {
+        MessageStatusStore statusStore = client.getMessageStatusStore();
+        MessageStatus status = statusStore == null ? null : statusStore.get(messageId);
+        if(status == null){
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(status);
+    }
+
+    /**
+     * Same as {@link #getMessageStatus(String)} for a JSON array of message IDs; the statuses
+     * are keyed by the message ID, the ones not tracked left out.
+     */
+    @RequestMapping(
+            path = "/messages/status",
+            method = RequestMethod.POST,
+            consumes = "application/json"
+    )
+    public ResponseEntity<Map<String, MessageStatus>> getMessageStatuses(@RequestBody List<String> messageIds) {
+        MessageStatusStore statusStore = client.getMessageStatusStore();
+        if(statusStore == null){
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(statusStore.getAll(messageIds));
+    }
+
+    /**
+     * Streams the messages captured on the wire in the last so many seconds(up to
+     * {@link #MAX_WIRE_DUMP_SECONDS}) as NDJSON. Served only with app.debugEndpoints on; for the
+     * whole of the ring, there is {@link com.learncity.backend_flexible.messaging.framework.util.capture.WireCaptureDump}.
+     * See {@link WireCaptureRing}.
+     */
+    @RequestMapping(
+            path = "/debug/wire",
+            method = RequestMethod.GET
+    )
+    public ResponseEntity<StreamingResponseBody> dumpWireCapture(@RequestParam("seconds") long seconds) {
+        final WireCaptureRing wireCapture = client.getWireCapture();
+        if(!properties.isDebugEndpoints() || wireCapture == null){
+            return ResponseEntity.notFound().build();
+        }
+        if(seconds <= 0 || seconds > MAX_WIRE_DUMP_SECONDS){
+            return ResponseEntity.badRequest().build();
+        }
+        final long sinceMillis = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(seconds);
+        return ResponseEntity.ok().contentType(BatchSendTask.NDJSON).body(new StreamingResponseBody() {
+            @Override
+            public void writeTo(OutputStream outputStream) throws IOException {
+                Writer out = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+                wireCapture.writeAsNdjson(sinceMillis, out);
+            }
+        });
     }
 
     /*
@@ -32,4 +32,14 @@ public final class Constants {
 	public static final String FCM_NAMESPACE = FcmPacketExtension.NAMESPACE;
 	public static final String FCM_SERVER_CONNECTION_ENDPOINT = "gcm.googleapis.com";
 
+	// CCS allows no more than these many unacknowledged downstream messages per connection
+	public static final int FCM_MAX_UNACKED_MESSAGES_PER_CONNECTION = 100;
+
+	// Number of connections opened to CCS by default
+	public static final int DEFAULT_CONNECTION_POOL_SIZE = 1;
+
+	// Outbound send queue defaults
+	public static final int DEFAULT_SEND_QUEUE_CAPACITY = 10000;
+	public static final int DEFAULT_SENDER_COUNT = 4;
+
 }
@@ -1,15 +1,32 @@
 package com.learncity.backend_flexible.messaging.framework.client;
 
+import com.learncity.backend_flexible.messaging.framework.client.connection.CcsConnection;
+import com.learncity.backend_flexible.messaging.framework.client.dispatch.InboundDispatcher;
 import com.learncity.backend_flexible.messaging.framework.client.listeners.FcmStanzaListener;
 import com.learncity.backend_flexible.messaging.framework.client.listeners.LoggedConnectionListener;
+import com.learncity.backend_flexible.messaging.framework.client.outbox.MappedOutbox;
+import com.learncity.backend_flexible.messaging.framework.client.status.MessageStatusStore;
+import com.learncity.backend_flexible.messaging.framework.client.tokens.CanonicalTokenCache;
+import com.learncity.backend_flexible.messaging.framework.client.tokens.DeadTokenRegistry;
+import com.learncity.backend_flexible.messaging.framework.client.queue.OutboundMessage;
+import com.learncity.backend_flexible.messaging.framework.client.ratelimit.DeviceRateLimiter;
+import com.learncity.backend_flexible.messaging.framework.client.ratelimit.TopicRateGovernor;
+import com.learncity.backend_flexible.messaging.framework.client.queue.OutboundMessageQueue;
+import com.learncity.backend_flexible.messaging.framework.client.retry.RetryScheduler;
 import com.learncity.backend_flexible.messaging.framework.message.listeners.LoggedDeliveryReceiptOrControlMessageListener;
 import com.learncity.backend_flexible.messaging.framework.message.listeners.LoggedDownstreamMessageResponseListener;
 import com.learncity.backend_flexible.messaging.framework.message.listeners.LoggedUpstreamMessageListener;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DeliveryReceiptOrControlMessage;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.UpstreamMessage;
 import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.AbstractDownstreamMessage;
-import com.learncity.backend_flexible.messaging.framework.message.util.MessageUtils;
+import com.learncity.backend_flexible.messaging.framework.message.util.BroadcastTemplate;
 import com.learncity.backend_flexible.messaging.framework.Constants;
-import com.learncity.backend_flexible.messaging.framework.util.smackx.fcm.packet.FcmPacketExtension;
+import com.learncity.backend_flexible.messaging.framework.util.capture.WireCaptureRing;
+import com.learncity.backend_flexible.messaging.framework.util.correlation.CorrelationRegistry;
+import com.learncity.backend_flexible.messaging.framework.util.logging.MessageLogger;
 import com.learncity.backend_flexible.messaging.framework.util.smackx.fcm.provider.FcmExtensionProvider;
+import com.learncity.backend_flexible.messaging.framework.util.timer.HashedTimingWheel;
 import org.jivesoftware.smack.*;
 import org.jivesoftware.smack.ConnectionConfiguration.SecurityMode;
 import org.jivesoftware.smack.packet.Stanza;
@@ -19,17 +36,32 @@ import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
 import org.jxmpp.stringprep.XmppStringprepException;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.net.ssl.SSLSocketFactory;
 
 import static com.learncity.backend_flexible.messaging.framework.Constants.*;
+import static com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse.ErrorResponseCodes.BAD_REGISTRATION;
+import static com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse.ErrorResponseCodes.CONNECTION_DRAINING;
+import static com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse.ErrorResponseCodes.DEVICE_MESSAGE_RATE_EXCEEDED;
+import static com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse.ErrorResponseCodes.DEVICE_UNREGISTERED;
+import static com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse.ErrorResponseCodes.TOPICS_MESSAGE_RATE_EXCEEDED;
 import static org.jivesoftware.smack.filter.StanzaTypeFilter.MESSAGE;
 
 /**
@@ -40,16 +72,106 @@ import static org.jivesoftware.smack.filter.StanzaTypeFilter.MESSAGE;
 public final class CcsClient{
 
 	public static final Logger logger = Logger.getLogger(CcsClient.class.getName());
+	// The messages accepted for sending; the writers log them again as they are sent
+	private static final MessageLogger acceptedLogger = new MessageLogger(logger, Level.FINE);
 
 	private static CcsClient sInstance = null;
-	private XMPPTCPConnection connection;
 	private XMPPTCPConnectionConfiguration config;
 	private String serverKey = null;
 	private String senderId = null;
 	private boolean mDebuggable = false;
 	private String fcmServerUsername = null;
 
-	private final ExecutorService executorService = Executors.newCachedThreadPool();
+	// Messages waiting to be sent and the fixed set of workers sending them
+	private int sendQueueCapacity = DEFAULT_SEND_QUEUE_CAPACITY;
+	private int senderCount = DEFAULT_SENDER_COUNT;
+	private OutboundMessageQueue outboundMessageQueue;
+	private ExecutorService senderExecutorService;
+
+	// Resends the messages NACKed for a transient server failure
+	private int retryMaxAttempts = RetryScheduler.DEFAULT_MAX_ATTEMPTS;
+	private long retryBaseDelayMillis = RetryScheduler.DEFAULT_BASE_DELAY_MILLIS;
+	private long retryMaxDelayMillis = RetryScheduler.DEFAULT_MAX_DELAY_MILLIS;
+	private RetryScheduler.DeadLetterListener deadLetterListener;
+	private RetryScheduler retryScheduler;
+
+	// Results of the messages sent with sendAsync(), completed on their ACK/NACK
+	private long responseTimeoutMillis = CorrelationRegistry.DEFAULT_EXPIRY_MILLIS;
+	private CorrelationRegistry<DownstreamMessageResponse> pendingResponses;
+
+	// Durable log of the messages accepted but not done with yet; none unless a directory is set
+	private String outboxDirectory;
+	private int outboxSegmentSize = MappedOutbox.DEFAULT_SEGMENT_SIZE;
+	private MappedOutbox outbox;
+
+	// Ring file the JSON going in and out is captured into; none unless a file is set
+	private String wireCaptureFile;
+	private int wireCaptureSize = WireCaptureRing.DEFAULT_FILE_SIZE;
+	private int wireCaptureSlotSize = WireCaptureRing.DEFAULT_SLOT_SIZE;
+	private WireCaptureRing wireCapture;
+
+	// Lanes the inbound messages are handled on, in order for each device; none to leave it to Smack
+	private int inboundDispatchLanes = InboundDispatcher.DEFAULT_LANE_COUNT;
+	private int inboundDispatchLaneCapacity = InboundDispatcher.DEFAULT_LANE_CAPACITY;
+	private InboundDispatcher inboundDispatcher;
+
+	// Delivery tracking; 0 capacity for none
+	private int messageStatusCapacity = MessageStatusStore.DEFAULT_CAPACITY;
+	private long messageStatusRetentionMillis = MessageStatusStore.DEFAULT_RETENTION_MILLIS;
+	private boolean messageStatusOffHeap;
+	private MessageStatusStore messageStatusStore;
+
+	// The messages to the tokens CCS has said are dead are not sent
+	private boolean deadTokenFiltering = true;
+	private String deadTokenSnapshotFile;
+	private int deadTokenMaxSize = DeadTokenRegistry.DEFAULT_MAX_SIZE;
+	private long deadTokenRetentionMillis = DeadTokenRegistry.DEFAULT_RETENTION_MILLIS;
+	private DeadTokenRegistry deadTokenRegistry;
+
+	// Old registration token -> canonical one, as of the ACKs; 0 size for none
+	private int canonicalTokenCacheSize = CanonicalTokenCache.DEFAULT_MAX_SIZE;
+	private CanonicalTokenCache canonicalTokenCache;
+
+	// Keeps the messages to a device within its rate; 0 messages per minute for no limit
+	private int deviceMessagesPerMinute = DeviceRateLimiter.DEFAULT_MESSAGES_PER_MINUTE;
+	private int deviceMessageBurst = DeviceRateLimiter.DEFAULT_BURST;
+	private long deviceRateMaxDelayMillis = DeviceRateLimiter.DEFAULT_MAX_DELAY_MILLIS;
+	private DeviceRateLimiter deviceRateLimiter;
+
+	// Paces the messages to the topics(and conditions); 0 messages per minute for no pacing
+	private int topicMessagesPerMinute = TopicRateGovernor.DEFAULT_MESSAGES_PER_MINUTE;
+	private int topicMessageBurst = TopicRateGovernor.DEFAULT_BURST;
+	private long topicRateMaxDelayMillis = TopicRateGovernor.DEFAULT_MAX_DELAY_MILLIS;
+	private TopicRateGovernor topicRateGovernor;
+
+	// Holds back the messages over the rate of their device or, topic
+	private HashedTimingWheel delayedSendTimer;
+
+	// Whether the inbound JSON is decoded at XML-parse time, by the extension provider
+	private boolean typedInboundDecoding;
+
+	// Pool of connections to CCS, each with its own in-flight window and writer
+	private int connectionPoolSize = DEFAULT_CONNECTION_POOL_SIZE;
+	private final List<CcsConnection> connections = new CopyOnWriteArrayList<CcsConnection>();
+	// Opens the replacements for the draining connections
+	private final ExecutorService connectionExecutorService = Executors.newSingleThreadExecutor();
+	// Notified whenever a connection becomes usable
+	private final Object connectionsMonitor = new Object();
+
+	// How long a sender waits for a usable connection before it tries whatever there is
+	private static final long USABLE_CONNECTION_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+	// Delays between the attempts at opening a connection that failed
+	private static final long CONNECT_RETRY_BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+	private static final long CONNECT_RETRY_MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+	// Renders and sends the messages of a broadcast, a slice of the recipients on each core
+	private static final int BROADCAST_PARALLELISM = Runtime.getRuntime().availableProcessors();
+	private static final int MIN_BROADCAST_SLICE_SIZE = 256;
+	private final ExecutorService broadcastExecutorService = Executors.newFixedThreadPool(BROADCAST_PARALLELISM);
+
+	// Resolution of the holding back of the messages over the rate of their device
+	private static final long DELAYED_SEND_TICK_MILLIS = 50;
+	private static final int DELAYED_SEND_TICKS_PER_WHEEL = 512;
 
 	// Callbacks
     private StanzaListener fcmStanzaListener;
@@ -85,7 +207,8 @@ public final class CcsClient{
     }
 
     /**
-	 * Connects to FCM Cloud Connection Server using the supplied credentials
+	 * Connects to FCM Cloud Connection Server using the supplied credentials. As many
+	 * connections as the pool size are opened.
 	 */
 	public void connect() throws XMPPException, IOException{
 
@@ -110,6 +233,22 @@ public final class CcsClient{
             }
         }
 
+        if(typedInboundDecoding){
+            // Replaces the plain one
+            ProviderManager.addExtensionProvider(FCM_ELEMENT, FCM_NAMESPACE, new FcmExtensionProvider(true));
+        }
+
+        startInboundDispatcher();
+        startSenders();
+        Map<String, String> unfinished = openOutbox();
+        openWireCapture();
+        openMessageStatusStore();
+        openDeadTokenRegistry();
+        if(canonicalTokenCacheSize > 0 && canonicalTokenCache == null){
+            canonicalTokenCache = new CanonicalTokenCache(canonicalTokenCacheSize);
+        }
+        startRateLimiters();
+
         // Next, connection configuration
         try{
             // Note: For ConnectionConfiguration(just below), we are NOT going to setHost() anymore
@@ -144,23 +283,68 @@ public final class CcsClient{
             e.printStackTrace();
         }
 
-		connection = new XMPPTCPConnection(config);
-
         if(connectionListener == null){
             connectionListener = new LoggedConnectionListener();
         }
-        connection.addConnectionListener(connectionListener);
 
-		// Handle incoming packets (the class implements the PacketListener)
-		connection.addAsyncStanzaListener(fcmStanzaListener, MESSAGE);
+        for(int i = 0; i < connectionPoolSize; i++){
+            try {
+                openConnection();
+            } catch (XMPPException | SmackException | IOException | InterruptedException e) {
+                logger.log(Level.SEVERE, "Could not open a connection to CCS; retrying in the background.", e);
+                openConnectionLater(null);
+            }
+        }
+        // Only now that there is a pool to send them on
+        for(Map.Entry<String, String> message : unfinished.entrySet()){
+            requeue(message.getKey(), message.getValue());
+        }
+	}
 
-		// Log all outgoing packets
-		connection.addPacketInterceptor(new StanzaListener() {
-			@Override
-			public void processStanza(Stanza packet) {
-				logger.log(Level.INFO, "Sent: {0}", packet.toXML());
-			}
-		}, MESSAGE);
+    /**
+     * Opens a new connection to CCS with the configuration and listeners of this client
+     * and adds it to the pool - only once it has connected and logged in, so the pool
+     * never holds a connection that isn't coming up(the reconnection manager only brings
+     * back the ones that had logged in once).
+     */
+	private CcsConnection openConnection() throws XMPPException, SmackException, IOException, InterruptedException {
+        final CcsConnection ccsConnection = new CcsConnection(config, connectionEventListener);
+        XMPPTCPConnection connection = ccsConnection.getConnection();
+        ccsConnection.setWireCapture(wireCapture);
+        ccsConnection.setMessageStatusStore(messageStatusStore);
+
+        connection.addConnectionListener(connectionListener);
+        connection.addConnectionListener(new AbstractConnectionListener() {
+            @Override
+            public void authenticated(XMPPConnection connection, boolean resumed) {
+                synchronized (connectionsMonitor){
+                    connectionsMonitor.notifyAll();
+                }
+            }
+        });
+
+		// Handle incoming packets (the class implements the PacketListener). The connection
+        // they came in on is passed along so that the ACKs/NACKs free up its window and the
+        // ACKs for Upstream messages go out on it.
+        StanzaListener stanzaListener = new StanzaListener() {
+            @Override
+            public void processStanza(Stanza packet) throws SmackException.NotConnectedException, InterruptedException {
+                if(fcmStanzaListener instanceof FcmStanzaListener){
+                    ((FcmStanzaListener) fcmStanzaListener).processStanza(ccsConnection, packet);
+                }
+                else{
+                    fcmStanzaListener.processStanza(packet);
+                }
+            }
+        };
+        if(inboundDispatcher != null){
+            // Taken in the order they arrive and decoded; the dispatcher does the rest in parallel,
+            // in order for each device
+            connection.addSyncStanzaListener(stanzaListener, MESSAGE);
+        }
+        else{
+            connection.addAsyncStanzaListener(stanzaListener, MESSAGE);
+        }
 
         // Configuring Automatic reconnection
         ReconnectionManager manager = ReconnectionManager.getInstanceFor(connection);
@@ -168,81 +352,709 @@ public final class CcsClient{
         manager.enableAutomaticReconnection();
 
         // Connect now then login
-        try{
-            connection.connect();
-            connection.login();
+        boolean connected = false;
+        try {
+            ccsConnection.connect();
+            connected = true;
+        } finally {
+            if(!connected){
+                ccsConnection.disconnect();
+            }
+        }
+        connections.add(ccsConnection);
+        synchronized (connectionsMonitor){
+            connectionsMonitor.notifyAll();
+        }
+        return ccsConnection;
+	}
+
+    /**
+     * Stops sending new messages on the connection and opens a replacement for it in the
+     * background. The draining connection stays open only until the messages in flight on
+     * it are ACKed/NACKed.
+     */
+    private void onConnectionDraining(CcsConnection ccsConnection) {
+        if(!ccsConnection.markDraining()){
+            return;
         }
-        // TODO: Handle the exceptions if possible appropriately
-        catch(SmackException sme){
-            logger.severe(sme.getMessage());
-            sme.printStackTrace();
+        openConnectionLater(ccsConnection);
+    }
+
+    /**
+     * Opens a connection in the background, trying again with an increasing delay for as
+     * long as it fails - so that a failed attempt doesn't leave the pool a connection short.
+     *
+     * @param replaced The draining connection it replaces or, null if none
+     */
+    private void openConnectionLater(final CcsConnection replaced) {
+        connectionExecutorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                long delayMillis = CONNECT_RETRY_BASE_DELAY_MILLIS;
+                while(true){
+                    try {
+                        CcsConnection opened = openConnection();
+                        if(replaced != null){
+                            logger.info("Connection " + opened.getId() + " replaces draining connection " + replaced.getId());
+                        }
+                        return;
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (XMPPException | SmackException | IOException e) {
+                        logger.log(Level.WARNING, "Could not open a connection to CCS; trying again in " + delayMillis + " ms.", e);
+                    }
+                    try {
+                        Thread.sleep(delayMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    delayMillis = Math.min(CONNECT_RETRY_MAX_DELAY_MILLIS, delayMillis * 2);
+                }
+            }
+        });
+    }
+
+    // Hooks for the FcmStanzaListener----------------------------------------------------------------------------------
+
+    /**
+     * Bookkeeping for an ACK/NACK of a downstream message. Called before the response
+     * is handed over to the listeners.
+     *
+     * @param ccsConnection The connection the response came in on
+     */
+    public void onDownstreamMessageResponse(CcsConnection ccsConnection, DownstreamMessageResponse response) {
+        String jsonMessage = ccsConnection.release(response.getMessageId());
+
+        if("nack".equals(response.getMessageType()) && CONNECTION_DRAINING.equals(response.getError())){
+            onConnectionDraining(ccsConnection);
+            // Not sent at all; it goes out again on another connection
+            if(jsonMessage != null){
+                requeue(response.getMessageId(), jsonMessage);
+            }
+            return;
         }
-        catch(IOException ioe){
-            logger.severe(ioe.getMessage());
-            ioe.printStackTrace();
+        if(messageStatusStore != null){
+            messageStatusStore.onResponse(response.getMessageId(), "ack".equals(response.getMessageType()), response.getError());
         }
-        catch(InterruptedException ie){
-            logger.severe("Connection got interrupted!!");
-            ie.printStackTrace();
+        if(canonicalTokenCache != null && "ack".equals(response.getMessageType()) && response.getRegistrationId() != null){
+            canonicalTokenCache.put(response.getFrom(), response.getRegistrationId());
+        }
+        if(deviceRateLimiter != null && "nack".equals(response.getMessageType())
+                && DEVICE_MESSAGE_RATE_EXCEEDED.equals(response.getError()) && DeviceRateLimiter.isDevice(response.getFrom())){
+            deviceRateLimiter.backOff(response.getFrom());
+        }
+        if(topicRateGovernor != null && "nack".equals(response.getMessageType())
+                && TOPICS_MESSAGE_RATE_EXCEEDED.equals(response.getError()) && jsonMessage != null){
+            // Retried, like a server failure; the new ones to the topics are held back meanwhile
+            topicRateGovernor.backOff(topicRateGovernor.topicsOfMessage(jsonMessage));
+        }
+        if(deadTokenRegistry != null && "nack".equals(response.getMessageType())
+                && (DEVICE_UNREGISTERED.equals(response.getError()) || BAD_REGISTRATION.equals(response.getError()))){
+            deadTokenRegistry.markDead(response.getFrom(), response.getError());
         }
-	}
 
-	public void send(String jsonRequest) {
-		// TODO: Resend the message using exponential back-off!
-		Stanza request = new FcmPacketExtension(jsonRequest).toMessage();
+        boolean retrying = false;
+        if(retryScheduler != null){
+            if(RetryScheduler.isRetryable(response)){
+                retrying = retryScheduler.scheduleRetry(response.getMessageId(), jsonMessage, response);
+            }
+            else{
+                retryScheduler.forget(response.getMessageId());
+            }
+        }
+        if(retrying){
+            // The outcome is whatever the retries come to
+            return;
+        }
+        // Done with, one way or the other
+        if(outbox != null){
+            outbox.markDone(response.getMessageId());
+        }
+        if(pendingResponses != null){
+            pendingResponses.complete(response.getMessageId(), response);
+        }
+    }
+
+    /**
+     * Bookkeeping for a delivery receipt or a control message from CCS. Called before the
+     * message is handed over to the listeners.
+     *
+     * @param ccsConnection The connection the message came in on
+     */
+    public void onDeliveryReceiptOrControlMessage(CcsConnection ccsConnection, DeliveryReceiptOrControlMessage message) {
+        if("control".equals(message.getMessageType()) && CONNECTION_DRAINING.equals(message.getControlType())){
+            onConnectionDraining(ccsConnection);
+        }
+        else if(messageStatusStore != null && "receipt".equals(message.getMessageType())){
+            messageStatusStore.onDelivered(originalMessageIdOf(message));
+        }
+    }
+
+    /**
+     * @return ID of the message the receipt is for; the receipt's own ID is the same, with "dr2:" ahead of it
+     */
+    private static String originalMessageIdOf(DeliveryReceiptOrControlMessage receipt) {
+        Map<String, Object> data = receipt.getDataPayload();
+        if(data != null && data.get("original_message_id") instanceof String){
+            return (String) data.get("original_message_id");
+        }
+        String messageId = receipt.getMessageId();
+        if(messageId != null && messageId.startsWith("dr2:")){
+            return messageId.substring("dr2:".length());
+        }
+        return messageId;
+    }
+
+    /**
+     * A message replaced in the send queue by a newer one with the same collapse key is done
+     * with; its result is whatever that of the newer one comes to.
+     */
+    private final OutboundMessageQueue.CoalescingListener coalescingListener = new OutboundMessageQueue.CoalescingListener() {
+        @Override
+        public void onCoalesced(OutboundMessage older, OutboundMessage newer) {
+            logger.fine("Message: " + older.getMessageId() + " collapsed into message: " + newer.getMessageId());
+            if(outbox != null){
+                outbox.markDone(older.getMessageId());
+            }
+            if(pendingResponses != null){
+                pendingResponses.completeWith(older.getMessageId(), newer.getMessageId());
+            }
+        }
+    };
+
+    private final CcsConnection.Listener connectionEventListener = new CcsConnection.Listener() {
+        @Override
+        public void onMessagesLost(CcsConnection ccsConnection, Map<String, String> messages) {
+            for(Map.Entry<String, String> message : messages.entrySet()){
+                requeue(message.getKey(), message.getValue());
+            }
+        }
+
+        @Override
+        public void onDrained(CcsConnection ccsConnection) {
+            connections.remove(ccsConnection);
+        }
+    };
+
+    /**
+     * Opens the outbox, if there is to be one.
+     *
+     * @return Messages left unfinished in it by the last run(Message ID -> JSON payload), to be
+     * sent again once the connections are open
+     */
+    private synchronized Map<String, String> openOutbox() throws IOException {
+        if(outboxDirectory == null || outbox != null){
+            return Collections.emptyMap();
+        }
+        outbox = new MappedOutbox(new File(outboxDirectory), outboxSegmentSize);
+        return outbox.open();
+    }
+
+    /**
+     * Starts the lanes the inbound messages are handled on, if there are to be any
+     */
+    private synchronized void startInboundDispatcher() {
+        if(inboundDispatchLanes < 1 || inboundDispatcher != null || !(fcmStanzaListener instanceof FcmStanzaListener)){
+            return;
+        }
+        inboundDispatcher = new InboundDispatcher("InboundDispatcher", inboundDispatchLanes, inboundDispatchLaneCapacity);
+        inboundDispatcher.start();
+        ((FcmStanzaListener) fcmStanzaListener).setInboundDispatcher(inboundDispatcher);
+    }
+
+    private synchronized void openWireCapture() throws IOException {
+        if(wireCaptureFile == null || wireCapture != null){
+            return;
+        }
+        wireCapture = new WireCaptureRing(new File(wireCaptureFile), wireCaptureSize, wireCaptureSlotSize);
+    }
+
+    private synchronized void openDeadTokenRegistry() throws IOException {
+        if(!deadTokenFiltering || deadTokenRegistry != null){
+            return;
+        }
+        deadTokenRegistry = new DeadTokenRegistry(deadTokenMaxSize, deadTokenRetentionMillis,
+                deadTokenSnapshotFile == null ? null : new File(deadTokenSnapshotFile), DeadTokenRegistry.DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+        deadTokenRegistry.open();
+        if(deadTokenSnapshotFile != null){
+            // The ones marked since the last snapshot are not to be lost on the way down
+            final DeadTokenRegistry registry = deadTokenRegistry;
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        registry.close();
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Could not snapshot the dead tokens.", e);
+                    }
+                }
+            }, "DeadTokenRegistry-Close"));
+        }
+    }
+
+    private synchronized void startRateLimiters() {
+        if(deviceMessagesPerMinute > 0 && deviceRateLimiter == null){
+            deviceRateLimiter = new DeviceRateLimiter(deviceMessagesPerMinute, deviceMessageBurst, DeviceRateLimiter.DEFAULT_SLOT_COUNT);
+        }
+        if(topicMessagesPerMinute > 0 && topicRateGovernor == null){
+            topicRateGovernor = new TopicRateGovernor(topicMessagesPerMinute, topicMessageBurst);
+        }
+        if((deviceRateLimiter != null || topicRateGovernor != null) && delayedSendTimer == null){
+            delayedSendTimer = new HashedTimingWheel("DelayedSendTimer", DELAYED_SEND_TICK_MILLIS, TimeUnit.MILLISECONDS, DELAYED_SEND_TICKS_PER_WHEEL);
+        }
+    }
+
+    /**
+     * Reserves the message in the rate of its topics, if it is to a topic(or, a condition); of
+     * its device otherwise.
+     *
+     * @param maxDelayMillis The longest it may be held back; null for the one of its kind
+     * @return Milliseconds it is to be held back for; -1 if longer than it may be held back
+     */
+    private long reserveRate(String to, String condition, Long maxDelayMillis) {
+        if(TopicRateGovernor.isTopical(to, condition)){
+            if(topicRateGovernor == null){
+                return 0;
+            }
+            return topicRateGovernor.reserve(topicRateGovernor.topicsOf(to, condition),
+                    maxDelayMillis != null ? maxDelayMillis : topicRateMaxDelayMillis);
+        }
+        if(deviceRateLimiter == null || !DeviceRateLimiter.isDevice(to)){
+            return 0;
+        }
+        return deviceRateLimiter.reserve(to, maxDelayMillis != null ? maxDelayMillis : deviceRateMaxDelayMillis);
+    }
+
+    /**
+     * Parks the calling thread for as long as the device(or, topics) of the message is over its rate
+     */
+    private void awaitRate(String to, String condition, String messageId) {
+        long delayMillis = reserveRate(to, condition, Long.MAX_VALUE / 2);
+        if(delayMillis <= 0){
+            return;
+        }
         try {
-            connection.sendStanza(request);
-        } catch (SmackException.NotConnectedException e) {
-            e.printStackTrace();
+            Thread.sleep(delayMillis);
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            logger.warning("Interrupted while holding back message: " + messageId + " for the rate of its recipient.");
+        }
+    }
+
+    /**
+     * Queues the message once the delay has passed. It takes up its place in the send queue
+     * meanwhile, so the messages held back count against its capacity like the rest.
+     *
+     * @throws RejectedExecutionException If the send queue is full
+     */
+    private void enqueueLater(final OutboundMessage message, long delayMillis) {
+        if(!outboundMessageQueue.reserve()){
+            logger.warning("Send queue is full(" + outboundMessageQueue.getCapacity() + "); rejected held back message: "
+                    + message.getMessageId() + ". Rejected so far: " + outboundMessageQueue.getRejectedCount());
+            throw new RejectedExecutionException("Send queue is full.");
+        }
+        delayedSendTimer.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                outboundMessageQueue.offerReserved(message);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Points the message at the canonical token of its recipient, if there is one known
+     */
+    private void rewriteToCanonicalToken(AbstractDownstreamMessage outMessage) {
+        if(canonicalTokenCache == null || outMessage.getTo() == null){
+            return;
+        }
+        String canonicalToken = canonicalTokenCache.get(outMessage.getTo());
+        if(canonicalToken != null){
+            outMessage.setTo(canonicalToken);
+        }
+    }
+
+    /**
+     * @return A NACK, as CCS would have sent, if the message is to a token known to be dead; null otherwise
+     */
+    private DownstreamMessageResponse deadTokenResponse(String to, String messageId) {
+        if(deadTokenRegistry == null){
+            return null;
+        }
+        String error = deadTokenRegistry.getDeadError(to);
+        if(error == null){
+            return null;
+        }
+        DownstreamMessageResponse response = DownstreamMessageResponse.Builder.newBuilder(to, messageId, "nack")
+                .setError(error)
+                .setErrorDescription("Not sent; the registration token is known to be dead.")
+                .build();
+        if(messageStatusStore != null){
+            messageStatusStore.onResponse(messageId, false, error);
         }
+        return response;
+    }
+
+    private synchronized void openMessageStatusStore() {
+        if(messageStatusCapacity < 1 || messageStatusStore != null){
+            return;
+        }
+        messageStatusStore = new MessageStatusStore(messageStatusCapacity, messageStatusRetentionMillis, messageStatusOffHeap);
+    }
+
+    private void requeue(String messageId, String jsonMessage) {
+        if(outboundMessageQueue == null){
+            return;
+        }
+        outboundMessageQueue.requeue(new OutboundMessage(messageId, jsonMessage, true));
+    }
+
+    /**
+     * Sends the JSON as is. It is NOT accounted in the in-flight window, so it is meant
+     * for the messages CCS doesn't ACK/NACK back(for ex., an ACK for an Upstream message).
+     */
+	public void send(String jsonRequest) {
+        selectConnection().sendUnacknowledged(jsonRequest);
+    }
+
+    /**
+     * Sends the JSON as is on the given connection. For ex., an ACK for an Upstream
+     * message has to go out on the connection the message came in on.
+     */
+    public void send(String jsonRequest, CcsConnection ccsConnection) {
+        if(ccsConnection == null){
+            send(jsonRequest);
+            return;
+        }
+        ccsConnection.sendUnacknowledged(jsonRequest);
+    }
+
+    /**
+     * Sends the ACK for an Upstream message on the connection it came in on(any, if not known),
+     * right away - it skips the send queue and the in-flight window and is written ahead of
+     * the messages waiting on the connection. CCS holds back the Upstream messages of a
+     * sender while their ACKs are due.
+     */
+    public void sendAcknowledgement(UpstreamMessage.Acknowledgement acknowledgement, CcsConnection ccsConnection) {
+        if(ccsConnection == null){
+            ccsConnection = selectConnection();
+        }
+        ccsConnection.sendPriority(acknowledgement.toString());
     }
 
     /**
-     * Sends a outgoing message to FCM
+     * Sends a outgoing message to FCM. The calling thread is parked for as long as
+     * the in-flight window is full.
      */
     public void send(AbstractDownstreamMessage outMessage) {
-        send(outMessage.toString());
+        rewriteToCanonicalToken(outMessage);
+        // toString() assigns the message ID if there isn't one already
+        String jsonRequest = outMessage.toString();
+        if(deadTokenResponse(outMessage.getTo(), outMessage.getMessageId()) != null){
+            logger.fine("Not sending message: " + outMessage.getMessageId() + " to a dead token: " + outMessage.getTo());
+            return;
+        }
+        awaitRate(outMessage.getTo(), outMessage.getCondition(), outMessage.getMessageId());
+        send(outMessage.getMessageId(), jsonRequest);
+    }
+
+    private void send(String messageId, String jsonRequest) {
+        if(messageStatusStore != null){
+            messageStatusStore.onAccepted(messageId);
+        }
+        try {
+            // A connection may start draining between being picked and being sent on
+            while(!selectConnection().send(messageId, jsonRequest)){
+                logger.fine("Picked connection is draining; picking another for message: " + messageId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Interrupted while waiting for a slot in the in-flight window. Message: " + messageId);
+        }
+    }
+
+    /**
+     * Picks the connection with the fewest unacked messages among the usable ones(up and
+     * not draining). If there is none, it waits a while for one(for ex., the replacement
+     * of a draining connection) and then settles for any one - the send fails over to
+     * its failure handling.
+     */
+    private CcsConnection selectConnection() {
+        if(connections.isEmpty()){
+            throw new IllegalStateException("You have to connect the client first");
+        }
+        CcsConnection selected = selectUsableConnection();
+        if(selected != null){
+            return selected;
+        }
+
+        long deadline = System.currentTimeMillis() + USABLE_CONNECTION_WAIT_MILLIS;
+        synchronized (connectionsMonitor){
+            while((selected = selectUsableConnection()) == null){
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0){
+                    break;
+                }
+                try {
+                    connectionsMonitor.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if(selected != null){
+            return selected;
+        }
+        for(CcsConnection ccsConnection : connections){
+            if(!ccsConnection.isDraining()){
+                return ccsConnection;
+            }
+        }
+        return connections.get(0);
+    }
+
+    /**
+     * Waits up to the given time for there to be a connection in the pool
+     *
+     * @return false if there is still none
+     */
+    private boolean awaitConnection(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (connectionsMonitor){
+            while(connections.isEmpty()){
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0){
+                    return false;
+                }
+                try {
+                    connectionsMonitor.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private CcsConnection selectUsableConnection() {
+        CcsConnection selected = null;
+        for(CcsConnection ccsConnection : connections){
+            if(!ccsConnection.isUsable()){
+                continue;
+            }
+            if(selected == null || ccsConnection.getInFlightCount() < selected.getInFlightCount()){
+                selected = ccsConnection;
+            }
+        }
+        return selected;
     }
 
     /**
      * Sends a outgoing message to FCM in a background thread so that calling thread
-     * is not blocked, waiting for the response
+     * is not blocked, waiting for the response. Messages with "high" priority are
+     * sent before the rest.
+     *
+     * A message with a collapse key that is still waiting to be sent when a newer one with the
+     * same key(and recipient) comes is replaced by it; its result is that of the newer one.
+     *
+     * If there is an outbox, the message is in it(durably) by the time this returns, so it
+     * is sent even if the app server is restarted before CCS ACKs it.
+     *
+     * A message to a device(or, a topic) over its message rate is held back until it is within
+     * it; see {@link DeviceRateLimiter} and {@link TopicRateGovernor}.
+     *
+     * @return Completed with the ACK or, the final NACK(after the retries, if any) of the
+     * message. Completed exceptionally with a {@link java.util.concurrent.TimeoutException}
+     * if there is none within the response timeout.
+     * @throws RejectedExecutionException If the send queue is full, the message could not be
+     * written to the outbox or, it would have to be held back for longer than the max delay
      */
-    public void sendAsync(AbstractDownstreamMessage outMessage) {
+    public CompletableFuture<DownstreamMessageResponse> sendAsync(AbstractDownstreamMessage outMessage) {
+        return sendAsync(outMessage, responseTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
 
+    /**
+     * Same as {@link #sendAsync(AbstractDownstreamMessage)} but with its own response timeout.
+     */
+    public CompletableFuture<DownstreamMessageResponse> sendAsync(AbstractDownstreamMessage outMessage, long timeout, TimeUnit unit) {
+
+        rewriteToCanonicalToken(outMessage);
         String msgToBeSent = outMessage.toString();
-        logger.info("Message to be sent: " + MessageUtils.getPrettyPrintedJson(msgToBeSent));
-        // Every message will have its own sending task
-        executorService.submit(getNewStanzaSendingTask(msgToBeSent));
+        acceptedLogger.log(MessageLogger.DOWNSTREAM, "Message to be sent: {0}", msgToBeSent);
+        boolean highPriority = "high".equalsIgnoreCase(outMessage.getPriority());
+        String messageId = outMessage.getMessageId();
+
+        if(pendingResponses == null){
+            throw new IllegalStateException("You have to connect the client first");
+        }
+        DownstreamMessageResponse deadTokenResponse = deadTokenResponse(outMessage.getTo(), messageId);
+        if(deadTokenResponse != null){
+            // CCS would only NACK it
+            return CompletableFuture.completedFuture(deadTokenResponse);
+        }
+        // Registered before it is sent; the ACK may well beat this thread back
+        CompletableFuture<DownstreamMessageResponse> response = pendingResponses.register(messageId, unit.toMillis(timeout));
+
+        if(outbox != null){
+            try {
+                outbox.append(messageId, msgToBeSent);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not write message: " + messageId + " to the outbox.", e);
+                RejectedExecutionException rejected = new RejectedExecutionException("Could not write the message to the outbox.", e);
+                response.completeExceptionally(rejected);
+                throw rejected;
+            }
+        }
+        try {
+            OutboundMessage message = new OutboundMessage(messageId, msgToBeSent, highPriority, null,
+                    OutboundMessage.collapseKeyOf(outMessage.getTo() != null ? outMessage.getTo() : outMessage.getCondition(), outMessage.getCollapseKey()));
+            long delayMillis = reserveRate(outMessage.getTo(), outMessage.getCondition(), null);
+            if(delayMillis < 0){
+                throw new RejectedExecutionException("Recipient: " + (outMessage.getTo() != null ? outMessage.getTo() : outMessage.getCondition())
+                        + " is over its message rate.");
+            }
+            if(delayMillis == 0){
+                enqueue(message);
+            }
+            else{
+                // Over the rate of its device(or, topics); queued once it is within it again
+                enqueueLater(message, delayMillis);
+            }
+        } catch (RejectedExecutionException e) {
+            if(outbox != null){
+                // Not accepted after all
+                outbox.markDone(messageId);
+            }
+            response.completeExceptionally(e);
+            throw e;
+        }
+        if(messageStatusStore != null){
+            messageStatusStore.onAccepted(messageId);
+        }
+        return response;
+    }
+
+    /**
+     * Sends a batch of outgoing messages like {@link #sendAsync(AbstractDownstreamMessage)}.
+     * A message that could not be accepted doesn't fail the rest; its result is completed
+     * exceptionally instead.
+     *
+     * @return Results of the messages, in the same order
+     */
+    public List<CompletableFuture<DownstreamMessageResponse>> sendAsync(List<? extends AbstractDownstreamMessage> outMessages) {
+        List<CompletableFuture<DownstreamMessageResponse>> responses = new ArrayList<CompletableFuture<DownstreamMessageResponse>>(outMessages.size());
+        for(AbstractDownstreamMessage outMessage : outMessages){
+            try {
+                responses.add(sendAsync(outMessage));
+            } catch (RuntimeException e) {
+                CompletableFuture<DownstreamMessageResponse> failed = new CompletableFuture<DownstreamMessageResponse>();
+                failed.completeExceptionally(e);
+                responses.add(failed);
+            }
+        }
+        return responses;
     }
 
     /**
      * Sends a outgoing message to FCM in a background thread so that calling thread
-     * is not blocked, waiting for the response
+     * is not blocked, waiting for the response. Like {@link #send(String)}, it is not
+     * accounted in the in-flight window. It is treated as a high priority message.
+     *
+     * @throws RejectedExecutionException If the send queue is full
      */
     public void sendAsync(String jsonMessage) {
+        enqueue(new OutboundMessage(null, jsonMessage, true));
+    }
 
-        // Every message will have its own sending task
-        executorService.submit(getNewStanzaSendingTask(jsonMessage));
+    /**
+     * Same as {@link #sendAsync(String)} but the message goes out on the given connection.
+     */
+    public void sendAsync(String jsonMessage, CcsConnection ccsConnection) {
+        enqueue(new OutboundMessage(null, jsonMessage, true, ccsConnection));
     }
 
-    private StanzaSendingTask getNewStanzaSendingTask(String jsonMessageToBeSent){
-        // Create the Stanza sending task.
-        StanzaSendingTask stanzaSendingTask = new StanzaSendingTask(this, jsonMessageToBeSent);
+    private void enqueue(OutboundMessage message) {
+        if(outboundMessageQueue == null){
+            throw new IllegalStateException("You have to connect the client first");
+        }
+        if(!outboundMessageQueue.offer(message)){
+            logger.warning("Send queue is full(" + outboundMessageQueue.getCapacity() + "); rejected message: "
+                    + message.getMessageId() + ". Rejected so far: " + outboundMessageQueue.getRejectedCount());
+            throw new RejectedExecutionException("Send queue is full.");
+        }
+    }
 
-        return stanzaSendingTask;
+    private synchronized void startSenders() {
+        if(senderExecutorService != null){
+            return;
+        }
+        outboundMessageQueue = new OutboundMessageQueue(sendQueueCapacity);
+        outboundMessageQueue.setCoalescingListener(coalescingListener);
+        pendingResponses = new CorrelationRegistry<DownstreamMessageResponse>("CcsClient", responseTimeoutMillis);
+        // Retries go back on the queue, ahead of the new messages
+        retryScheduler = new RetryScheduler(new RetryScheduler.Resender() {
+            @Override
+            public void resend(String messageId, String jsonMessage) {
+                requeue(messageId, jsonMessage);
+            }
+        }, retryMaxAttempts, retryBaseDelayMillis, retryMaxDelayMillis);
+        if(deadLetterListener != null){
+            retryScheduler.setDeadLetterListener(deadLetterListener);
+        }
+        senderExecutorService = Executors.newFixedThreadPool(senderCount);
+        for(int i = 0; i < senderCount; i++){
+            senderExecutorService.submit(new StanzaSendingTask(this, outboundMessageQueue));
+        }
     }
 
 	/**
 	 * Sends a message to multiple recipients (list). Kind of like the old HTTP
 	 * message with the list of regIds in the "registration_ids" field.
+	 *
+	 * The message is serialized once into a {@link BroadcastTemplate}; the messages to the
+	 * recipients are rendered off it and sent in parallel, a slice of the recipients on each
+	 * core. The message itself is not changed. Returns once all of them have been sent.
 	 */
-	public void sendBroadcast(AbstractDownstreamMessage outMessage, List<String> recipients) {
-		for (String toRegId : recipients) {
-			outMessage.setTo(toRegId);
-			send(outMessage.toString());
+	public void sendBroadcast(AbstractDownstreamMessage outMessage, final List<String> recipients) {
+		final BroadcastTemplate template = BroadcastTemplate.of(outMessage);
+		int sliceCount = Math.max(1, Math.min(BROADCAST_PARALLELISM, recipients.size() / MIN_BROADCAST_SLICE_SIZE));
+		int sliceSize = (recipients.size() + sliceCount - 1) / sliceCount;
+
+		List<Future<?>> slices = new ArrayList<Future<?>>(sliceCount);
+		for(int start = 0; start < recipients.size(); start += sliceSize){
+			final int from = start;
+			final int to = Math.min(recipients.size(), start + sliceSize);
+			slices.add(broadcastExecutorService.submit(new Runnable() {
+				@Override
+				public void run() {
+					for(int i = from; i < to && !Thread.currentThread().isInterrupted(); i++){
+						// Each of them is a message of its own as far as CCS(and the in-flight window) is concerned
+						String messageId = template.messageId(i);
+						String recipient = canonicalTokenCache != null ? canonicalTokenCache.resolve(recipients.get(i)) : recipients.get(i);
+						if(deadTokenResponse(recipient, messageId) != null){
+							continue;
+						}
+						awaitRate(recipient, null, messageId);
+						send(messageId, template.render(recipient, messageId));
+					}
+				}
+			}));
+		}
+
+		try {
+			for(Future<?> slice : slices){
+				slice.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			for(Future<?> slice : slices){
+				slice.cancel(true);
+			}
+			logger.warning("Interrupted while broadcasting to " + recipients.size() + " recipients.");
+		} catch (ExecutionException e) {
+			logger.log(Level.SEVERE, "Failed broadcasting to " + recipients.size() + " recipients.", e.getCause());
 		}
 	}
 
@@ -268,42 +1080,473 @@ public final class CcsClient{
         this.connectionListener = connectionListener;
     }
 
+    /**
+     * @return The connections in the pool(read-only)
+     */
+    public List<CcsConnection> getConnections() {
+        return Collections.unmodifiableList(connections);
+    }
+
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    /**
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setConnectionPoolSize(int connectionPoolSize) {
+        if(connectionPoolSize <= 0){
+            throw new IllegalArgumentException("Connection pool size must be positive.");
+        }
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
+    /**
+     * @return The send queue(for its depth and rejections) or, null if the client is not connected yet
+     */
+    public OutboundMessageQueue getOutboundMessageQueue() {
+        return outboundMessageQueue;
+    }
+
+    public int getSendQueueCapacity() {
+        return sendQueueCapacity;
+    }
+
+    /**
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setSendQueueCapacity(int sendQueueCapacity) {
+        this.sendQueueCapacity = sendQueueCapacity;
+    }
+
+    public int getSenderCount() {
+        return senderCount;
+    }
+
+    /**
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setSenderCount(int senderCount) {
+        this.senderCount = senderCount;
+    }
+
+    /**
+     * @return The retry scheduler or, null if the client is not connected yet
+     */
+    public RetryScheduler getRetryScheduler() {
+        return retryScheduler;
+    }
+
+    public int getRetryMaxAttempts() {
+        return retryMaxAttempts;
+    }
+
+    /**
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setRetryMaxAttempts(int retryMaxAttempts) {
+        this.retryMaxAttempts = retryMaxAttempts;
+    }
+
+    public long getRetryBaseDelayMillis() {
+        return retryBaseDelayMillis;
+    }
+
+    /**
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setRetryBaseDelayMillis(long retryBaseDelayMillis) {
+        this.retryBaseDelayMillis = retryBaseDelayMillis;
+    }
+
+    public long getRetryMaxDelayMillis() {
+        return retryMaxDelayMillis;
+    }
+
+    /**
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setRetryMaxDelayMillis(long retryMaxDelayMillis) {
+        this.retryMaxDelayMillis = retryMaxDelayMillis;
+    }
+
+    /**
+     * @return The outbox or, null if there is none(or, the client is not connected yet)
+     */
+    public MappedOutbox getOutbox() {
+        return outbox;
+    }
+
+    public long getResponseTimeoutMillis() {
+        return responseTimeoutMillis;
+    }
+
+    /**
+     * Default timeout of the results returned by {@link #sendAsync(AbstractDownstreamMessage)}.
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setResponseTimeoutMillis(long responseTimeoutMillis) {
+        this.responseTimeoutMillis = responseTimeoutMillis;
+    }
+
+    public String getOutboxDirectory() {
+        return outboxDirectory;
+    }
+
+    /**
+     * Directory for the outbox; null(the default) for none. Takes effect only if set before {@link #connect()}
+     */
+    public void setOutboxDirectory(String outboxDirectory) {
+        this.outboxDirectory = outboxDirectory;
+    }
+
+    public int getOutboxSegmentSize() {
+        return outboxSegmentSize;
+    }
+
+    /**
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setOutboxSegmentSize(int outboxSegmentSize) {
+        this.outboxSegmentSize = outboxSegmentSize;
+    }
+
+    public String getWireCaptureFile() {
+        return wireCaptureFile;
+    }
+
+    /**
+     * Ring file to capture the JSON going in and out into; null(the default) for none.
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setWireCaptureFile(String wireCaptureFile) {
+        this.wireCaptureFile = wireCaptureFile;
+    }
+
+    public int getWireCaptureSize() {
+        return wireCaptureSize;
+    }
+
+    /**
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setWireCaptureSize(int wireCaptureSize) {
+        this.wireCaptureSize = wireCaptureSize;
+    }
+
+    public int getWireCaptureSlotSize() {
+        return wireCaptureSlotSize;
+    }
+
+    /**
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setWireCaptureSlotSize(int wireCaptureSlotSize) {
+        this.wireCaptureSlotSize = wireCaptureSlotSize;
+    }
+
+    /**
+     * @return The wire capture or, null if there is none
+     */
+    public WireCaptureRing getWireCapture() {
+        return wireCapture;
+    }
+
+    public int getMessageStatusCapacity() {
+        return messageStatusCapacity;
+    }
+
+    /**
+     * Messages the delivery tracking holds per generation; 0 for no tracking.
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setMessageStatusCapacity(int messageStatusCapacity) {
+        this.messageStatusCapacity = messageStatusCapacity;
+    }
+
+    public long getMessageStatusRetentionMillis() {
+        return messageStatusRetentionMillis;
+    }
+
+    /**
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setMessageStatusRetentionMillis(long messageStatusRetentionMillis) {
+        this.messageStatusRetentionMillis = messageStatusRetentionMillis;
+    }
+
+    public boolean isMessageStatusOffHeap() {
+        return messageStatusOffHeap;
+    }
+
+    /**
+     * Whether the delivery tracking is kept off the heap. Takes effect only if set before {@link #connect()}
+     */
+    public void setMessageStatusOffHeap(boolean messageStatusOffHeap) {
+        this.messageStatusOffHeap = messageStatusOffHeap;
+    }
+
+    /**
+     * @return The delivery tracking or, null if there is none
+     */
+    public MessageStatusStore getMessageStatusStore() {
+        return messageStatusStore;
+    }
+
+    public boolean isDeadTokenFiltering() {
+        return deadTokenFiltering;
+    }
+
+    /**
+     * Whether the messages to the tokens CCS has NACKed as DEVICE_UNREGISTERED or BAD_REGISTRATION
+     * are kept from being sent; on by default. Takes effect only if set before {@link #connect()}
+     */
+    public void setDeadTokenFiltering(boolean deadTokenFiltering) {
+        this.deadTokenFiltering = deadTokenFiltering;
+    }
+
+    public String getDeadTokenSnapshotFile() {
+        return deadTokenSnapshotFile;
+    }
+
+    /**
+     * File the dead tokens are kept in across restarts; null(the default) for none.
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setDeadTokenSnapshotFile(String deadTokenSnapshotFile) {
+        this.deadTokenSnapshotFile = deadTokenSnapshotFile;
+    }
+
+    public int getDeadTokenMaxSize() {
+        return deadTokenMaxSize;
+    }
+
+    /**
+     * Dead tokens kept at most; the ones marked earliest make way. Takes effect only if set before {@link #connect()}
+     */
+    public void setDeadTokenMaxSize(int deadTokenMaxSize) {
+        this.deadTokenMaxSize = deadTokenMaxSize;
+    }
+
+    public long getDeadTokenRetentionMillis() {
+        return deadTokenRetentionMillis;
+    }
+
+    /**
+     * How long a token is kept as dead. Takes effect only if set before {@link #connect()}
+     */
+    public void setDeadTokenRetentionMillis(long deadTokenRetentionMillis) {
+        this.deadTokenRetentionMillis = deadTokenRetentionMillis;
+    }
+
+    /**
+     * @return The dead tokens or, null if they are not being filtered
+     */
+    public DeadTokenRegistry getDeadTokenRegistry() {
+        return deadTokenRegistry;
+    }
+
+    public int getCanonicalTokenCacheSize() {
+        return canonicalTokenCacheSize;
+    }
+
+    /**
+     * Number of old registration tokens the canonical ones are remembered for; 0 for none.
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setCanonicalTokenCacheSize(int canonicalTokenCacheSize) {
+        this.canonicalTokenCacheSize = canonicalTokenCacheSize;
+    }
+
+    /**
+     * @return The canonical tokens or, null if they are not being remembered
+     */
+    public CanonicalTokenCache getCanonicalTokenCache() {
+        return canonicalTokenCache;
+    }
+
+    public int getDeviceMessagesPerMinute() {
+        return deviceMessagesPerMinute;
+    }
+
+    /**
+     * Messages a device may be sent a minute; 0 for no limit. Takes effect only if set before {@link #connect()}
+     */
+    public void setDeviceMessagesPerMinute(int deviceMessagesPerMinute) {
+        this.deviceMessagesPerMinute = deviceMessagesPerMinute;
+    }
+
+    public int getDeviceMessageBurst() {
+        return deviceMessageBurst;
+    }
+
+    /**
+     * Messages a device may be sent at once, before its rate kicks in. Takes effect only if set before {@link #connect()}
+     */
+    public void setDeviceMessageBurst(int deviceMessageBurst) {
+        this.deviceMessageBurst = deviceMessageBurst;
+    }
+
+    public long getDeviceRateMaxDelayMillis() {
+        return deviceRateMaxDelayMillis;
+    }
+
+    /**
+     * The longest a message may be held back for the rate of its device before it is rejected
+     */
+    public void setDeviceRateMaxDelayMillis(long deviceRateMaxDelayMillis) {
+        this.deviceRateMaxDelayMillis = deviceRateMaxDelayMillis;
+    }
+
+    /**
+     * @return The device rate limiter or, null if there is no limit
+     */
+    public DeviceRateLimiter getDeviceRateLimiter() {
+        return deviceRateLimiter;
+    }
+
+    public int getTopicMessagesPerMinute() {
+        return topicMessagesPerMinute;
+    }
+
+    /**
+     * Messages a topic may be sent a minute; 0 for no pacing. Takes effect only if set before {@link #connect()}
+     */
+    public void setTopicMessagesPerMinute(int topicMessagesPerMinute) {
+        this.topicMessagesPerMinute = topicMessagesPerMinute;
+    }
+
+    public int getTopicMessageBurst() {
+        return topicMessageBurst;
+    }
+
+    /**
+     * Messages a topic may be sent at once, before its rate kicks in. Takes effect only if set before {@link #connect()}
+     */
+    public void setTopicMessageBurst(int topicMessageBurst) {
+        this.topicMessageBurst = topicMessageBurst;
+    }
+
+    public long getTopicRateMaxDelayMillis() {
+        return topicRateMaxDelayMillis;
+    }
+
+    /**
+     * The longest a message may be held back for the rate of its topics before it is rejected
+     */
+    public void setTopicRateMaxDelayMillis(long topicRateMaxDelayMillis) {
+        this.topicRateMaxDelayMillis = topicRateMaxDelayMillis;
+    }
+
+    /**
+     * @return The topic rate governor or, null if there is no pacing
+     */
+    public TopicRateGovernor getTopicRateGovernor() {
+        return topicRateGovernor;
+    }
+
+    public int getInboundDispatchLanes() {
+        return inboundDispatchLanes;
+    }
+
+    /**
+     * Number of threads the inbound messages are handled on; 0 to leave it to Smack's own
+     * executor, without any ordering. Takes effect only if set before {@link #connect()}
+     */
+    public void setInboundDispatchLanes(int inboundDispatchLanes) {
+        this.inboundDispatchLanes = inboundDispatchLanes;
+    }
+
+    public int getInboundDispatchLaneCapacity() {
+        return inboundDispatchLaneCapacity;
+    }
+
+    /**
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setInboundDispatchLaneCapacity(int inboundDispatchLaneCapacity) {
+        this.inboundDispatchLaneCapacity = inboundDispatchLaneCapacity;
+    }
+
+    /**
+     * @return The inbound dispatcher or, null if there is none
+     */
+    public InboundDispatcher getInboundDispatcher() {
+        return inboundDispatcher;
+    }
+
+    public boolean isTypedInboundDecoding() {
+        return typedInboundDecoding;
+    }
+
+    /**
+     * Whether the inbound JSON is decoded into typed messages by the extension provider, at
+     * XML-parse time on the reader thread, rather than by the stanza listener. Off by default.
+     * Takes effect only if set before {@link #connect()}
+     */
+    public void setTypedInboundDecoding(boolean typedInboundDecoding) {
+        this.typedInboundDecoding = typedInboundDecoding;
+    }
+
+    public RetryScheduler.DeadLetterListener getDeadLetterListener() {
+        return deadLetterListener;
+    }
+
+    /**
+     * Informed of the messages given up on after running out of retries. By default, they are logged.
+     */
+    public void setDeadLetterListener(RetryScheduler.DeadLetterListener deadLetterListener) {
+        this.deadLetterListener = deadLetterListener;
+        if(retryScheduler != null){
+            retryScheduler.setDeadLetterListener(deadLetterListener);
+        }
+    }
+
     //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A sender worker - keeps taking messages off the send queue and sending them.
+     */
     private static class StanzaSendingTask implements Runnable{
 
 	    private CcsClient client;
-	    private String jsonMsg;
+	    private OutboundMessageQueue queue;
 
-        public StanzaSendingTask(CcsClient client) {
+        public StanzaSendingTask(CcsClient client, OutboundMessageQueue queue) {
             if(client == null){
                 throw new IllegalStateException("Client is uninitialized.");
             }
             this.client = client;
-        }
-
-        public StanzaSendingTask(CcsClient client, String jsonMsg) {
-            this(client);
-            this.jsonMsg = jsonMsg;
-        }
-
-        public CcsClient getClient() {
-            return client;
-        }
-
-        public String getJsonMsg() {
-            return jsonMsg;
-        }
-
-        public void setJsonMsg(String jsonMsg) {
-            this.jsonMsg = jsonMsg;
+            this.queue = queue;
         }
 
         @Override
         public void run() {
-            if(jsonMsg == null || jsonMsg.isEmpty()){
-                throw new RuntimeException("Message to be sent cannot be null or empty.");
+            while(!Thread.currentThread().isInterrupted()){
+                OutboundMessage message;
+                try {
+                    message = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if(message.getConnection() == null && !client.awaitConnection(USABLE_CONNECTION_WAIT_MILLIS)){
+                    // Not to be dropped; it waits on the queue until there is a connection to send it on
+                    logger.warning("No connection to send message: " + message.getMessageId() + " on; putting it back.");
+                    queue.requeue(message);
+                    continue;
+                }
+                try {
+                    if(message.isAcknowledgeable()){
+                        client.send(message.getMessageId(), message.getJsonMessage());
+                    }
+                    else{
+                        client.send(message.getJsonMessage(), message.getConnection());
+                    }
+                } catch (RuntimeException e) {
+                    // Don't let one bad message take the worker down
+                    logger.log(Level.SEVERE, "Failed to send message: " + message.getMessageId(), e);
+                }
             }
-            client.send(jsonMsg);
         }
     }
 }
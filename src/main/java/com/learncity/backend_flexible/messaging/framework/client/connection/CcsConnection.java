@@ -0,0 +1,279 @@
+package com.learncity.backend_flexible.messaging.framework.client.connection;
+
+import com.learncity.backend_flexible.messaging.framework.client.flowcontrol.InFlightWindow;
+import com.learncity.backend_flexible.messaging.framework.client.status.MessageStatusStore;
+import com.learncity.backend_flexible.messaging.framework.util.capture.WireCaptureRing;
+import org.jivesoftware.smack.AbstractConnectionListener;
+import org.jivesoftware.smack.ReconnectionManager;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.tcp.XMPPTCPConnection;
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.learncity.backend_flexible.messaging.framework.Constants.FCM_MAX_UNACKED_MESSAGES_PER_CONNECTION;
+
+/**
+ * One XMPP connection to CCS along with everything that is kept per connection - the
+ * in-flight window of the downstream messages sent over it and its stanza writer.
+ *
+ * Once CCS says it is draining, the connection only waits for the ACKs/NACKs of the
+ * messages in flight and closes itself when there are none left.
+ */
+public class CcsConnection {
+
+    private static final Logger logger = Logger.getLogger(CcsConnection.class.getSimpleName());
+
+    private static final AtomicInteger idSequence = new AtomicInteger();
+
+    private final int id;
+    private final XMPPTCPConnection connection;
+    private final InFlightWindow inFlightWindow;
+    private final StanzaWriter stanzaWriter;
+    private final Listener listener;
+
+    // Captures the JSON going in and out, if set
+    private volatile WireCaptureRing wireCapture;
+
+    private volatile boolean draining;
+    private final AtomicBoolean drained = new AtomicBoolean();
+
+    /**
+     * Informed of what happens to the connection and the messages sent over it.
+     */
+    public interface Listener {
+
+        /**
+         * The messages(Message ID -> JSON payload) are not going to be ACKed/NACKed on this
+         * connection - either they could not be written or, the connection was lost with them
+         * in flight. They should be sent again on some other connection.
+         */
+        void onMessagesLost(CcsConnection connection, Map<String, String> messages);
+
+        /**
+         * The connection has drained and is closed now.
+         */
+        void onDrained(CcsConnection connection);
+    }
+
+    public CcsConnection(XMPPTCPConnectionConfiguration config, Listener listener) {
+        this.id = idSequence.incrementAndGet();
+        this.listener = listener;
+        this.connection = new XMPPTCPConnection(config);
+        this.inFlightWindow = new InFlightWindow(FCM_MAX_UNACKED_MESSAGES_PER_CONNECTION);
+        this.stanzaWriter = new StanzaWriter(connection, StanzaWriter.DEFAULT_MAX_BATCH_CHARS, new StanzaWriter.WriteFailureListener() {
+            @Override
+            public void onWriteFailure(String messageId, String jsonMessage, Exception e) {
+                logger.log(Level.WARNING, "Failed to send message: " + messageId + " on connection " + id, e);
+                // Never went out; nothing is going to ACK it.
+                if(inFlightWindow.release(messageId) != null){
+                    onMessagesLost(Collections.singletonMap(messageId, jsonMessage));
+                }
+                else if(messageId == null){
+                    // An ACK to an Upstream message; it can only go out on this connection.
+                    logger.warning("Dropped an unacknowledged message on connection " + id);
+                }
+                closeIfDrained();
+            }
+        });
+
+        connection.addConnectionListener(new AbstractConnectionListener() {
+            @Override
+            public void connectionClosedOnError(Exception e) {
+                // No ACK/NACK is coming for the messages in flight on this connection anymore.
+                // Don't let them hold up the window for the reconnected one.
+                Map<String, String> released = inFlightWindow.releaseAll();
+                if(!released.isEmpty()){
+                    logger.warning(released.size() + " message(s) were in flight when connection " + id + " was lost.");
+                    onMessagesLost(released);
+                }
+                // A draining connection is not coming back
+                closeIfDrained();
+            }
+        });
+    }
+
+    /**
+     * Connects and logs in.
+     */
+    public void connect() throws XMPPException, SmackException, IOException, InterruptedException {
+        stanzaWriter.start();
+        connection.connect();
+        connection.login();
+    }
+
+    public void disconnect() {
+        ReconnectionManager.getInstanceFor(connection).disableAutomaticReconnection();
+        stanzaWriter.shutdown();
+        connection.disconnect();
+    }
+
+    /**
+     * Marks the connection as draining - nothing new is to be sent on it. It is closed as
+     * soon as the messages in flight are ACKed/NACKed.
+     *
+     * @return false if it was already draining
+     */
+    public boolean markDraining() {
+        if(draining){
+            return false;
+        }
+        draining = true;
+        // Once closed, it is to stay closed
+        ReconnectionManager.getInstanceFor(connection).disableAutomaticReconnection();
+        logger.info("Connection " + id + " is draining with " + inFlightWindow.size() + " message(s) in flight.");
+        closeIfDrained();
+        return true;
+    }
+
+    private void closeIfDrained() {
+        if(!draining || (inFlightWindow.size() > 0 && connection.isConnected())){
+            return;
+        }
+        if(drained.compareAndSet(false, true)){
+            logger.info("Connection " + id + " has drained; closing it.");
+            disconnect();
+            if(listener != null){
+                listener.onDrained(this);
+            }
+        }
+    }
+
+    private void onMessagesLost(Map<String, String> messages) {
+        if(listener != null){
+            listener.onMessagesLost(this, messages);
+        }
+    }
+
+    /**
+     * Sends a downstream message that CCS is going to ACK/NACK. The calling thread is
+     * parked for as long as the in-flight window of this connection is full.
+     *
+     * @return false if the message was not taken because the connection is draining; a
+     * message in flight on it already is taken, but not written again
+     */
+    public boolean send(String messageId, String jsonMessage) throws InterruptedException {
+        if(draining){
+            return false;
+        }
+        if(!inFlightWindow.acquire(messageId, jsonMessage)){
+            logger.fine("Message: " + messageId + " is in flight already on connection " + id + "; not sending it again.");
+            return true;
+        }
+        if(draining){
+            // Started draining while we were parked
+            inFlightWindow.release(messageId);
+            closeIfDrained();
+            return false;
+        }
+        stanzaWriter.write(messageId, jsonMessage);
+        return true;
+    }
+
+    /**
+     * Sends a message that CCS doesn't ACK/NACK back(for ex., an ACK for an Upstream message).
+     * It is not accounted in the in-flight window.
+     */
+    public void sendUnacknowledged(String jsonMessage) {
+        stanzaWriter.write(null, jsonMessage);
+    }
+
+    /**
+     * Sends the JSON ahead of anything else queued on this connection. Like
+     * {@link #sendUnacknowledged(String)}, it is not accounted in the in-flight window.
+     */
+    public void sendPriority(String jsonMessage) {
+        stanzaWriter.writePriority(jsonMessage);
+    }
+
+    /**
+     * Frees up the window slot of the message, ACKed/NACKed by CCS.
+     *
+     * @return The JSON payload of the message or, null if it wasn't in flight on this connection
+     */
+    public String release(String messageId) {
+        String jsonMessage = inFlightWindow.release(messageId);
+        closeIfDrained();
+        return jsonMessage;
+    }
+
+    /**
+     * @return Whether the connection is up and authenticated
+     */
+    public boolean isConnected() {
+        return connection.isAuthenticated();
+    }
+
+    /**
+     * @return Whether new messages can be sent on this connection
+     */
+    public boolean isUsable() {
+        return !draining && isConnected();
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public int getInFlightCount() {
+        return inFlightWindow.size();
+    }
+
+    /**
+     * Captures the JSON of the messages going out and coming in on this connection into the ring
+     *
+     * @param wireCapture null for none
+     */
+    public void setWireCapture(WireCaptureRing wireCapture) {
+        this.wireCapture = wireCapture;
+        stanzaWriter.setWireCapture(wireCapture, id);
+    }
+
+    /**
+     * Marks the messages written on this connection as sent in the store
+     *
+     * @param messageStatusStore null for none
+     */
+    public void setMessageStatusStore(MessageStatusStore messageStatusStore) {
+        stanzaWriter.setMessageStatusStore(messageStatusStore);
+    }
+
+    /**
+     * Captures the JSON of a message that came in on this connection, if capturing
+     */
+    public void captureInbound(String json) {
+        WireCaptureRing capture = wireCapture;
+        if(capture != null){
+            capture.record(id, WireCaptureRing.INBOUND, json);
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public XMPPTCPConnection getConnection() {
+        return connection;
+    }
+
+    public InFlightWindow getInFlightWindow() {
+        return inFlightWindow;
+    }
+
+    public StanzaWriter getStanzaWriter() {
+        return stanzaWriter;
+    }
+
+    @Override
+    public String toString() {
+        return "CcsConnection{id=" + id + ", inFlight=" + inFlightWindow.size() + ", connected=" + isConnected()
+                + ", draining=" + draining + "}";
+    }
+}
@@ -0,0 +1,325 @@
+package com.learncity.backend_flexible.messaging.framework.client.connection;
+
+import com.learncity.backend_flexible.messaging.framework.client.status.MessageStatusStore;
+import com.learncity.backend_flexible.messaging.framework.util.capture.WireCaptureRing;
+import com.learncity.backend_flexible.messaging.framework.util.logging.MessageLogger;
+import com.learncity.backend_flexible.messaging.framework.util.smackx.fcm.packet.FcmPacketExtension;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Nonza;
+import org.jivesoftware.smack.util.StringUtils;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The one and only writer of FCM stanzas on a connection.
+ *
+ * Any number of threads can hand stanzas to it; they are queued on a lock-free queue
+ * and a dedicated writer thread drains it. Whatever is queued up(within the batch size)
+ * is written to the connection as a single element - so, a burst of stanzas costs one
+ * writer queue hand-off and one socket flush instead of one for each stanza.
+ */
+public class StanzaWriter {
+
+    private static final Logger logger = Logger.getLogger(StanzaWriter.class.getSimpleName());
+    private static final MessageLogger sentLogger = new MessageLogger(logger, Level.INFO);
+
+    // Roughly a TLS record's worth of characters
+    public static final int DEFAULT_MAX_BATCH_CHARS = 16 * 1024;
+
+    // The stanza a message goes in, rendered once; only the JSON(escaped for XML) goes in between
+    private static final String STANZA_HEAD = "<" + Message.ELEMENT + "><" + FcmPacketExtension.ELEMENT
+            + " xmlns='" + FcmPacketExtension.NAMESPACE + "'>";
+    private static final String STANZA_TAIL = "</" + FcmPacketExtension.ELEMENT + "></" + Message.ELEMENT + ">";
+
+    // Upper bound on an idle writer's sleep; it is woken up on a write anyway
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Informed of the stanzas that could not be written, for ex., because the connection is gone.
+     */
+    public interface WriteFailureListener {
+        void onWriteFailure(String messageId, String jsonMessage, Exception e);
+    }
+
+    private final XMPPConnection connection;
+    private final int maxBatchChars;
+    private final WriteFailureListener writeFailureListener;
+
+    private final ConcurrentLinkedQueue<PendingStanza> pendingStanzas = new ConcurrentLinkedQueue<PendingStanza>();
+    // Written ahead of the ones pending above
+    private final ConcurrentLinkedQueue<PendingStanza> priorityStanzas = new ConcurrentLinkedQueue<PendingStanza>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    // Captures the stanzas written, if set
+    private volatile WireCaptureRing wireCapture;
+    private volatile int wireCaptureConnectionId;
+    // Marks the messages written as sent, if set
+    private volatile MessageStatusStore messageStatusStore;
+
+    private volatile Thread writerThread;
+    private volatile boolean running;
+    private volatile boolean idle;
+
+    // Written by the writer thread only
+    private volatile long writtenStanzaCount;
+    private volatile long writtenBatchCount;
+
+    public StanzaWriter(XMPPConnection connection, int maxBatchChars, WriteFailureListener writeFailureListener) {
+        if(connection == null){
+            throw new IllegalArgumentException("Connection cannot be null.");
+        }
+        this.connection = connection;
+        this.maxBatchChars = maxBatchChars;
+        this.writeFailureListener = writeFailureListener;
+    }
+
+    public synchronized void start() {
+        if(running){
+            return;
+        }
+        running = true;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "StanzaWriter-" + Integer.toHexString(System.identityHashCode(connection)));
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stops the writer thread. The stanzas still queued are handed to the failure listener.
+     */
+    public synchronized void shutdown() {
+        running = false;
+        Thread thread = writerThread;
+        if(thread != null){
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Queues the JSON to be written as an FCM stanza. Never blocks.
+     *
+     * @param messageId ID of the message; passed back to the failure listener, if need be
+     */
+    public void write(String messageId, String jsonMessage) {
+        // Building the stanza is left to the calling thread; the writer thread only writes
+        pendingStanzas.offer(new PendingStanza(messageId, jsonMessage, toStanza(jsonMessage)));
+        pendingCount.incrementAndGet();
+        onQueued();
+    }
+
+    /**
+     * Queues the JSON to be written ahead of everything else pending - for the messages that
+     * can't wait, ACKs for Upstream messages for ex. Never blocks.
+     */
+    public void writePriority(String jsonMessage) {
+        priorityStanzas.offer(new PendingStanza(null, jsonMessage, toStanza(jsonMessage)));
+        pendingCount.incrementAndGet();
+        onQueued();
+    }
+
+    /**
+     * The FCM stanza for the JSON - the same for either queue
+     */
+    static String toStanza(String jsonMessage) {
+        return STANZA_HEAD + StringUtils.escapeForXmlText(jsonMessage) + STANZA_TAIL;
+    }
+
+    private void onQueued() {
+        if(!running){
+            // Shut down already; it is not going out
+            failPendingStanzas();
+            return;
+        }
+        if(idle){
+            Thread thread = writerThread;
+            if(thread != null){
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingStanza> batch = new ArrayList<PendingStanza>();
+        while(running){
+            PendingStanza pendingStanza = nextStanza();
+            if(pendingStanza == null){
+                idle = true;
+                // Re-check so that a write racing with us going idle is not missed
+                if(pendingStanzas.isEmpty() && priorityStanzas.isEmpty() && running){
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idle = false;
+                continue;
+            }
+
+            int batchChars = 0;
+            do{
+                pendingCount.decrementAndGet();
+                batch.add(pendingStanza);
+                batchChars += pendingStanza.xml.length();
+                if(batchChars >= maxBatchChars){
+                    break;
+                }
+                pendingStanza = nextStanza();
+            }
+            while(pendingStanza != null);
+
+            writeBatch(batch);
+            batch.clear();
+        }
+
+        // Shut down; whatever is left is not going out
+        failPendingStanzas();
+    }
+
+    private PendingStanza nextStanza() {
+        PendingStanza pendingStanza = priorityStanzas.poll();
+        return pendingStanza != null ? pendingStanza : pendingStanzas.poll();
+    }
+
+    private void failPendingStanzas() {
+        PendingStanza pendingStanza;
+        while((pendingStanza = nextStanza()) != null){
+            pendingCount.decrementAndGet();
+            fail(pendingStanza, new SmackException.NotConnectedException());
+        }
+    }
+
+    private void writeBatch(List<PendingStanza> batch) {
+        try {
+            connection.sendNonza(new CoalescedStanzas(batch));
+            writtenStanzaCount += batch.size();
+            writtenBatchCount++;
+            WireCaptureRing capture = wireCapture;
+            MessageStatusStore statusStore = messageStatusStore;
+            for(PendingStanza pendingStanza : batch){
+                if(capture != null){
+                    capture.record(wireCaptureConnectionId, WireCaptureRing.OUTBOUND, pendingStanza.jsonMessage);
+                }
+                if(statusStore != null && pendingStanza.messageId != null){
+                    statusStore.onSent(pendingStanza.messageId);
+                }
+                // The XML is rendered already; it is only copied out if it makes the sample
+                sentLogger.log(MessageLogger.DOWNSTREAM, "Sent: {0}", pendingStanza.xml);
+            }
+        } catch (SmackException.NotConnectedException e) {
+            for(PendingStanza pendingStanza : batch){
+                fail(pendingStanza, e);
+            }
+        } catch (InterruptedException e) {
+            for(PendingStanza pendingStanza : batch){
+                fail(pendingStanza, e);
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Failed writing a batch of " + batch.size() + " stanza(s).", e);
+            for(PendingStanza pendingStanza : batch){
+                fail(pendingStanza, e);
+            }
+        }
+    }
+
+    private void fail(PendingStanza pendingStanza, Exception e) {
+        if(writeFailureListener != null){
+            writeFailureListener.onWriteFailure(pendingStanza.messageId, pendingStanza.jsonMessage, e);
+        }
+    }
+
+    /**
+     * @return Number of stanzas queued, yet to be written
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getWrittenStanzaCount() {
+        return writtenStanzaCount;
+    }
+
+    /**
+     * @return Number of writes(and hence, flushes) it took to write {@link #getWrittenStanzaCount()} stanzas
+     */
+    public long getWrittenBatchCount() {
+        return writtenBatchCount;
+    }
+
+    /**
+     * Captures the JSON of the stanzas written from now on into the ring, as of the connection ID
+     *
+     * @param wireCapture null for none
+     */
+    public void setWireCapture(WireCaptureRing wireCapture, int connectionId) {
+        this.wireCaptureConnectionId = connectionId;
+        this.wireCapture = wireCapture;
+    }
+
+    /**
+     * Marks the messages written from now on as sent in the store
+     *
+     * @param messageStatusStore null for none
+     */
+    public void setMessageStatusStore(MessageStatusStore messageStatusStore) {
+        this.messageStatusStore = messageStatusStore;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    private static class PendingStanza {
+
+        private final String messageId;
+        private final String jsonMessage;
+        private final CharSequence xml;
+
+        private PendingStanza(String messageId, String jsonMessage, CharSequence xml) {
+            this.messageId = messageId;
+            this.jsonMessage = jsonMessage;
+            this.xml = xml;
+        }
+    }
+
+    /**
+     * Several already rendered stanzas written back to back as one top level element.
+     */
+    private static class CoalescedStanzas implements Nonza {
+
+        private final XmlStringBuilder xml = new XmlStringBuilder();
+
+        private CoalescedStanzas(List<PendingStanza> batch) {
+            for(PendingStanza pendingStanza : batch){
+                xml.append(pendingStanza.xml);
+            }
+        }
+
+        @Override
+        public String getNamespace() {
+            return FcmPacketExtension.NAMESPACE;
+        }
+
+        @Override
+        public String getElementName() {
+            return Message.ELEMENT;
+        }
+
+        @Override
+        public XmlStringBuilder toXML() {
+            return xml;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.learncity.backend_flexible.messaging.framework.client.dispatch;
+
+import com.learncity.backend_flexible.messaging.framework.util.hash.Hashes;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the handling of the inbound messages on a fixed set of lanes, a thread each. A
+ * message goes to the lane its key(the device it is from, for ex.) hashes to - so the
+ * messages of a device are handled one after another, in the order they came in, while
+ * those of different devices are handled in parallel.
+ *
+ * A lane holds up to a capacity of messages; past it, the dispatching thread waits - the
+ * reading off the connection slows down rather than the messages piling up.
+ */
+public class InboundDispatcher {
+
+    private static final Logger logger = Logger.getLogger(InboundDispatcher.class.getSimpleName());
+
+    public static final int DEFAULT_LANE_COUNT = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_LANE_CAPACITY = 1024;
+
+    private final String name;
+    private final Lane[] lanes;
+
+    private volatile boolean running;
+
+    public InboundDispatcher(String name, int laneCount, int laneCapacity) {
+        if(laneCount < 1){
+            throw new IllegalArgumentException("There has to be at least one lane.");
+        }
+        this.name = name;
+        this.lanes = new Lane[laneCount];
+        for(int i = 0; i < laneCount; i++){
+            lanes[i] = new Lane(laneCapacity);
+        }
+    }
+
+    public synchronized void start() {
+        if(running){
+            return;
+        }
+        running = true;
+        for(int i = 0; i < lanes.length; i++){
+            final Lane lane = lanes[i];
+            lane.thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runLane(lane);
+                }
+            }, name + "-lane-" + i);
+            lane.thread.setDaemon(true);
+            lane.thread.start();
+        }
+    }
+
+    /**
+     * Stops the lanes; the messages yet to be handled are dropped.
+     */
+    public synchronized void shutdown() {
+        running = false;
+        for(Lane lane : lanes){
+            if(lane.thread != null){
+                lane.thread.interrupt();
+            }
+            lane.tasks.clear();
+        }
+    }
+
+    /**
+     * Queues the task on the lane of the key, waiting for room if the lane is full.
+     *
+     * @param key null for the first lane
+     * @throws RejectedExecutionException If it is not running
+     */
+    public void dispatch(String key, Runnable task) throws InterruptedException {
+        if(!running){
+            throw new RejectedExecutionException(name + " is not running.");
+        }
+        lanes[laneOf(key)].tasks.put(task);
+    }
+
+    private int laneOf(String key) {
+        if(key == null){
+            return 0;
+        }
+        return (Hashes.spread(key) & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    private void runLane(Lane lane) {
+        while(running){
+            Runnable task;
+            try {
+                task = lane.tasks.take();
+            } catch (InterruptedException e) {
+                // Shutting down
+                continue;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // One bad message is not to hold up the rest of the lane
+                logger.log(Level.SEVERE, "Failed handling an inbound message.", e);
+            }
+        }
+    }
+
+    /**
+     * @return Number of messages queued on all the lanes, yet to be handled
+     */
+    public int getPendingCount() {
+        int pending = 0;
+        for(Lane lane : lanes){
+            pending += lane.tasks.size();
+        }
+        return pending;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    private static class Lane {
+
+        private final BlockingQueue<Runnable> tasks;
+        private Thread thread;
+
+        private Lane(int capacity) {
+            this.tasks = new ArrayBlockingQueue<Runnable>(capacity);
+        }
+    }
+}
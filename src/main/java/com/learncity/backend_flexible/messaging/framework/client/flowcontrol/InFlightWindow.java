@@ -0,0 +1,115 @@
+package com.learncity.backend_flexible.messaging.framework.client.flowcontrol;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Keeps account of the downstream messages sent over a single CCS connection that
+ * are yet to be ACKed or NACKed.
+ *
+ * CCS allows at most 100 such messages per connection. Once the window is full,
+ * the sending threads are parked(in FIFO order) until an ACK or a NACK frees up a slot.
+ *
+ * The JSON payload of every in-flight message is kept along with its ID so that
+ * it is available for a resend, should that be required.
+ */
+public class InFlightWindow {
+
+    private final int capacity;
+
+    // Fair, so that the parked senders are let in the order they came in
+    private final Semaphore slots;
+
+    // Message ID -> JSON payload
+    private final ConcurrentHashMap<String, String> inFlightMessages = new ConcurrentHashMap<String, String>();
+
+    public InFlightWindow(int capacity) {
+        if(capacity <= 0){
+            throw new IllegalArgumentException("Window capacity must be positive.");
+        }
+        this.capacity = capacity;
+        this.slots = new Semaphore(capacity, true);
+    }
+
+    /**
+     * Takes up a slot for the message with the given ID, parking the calling thread
+     * for as long as the window is full.
+     *
+     * @return false if the same message is in flight already(a resend?) - it takes no slot
+     * then, and is not to be sent again
+     */
+    public boolean acquire(String messageId, String jsonMessage) throws InterruptedException {
+        if(messageId == null){
+            throw new IllegalArgumentException("Message ID is required for a message to be accounted.");
+        }
+        // Before parking, so that a duplicate doesn't wait behind the others for nothing
+        if(inFlightMessages.containsKey(messageId)){
+            return false;
+        }
+        slots.acquire();
+        if(inFlightMessages.putIfAbsent(messageId, jsonMessage) != null){
+            // Got in while we were parked
+            slots.release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Frees up the slot held by the message with the given ID.
+     *
+     * @return The JSON payload of the message or, null if no such message was in flight
+     * (for ex., a duplicate ACK)
+     */
+    public String release(String messageId) {
+        if(messageId == null){
+            return null;
+        }
+        String jsonMessage = inFlightMessages.remove(messageId);
+        if(jsonMessage != null){
+            slots.release();
+        }
+        return jsonMessage;
+    }
+
+    /**
+     * Frees up every slot. Meant for when the connection is gone and no ACK/NACK is
+     * going to arrive for the messages in flight anymore.
+     *
+     * @return Message ID -> JSON payload of the messages that were in flight
+     */
+    public Map<String, String> releaseAll() {
+        Map<String, String> released = new HashMap<String, String>();
+        for(String messageId : inFlightMessages.keySet()){
+            String jsonMessage = release(messageId);
+            if(jsonMessage != null){
+                released.put(messageId, jsonMessage);
+            }
+        }
+        return released;
+    }
+
+    public boolean isInFlight(String messageId) {
+        return messageId != null && inFlightMessages.containsKey(messageId);
+    }
+
+    /**
+     * @return Number of messages in flight at the moment
+     */
+    public int size() {
+        return inFlightMessages.size();
+    }
+
+    /**
+     * @return (Estimated) number of senders parked, waiting for a slot
+     */
+    public int getParkedCount() {
+        return slots.getQueueLength();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
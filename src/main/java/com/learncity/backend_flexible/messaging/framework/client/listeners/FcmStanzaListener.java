@@ -1,11 +1,17 @@
 package com.learncity.backend_flexible.messaging.framework.client.listeners;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learncity.backend_flexible.messaging.framework.client.CcsClient;
+import com.learncity.backend_flexible.messaging.framework.client.connection.CcsConnection;
+import com.learncity.backend_flexible.messaging.framework.client.dispatch.InboundDispatcher;
 import com.learncity.backend_flexible.messaging.framework.message.listeners.AbstractFcmMessageListener;
 import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DeliveryReceiptOrControlMessage;
 import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.InboundMessage;
 import com.learncity.backend_flexible.messaging.framework.message.model.incoming.UpstreamMessage;
+import com.learncity.backend_flexible.messaging.framework.message.util.json.InboundMessageDecoder;
 import com.learncity.backend_flexible.messaging.framework.message.util.source_viewers.impl.FcmMessageSourceViewer;
+import com.learncity.backend_flexible.messaging.framework.util.logging.MessageLogger;
+import com.learncity.backend_flexible.messaging.framework.util.smackx.fcm.packet.FcmPacketExtension;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.StanzaListener;
 import org.jivesoftware.smack.packet.Message;
@@ -16,99 +22,173 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static com.learncity.backend_flexible.messaging.framework.Constants.FCM_ELEMENT;
+import static com.learncity.backend_flexible.messaging.framework.Constants.FCM_NAMESPACE;
+
 /**
  * Created by DJ on 4/26/2017.
  */
 public class FcmStanzaListener implements StanzaListener {
 
     private static final Logger logger = Logger.getLogger(FcmStanzaListener.class.getSimpleName());
-
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final MessageLogger receivedLogger = new MessageLogger(logger, Level.INFO);
 
     // Listeners for all relevant messages.
     private AbstractFcmMessageListener<DeliveryReceiptOrControlMessage> deliveryReceiptOrControlMessageListener;
     private AbstractFcmMessageListener<UpstreamMessage> upStreamMessageListener;
     private AbstractFcmMessageListener<DownstreamMessageResponse> downstreamMessageResponseListener;
 
+    // Runs the listeners, on a lane per device; none to run them right away
+    private volatile InboundDispatcher inboundDispatcher;
+
     @Override
     public void processStanza(Stanza incomingStanza) throws SmackException.NotConnectedException, InterruptedException {
-        logger.log(Level.INFO, "Received: " + incomingStanza.toXML());
-
-        final FcmMessageSourceViewer fcmMessageSourceViewer = new FcmMessageSourceViewer((Message) incomingStanza);
-
-        // Now, we need to extract the JSON as a POJO. For that, if we
-        // get it directly from Stanza, we would be performing double
-        // calculations. How?
-        // Well, won't the SourceViewer's user might want to get it from
-        // SourceViewer later..? For that the same calc. will have to be performed again.
-        // So, lets ask the SourceViewer for it in the first place.
-        Map<String, Object> sourceAsMap = fcmMessageSourceViewer.getSourceAsMap();
-        String sourceAsString = fcmMessageSourceViewer.getSourceAsJSONString();
-
-        // Check for which Message type warrants what POJO creation?
-
-        String messageTypeString = (String)sourceAsMap.get("message_type");
-        // For "ack" message type
-        if(messageTypeString == null){
-            // UpstreamMessage type
+        processStanza(null, incomingStanza);
+    }
 
-            UpstreamMessage response = null;
-            if(upStreamMessageListener != null){
-                try {
-                    response = objectMapper.readValue(sourceAsString, UpstreamMessage.class);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    // TODO: In this case, it is most appropriate to inform the Sender about this
-                    // depending on the importance of the message sent. Handle it.
-                }
-                upStreamMessageListener.setSource(fcmMessageSourceViewer);
-                upStreamMessageListener.onReceiveMessage(response);
+    /**
+     * @param connection The connection the stanza came in on
+     */
+    public void processStanza(CcsConnection connection, Stanza incomingStanza) throws SmackException.NotConnectedException, InterruptedException {
+        // The extension is looked up just the once; the JSON and, with a typed provider, the
+        // decoded message come straight off it
+        Message message = (Message) incomingStanza;
+        FcmPacketExtension extension = message.getExtension(FCM_ELEMENT, FCM_NAMESPACE);
+        String json = extension.getJson();
+        if(connection != null){
+            connection.captureInbound(json);
+        }
+        final FcmMessageSourceViewer fcmMessageSourceViewer = new FcmMessageSourceViewer(message, connection, json);
+
+        // Decoded in a single pass - the type is found and the POJO bound off the same tokens.
+        // The Map view of the source is built by the SourceViewer only if a listener asks for it.
+        InboundMessage inboundMessage = extension.getInboundMessage();
+        if(inboundMessage == null){
+            try {
+                inboundMessage = InboundMessageDecoder.decode(json);
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new RuntimeException("There was a problem parsing the JSON string.");
             }
         }
-        else if(messageTypeString.equals("ack") || messageTypeString.equals("nack")){
-            // A DownstreamMessageResponse type message
 
-            DownstreamMessageResponse response = null;
-            if(downstreamMessageResponseListener != null){
-                try {
-                    response = objectMapper.readValue(sourceAsString, DownstreamMessageResponse.class);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    // TODO: In this case, it is most appropriate to inform the Sender about this
-                    // depending on the importance of the message sent. Handle it.
+        String messageType = inboundMessage.getMessageType();
+        receivedLogger.log(messageType == null ? MessageLogger.UPSTREAM : messageType, "Received: {0}", json);
+
+        switch(inboundMessage.getType()){
+            case UPSTREAM:
+                UpstreamMessage upstreamMessage = (UpstreamMessage) inboundMessage.getMessage();
+                if(upstreamMessage == null){
+                    // Nothing for the listener; ACKed still, or CCS would only send it again
+                    logger.warning("Could not read an upstream message; ACKing it unhandled: " + json);
+                    if(connection != null && inboundMessage.getMessageId() != null && inboundMessage.getFrom() != null){
+                        CcsClient.getInstance().sendAcknowledgement(
+                                new UpstreamMessage.Acknowledgement(inboundMessage.getFrom(), inboundMessage.getMessageId(), "ack"), connection);
+                    }
+                    break;
                 }
-                downstreamMessageResponseListener.setSource(fcmMessageSourceViewer);
-                downstreamMessageResponseListener.onReceiveMessage(response);
-            }
+                deliver(upStreamMessageListener, upstreamMessage, fcmMessageSourceViewer, upstreamMessage.getFrom());
+                break;
+            case ACK:
+            case NACK:
+                // Bound regardless of a listener; the window needs the message ID
+                DownstreamMessageResponse response = (DownstreamMessageResponse) inboundMessage.getMessage();
+                if(response == null){
+                    // Made of what could be read of it; the message it is for is done with all the same
+                    logger.warning("Could not read a response from CCS; going by its ID and error alone: " + json);
+                    response = DownstreamMessageResponse.Builder.newBuilder(inboundMessage.getFrom(), inboundMessage.getMessageId(), messageType)
+                            .setError(inboundMessage.getError())
+                            .build();
+                }
+                // Frees up the window slot of the message on the connection it was sent on,
+                // among other things
+                if(connection != null && response.getMessageId() != null){
+                    CcsClient.getInstance().onDownstreamMessageResponse(connection, response);
+                }
+                deliver(downstreamMessageResponseListener, response, fcmMessageSourceViewer, response.getFrom());
+                break;
+            case RECEIPT:
+            case CONTROL:
+                // Ccs to App server messages; bound regardless of a listener, the client
+                // has to know of a draining connection
+                DeliveryReceiptOrControlMessage receiptOrControl = (DeliveryReceiptOrControlMessage) inboundMessage.getMessage();
+                if(receiptOrControl == null){
+                    logger.warning("Could not read a " + messageType + " message from CCS: " + json);
+                    break;
+                }
+                if(connection != null){
+                    CcsClient.getInstance().onDeliveryReceiptOrControlMessage(connection, receiptOrControl);
+                }
+                deliver(deliveryReceiptOrControlMessageListener, receiptOrControl, fcmMessageSourceViewer,
+                        getDevice(receiptOrControl));
+                break;
+            default:
+                // Unknown type - Does App server have a new one now?
+                // ...Or, it is somehow a truly unknown message?
+                logger.severe("An unknown message type received from CCS. Does" +
+                        "Firebase have a new type we don't know about?...Or, if not then" +
+                        "it is truly an unknown type.");
+                throw new RuntimeException("Unknown Message type received from Ccs.");
         }
-        else if(messageTypeString.equals("receipt") || messageTypeString.equals("control")){
-            // Ccs to App server messages, i.e, DeliveryReceiptOrControlMessage type
+    }
 
-            DeliveryReceiptOrControlMessage response = null;
-            if(deliveryReceiptOrControlMessageListener != null){
+    /**
+     * Hands the message to the listener - on the dispatcher's lane for the device, if there
+     * is a dispatcher, or else right here. The source is set for the listener on the thread
+     * that handles the message, for just that message.
+     *
+     * @param device Registration token of the device the message is of; null if of none
+     */
+    private <T> void deliver(final AbstractFcmMessageListener<T> listener, final T message,
+                             final FcmMessageSourceViewer source, String device) throws InterruptedException {
+        if(listener == null){
+            return;
+        }
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                listener.setSource(source);
                 try {
-                    response = objectMapper.readValue(sourceAsString, DeliveryReceiptOrControlMessage.class);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    // TODO: In this case, it is most appropriate to inform the Sender about this
-                    // depending on the importance of the message sent. Handle it.
+                    listener.onReceiveMessage(message);
+                } finally {
+                    listener.clearSource();
                 }
-                deliveryReceiptOrControlMessageListener.setSource(fcmMessageSourceViewer);
-                deliveryReceiptOrControlMessageListener.onReceiveMessage(response);
             }
+        };
+        InboundDispatcher dispatcher = inboundDispatcher;
+        if(dispatcher == null){
+            delivery.run();
         }
         else{
-            // Unknown type - Does App server have a new one now?
-            // ...Or, it is somehow a truly unknown message?
-            logger.severe("An unknown message type received from CCS. Does" +
-                    "Firebase have a new type we don't know about?...Or, if not then" +
-                    "it is truly an unknown type.");
-            throw new RuntimeException("Unknown Message type received from Ccs.");
+            dispatcher.dispatch(device, delivery);
         }
     }
 
+    /**
+     * @return The device a receipt is of; CCS itself is the sender of a receipt
+     */
+    private static String getDevice(DeliveryReceiptOrControlMessage receiptOrControl) {
+        if(receiptOrControl == null){
+            return null;
+        }
+        Map<String, Object> data = receiptOrControl.getDataPayload();
+        Object device = data != null ? data.get("device_registration_id") : null;
+        return device instanceof String ? (String) device : receiptOrControl.getFrom();
+    }
+
     // Getters and Setters----------------------------------------------------------------------------------------------
 
+    public InboundDispatcher getInboundDispatcher() {
+        return inboundDispatcher;
+    }
+
+    /**
+     * @param inboundDispatcher null to call the listeners on the thread processing the stanza
+     */
+    public void setInboundDispatcher(InboundDispatcher inboundDispatcher) {
+        this.inboundDispatcher = inboundDispatcher;
+    }
+
     public AbstractFcmMessageListener<DeliveryReceiptOrControlMessage> getDeliveryReceiptOrControlMessageListener() {
         return deliveryReceiptOrControlMessageListener;
     }
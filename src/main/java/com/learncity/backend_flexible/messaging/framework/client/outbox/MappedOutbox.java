@@ -0,0 +1,578 @@
+package com.learncity.backend_flexible.messaging.framework.client.outbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A durable, append-only log of the downstream messages accepted for sending but not yet
+ * ACKed by CCS - so that they survive a restart of the app server.
+ *
+ * The log is a sequence of fixed size, memory-mapped segment files. A message is appended
+ * once when it is accepted and a "done" record is appended once CCS is done with it. On
+ * {@link #open()}, the segments are scanned and the messages without a "done" record are
+ * handed back to be sent again.
+ *
+ * A "done" record goes into the active segment, not the one its message was appended in; so,
+ * a segment is deleted only once every message in it is done <i>and</i> every segment before
+ * it is deleted - the segments go oldest first. That a message never done(never responded to,
+ * for ex.) doesn't hold on to all the segments after its own, the messages still live in the
+ * oldest segment are carried forward - appended again to the new active segment - every time
+ * a segment is rolled over.
+ *
+ * Appending is a copy into the mapped segment; it is made durable by a single flusher thread
+ * forcing the segment to disk on behalf of all the appends since its last force(group commit).
+ * {@link #append(String, String)} returns only once the force covering its record is done, and
+ * fails if that one failed - a later force going through doesn't make up for it.
+ *
+ * Record layout: [length: int][crc32: int][type: byte][body]. The length is written last, so
+ * a record torn by a crash reads as the end of the log.
+ */
+public class MappedOutbox {
+
+    private static final Logger logger = Logger.getLogger(MappedOutbox.class.getSimpleName());
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_FILE_PREFIX = "outbox-";
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+
+    private static final int SEGMENT_MAGIC = 0x46434D4F;  // "FCMO"
+    private static final int SEGMENT_HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 1;
+
+    private static final byte RECORD_APPEND = 1;
+    private static final byte RECORD_DONE = 2;
+
+    private final File directory;
+    private final int segmentSize;
+
+    // Guards the active segment and the batch being appended to
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Condition dirty = appendLock.newCondition();
+    private Segment activeSegment;
+    private long nextSegmentIndex;
+    private CommitBatch appendingBatch = new CommitBatch();
+
+    // Guards the batches being committed
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Condition committed = commitLock.newCondition();
+
+    // Message ID -> its APPEND record; only the messages not done yet
+    private final ConcurrentHashMap<String, Location> pendingMessages = new ConcurrentHashMap<String, Location>();
+    // Oldest first; guarded by itself
+    private final Deque<Segment> segments = new ArrayDeque<Segment>();
+
+    private Thread flusherThread;
+    private volatile boolean running;
+
+    public MappedOutbox(File directory, int segmentSize) {
+        if(directory == null){
+            throw new IllegalArgumentException("Directory cannot be null.");
+        }
+        if(segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE){
+            throw new IllegalArgumentException("Segment size is too small.");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens the outbox, creating the directory if need be, and starts the flusher.
+     *
+     * @return The messages(Message ID -> JSON payload) that were appended but never marked done,
+     * in the order they were appended. They are still pending; they have to be sent again.
+     */
+    public Map<String, String> open() throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Could not create outbox directory: " + directory);
+        }
+
+        Map<String, String> unfinished = new LinkedHashMap<String, String>();
+        Map<String, Location> unfinishedLocations = new LinkedHashMap<String, Location>();
+        for(File file : listSegmentFiles()){
+            Segment segment = Segment.open(file, segmentSize);
+            synchronized (segments){
+                segments.addLast(segment);
+            }
+            segment.replay(unfinished, unfinishedLocations);
+            nextSegmentIndex = Math.max(nextSegmentIndex, segment.index + 1);
+            // Sealed from here on; nothing more is appended to the old segments
+            segment.sealed = true;
+        }
+        for(Location location : unfinishedLocations.values()){
+            location.segment.liveCount.incrementAndGet();
+        }
+        pendingMessages.putAll(unfinishedLocations);
+        deleteDoneSegments();
+
+        appendLock.lock();
+        try {
+            activeSegment = newSegment();
+        } finally {
+            appendLock.unlock();
+        }
+
+        running = true;
+        flusherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "MappedOutbox-Flusher");
+        flusherThread.setDaemon(true);
+        flusherThread.start();
+
+        if(!unfinished.isEmpty()){
+            logger.info(unfinished.size() + " unfinished message(s) found in the outbox.");
+        }
+        return unfinished;
+    }
+
+    /**
+     * Stops the flusher after a last force.
+     */
+    public void close() {
+        running = false;
+        appendLock.lock();
+        try {
+            dirty.signalAll();
+        } finally {
+            appendLock.unlock();
+        }
+        if(flusherThread != null){
+            try {
+                flusherThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Appends the message and waits for it to be made durable.
+     */
+    public void append(String messageId, String jsonMessage) throws IOException {
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        if(id.length > 0xFFFF){
+            throw new IOException("Message ID is too long.");
+        }
+        byte[] json = jsonMessage.getBytes(StandardCharsets.UTF_8);
+        byte[] body = new byte[2 + id.length + json.length];
+        body[0] = (byte)(id.length >>> 8);
+        body[1] = (byte)id.length;
+        System.arraycopy(id, 0, body, 2, id.length);
+        System.arraycopy(json, 0, body, 2 + id.length, json.length);
+
+        CommitBatch batch;
+        appendLock.lock();
+        try {
+            Location location = write(RECORD_APPEND, body);
+            // Counted before the message can possibly be marked done
+            location.segment.liveCount.incrementAndGet();
+            pendingMessages.put(messageId, location);
+            batch = appendingBatch;
+            batch.size++;
+            dirty.signal();
+        } finally {
+            appendLock.unlock();
+        }
+        awaitCommit(batch);
+    }
+
+    /**
+     * Marks the message as done with - it is not going to be handed back by {@link #open()}.
+     * It doesn't wait for the record to be forced; should it be lost, the message is just
+     * sent once more.
+     */
+    public void markDone(String messageId) {
+        if(messageId == null){
+            return;
+        }
+        Location location = pendingMessages.remove(messageId);
+        if(location == null){
+            return;
+        }
+        try {
+            appendLock.lock();
+            try {
+                write(RECORD_DONE, messageId.getBytes(StandardCharsets.UTF_8));
+                appendingBatch.size++;
+                dirty.signal();
+            } finally {
+                appendLock.unlock();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not mark message: " + messageId + " done in the outbox.", e);
+        }
+        location.segment.liveCount.decrementAndGet();
+        deleteDoneSegments();
+    }
+
+    /**
+     * @return Number of the messages appended and not done with yet
+     */
+    public int getPendingCount() {
+        return pendingMessages.size();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return Number of the segment files
+     */
+    public int getSegmentCount() {
+        synchronized (segments){
+            return segments.size();
+        }
+    }
+
+    // Called with the append lock held
+    private Location write(byte type, byte[] body) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + body.length;
+        if(SEGMENT_HEADER_SIZE + recordSize > segmentSize){
+            throw new IOException("Record of " + recordSize + " bytes doesn't fit in a segment.");
+        }
+        // The records carried forward may leave too little room in the new segment
+        while(!activeSegment.hasRoomFor(recordSize)){
+            rollSegment();
+        }
+        return new Location(activeSegment, activeSegment.write(type, body));
+    }
+
+    // Called with the append lock held
+    private void rollSegment() throws IOException {
+        Segment previous = activeSegment;
+        // Its records have to be durable before those of the next segment are
+        try {
+            previous.force();
+        } catch (IOException e) {
+            // Whoever has a record in it, and is waiting on the batch, fails with it
+            appendingBatch.failure = e;
+            throw e;
+        }
+        previous.sealed = true;
+        activeSegment = newSegment();
+
+        Segment oldest;
+        synchronized (segments){
+            oldest = segments.peekFirst();
+        }
+        if(oldest != previous && oldest.liveCount.get() > 0){
+            carryForward(oldest);
+        }
+        deleteDoneSegments();
+    }
+
+    /**
+     * Appends the messages still live in the segment to the active one again, so that it
+     * can go. Called with the append lock held, on a new active segment.
+     */
+    private void carryForward(Segment segment) throws IOException {
+        int carried = 0;
+        for(Map.Entry<String, Location> entry : pendingMessages.entrySet()){
+            Location location = entry.getValue();
+            if(location.segment != segment){
+                continue;
+            }
+            byte[] body = segment.readBody(location.position);
+            if(!activeSegment.hasRoomFor(RECORD_HEADER_SIZE + body.length)){
+                // Written with a bigger segment size; the rest wait for the next roll
+                break;
+            }
+            Location carriedLocation = new Location(activeSegment, activeSegment.write(RECORD_APPEND, body));
+            activeSegment.liveCount.incrementAndGet();
+            // A message marked done meanwhile has its "done" record written after this one
+            if(pendingMessages.replace(entry.getKey(), location, carriedLocation)){
+                segment.liveCount.decrementAndGet();
+                carried++;
+            }
+            else{
+                activeSegment.liveCount.decrementAndGet();
+            }
+        }
+        // Durable before the segment they were carried from is deleted
+        activeSegment.force();
+        logger.info("Carried " + carried + " message(s) forward from outbox segment: " + segment.file);
+    }
+
+    private Segment newSegment() throws IOException {
+        File file = new File(directory, String.format("%s%016d%s", SEGMENT_FILE_PREFIX, nextSegmentIndex++, SEGMENT_FILE_SUFFIX));
+        Segment segment = Segment.create(file, segmentSize);
+        synchronized (segments){
+            segments.addLast(segment);
+        }
+        return segment;
+    }
+
+    /**
+     * Deletes the segments done with, oldest first. A segment may hold the "done" records of
+     * the messages in the ones before it; so, it goes only once they have gone.
+     */
+    private void deleteDoneSegments() {
+        synchronized (segments){
+            while(!segments.isEmpty()){
+                Segment oldest = segments.peekFirst();
+                if(!oldest.sealed || oldest.liveCount.get() > 0){
+                    return;
+                }
+                segments.pollFirst();
+                oldest.close();
+                if(!oldest.file.delete()){
+                    logger.warning("Could not delete outbox segment: " + oldest.file);
+                }
+            }
+        }
+    }
+
+    private File[] listSegmentFiles() {
+        File[] files = directory.listFiles();
+        if(files == null){
+            return new File[0];
+        }
+        List<File> segmentFiles = new ArrayList<File>();
+        for(File file : files){
+            if(file.getName().startsWith(SEGMENT_FILE_PREFIX) && file.getName().endsWith(SEGMENT_FILE_SUFFIX)){
+                segmentFiles.add(file);
+            }
+        }
+        File[] sorted = segmentFiles.toArray(new File[segmentFiles.size()]);
+        // The index is zero padded, so the names sort in the order of the segments
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    // Group commit--------------------------------------------------------------------------------------------------
+
+    private void flushLoop() {
+        while(true){
+            Segment segment;
+            CommitBatch batch;
+            appendLock.lock();
+            try {
+                while(running && appendingBatch.size == 0){
+                    try {
+                        dirty.await();
+                    } catch (InterruptedException e) {
+                        // Keep going until closed
+                    }
+                }
+                if(!running && appendingBatch.size == 0){
+                    break;
+                }
+                // Everything appended so far is in the active segment(or, a forced previous one)
+                segment = activeSegment;
+                batch = appendingBatch;
+                appendingBatch = new CommitBatch();
+            } finally {
+                appendLock.unlock();
+            }
+
+            try {
+                segment.force();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not force the outbox segment: " + segment.file, e);
+                // The batch fails; the pages may well be gone, whatever the next force does
+                if(batch.failure == null){
+                    batch.failure = e;
+                }
+            }
+
+            commitLock.lock();
+            try {
+                batch.committed = true;
+                committed.signalAll();
+            } finally {
+                commitLock.unlock();
+            }
+        }
+    }
+
+    private void awaitCommit(CommitBatch batch) throws IOException {
+        if(!batch.committed){
+            commitLock.lock();
+            try {
+                while(!batch.committed){
+                    if(!running){
+                        throw new IOException("Outbox is closed.");
+                    }
+                    committed.awaitUninterruptibly();
+                }
+            } finally {
+                commitLock.unlock();
+            }
+        }
+        IOException failure = batch.failure;
+        if(failure != null){
+            throw failure;
+        }
+    }
+
+    /**
+     * The records appended between two forces; committed(or, failed) together
+     */
+    private static class CommitBatch {
+
+        // Guarded by the append lock
+        private int size;
+        private volatile boolean committed;
+        private volatile IOException failure;
+    }
+
+    /**
+     * Where the APPEND record of a message is
+     */
+    private static class Location {
+
+        private final Segment segment;
+        private final int position;
+
+        private Location(Segment segment, int position) {
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    private static class Segment {
+
+        private final File file;
+        private final long index;
+        private final RandomAccessFile randomAccessFile;
+        private final MappedByteBuffer buffer;
+        private final CRC32 crc32 = new CRC32();
+
+        // Number of messages appended in this segment and not done with yet
+        private final AtomicInteger liveCount = new AtomicInteger();
+        private volatile boolean sealed;
+
+        private Segment(File file, int size) throws IOException {
+            this.file = file;
+            String name = file.getName();
+            this.index = Long.parseLong(name.substring(SEGMENT_FILE_PREFIX.length(), name.length() - SEGMENT_FILE_SUFFIX.length()));
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        private static Segment create(File file, int size) throws IOException {
+            Segment segment = new Segment(file, size);
+            segment.buffer.putInt(0, SEGMENT_MAGIC);
+            segment.buffer.position(SEGMENT_HEADER_SIZE);
+            return segment;
+        }
+
+        private static Segment open(File file, int size) throws IOException {
+            // A segment is read back at the size it was written with
+            int existingSize = (int)Math.max(size, file.length());
+            Segment segment = new Segment(file, existingSize);
+            if(segment.buffer.getInt(0) != SEGMENT_MAGIC){
+                segment.close();
+                throw new IOException("Not an outbox segment: " + file);
+            }
+            return segment;
+        }
+
+        private boolean hasRoomFor(int recordSize) {
+            return buffer.remaining() >= recordSize;
+        }
+
+        /**
+         * @return Position of the record
+         */
+        private int write(byte type, byte[] body) {
+            int start = buffer.position();
+            crc32.reset();
+            crc32.update(type);
+            crc32.update(body, 0, body.length);
+
+            buffer.position(start + 4);
+            buffer.putInt((int)crc32.getValue());
+            buffer.put(type);
+            buffer.put(body);
+            // Last, so that a half written record is never taken for a whole one
+            buffer.putInt(start, RECORD_HEADER_SIZE + body.length);
+            return start;
+        }
+
+        private byte[] readBody(int position) {
+            byte[] body = new byte[buffer.getInt(position) - RECORD_HEADER_SIZE];
+            for(int i = 0; i < body.length; i++){
+                body[i] = buffer.get(position + RECORD_HEADER_SIZE + i);
+            }
+            return body;
+        }
+
+        /**
+         * Reads the records, from the start till the end of what was written.
+         */
+        private void replay(Map<String, String> unfinished, Map<String, Location> unfinishedLocations) {
+            int position = SEGMENT_HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            while(position + RECORD_HEADER_SIZE <= buffer.capacity()){
+                int length = buffer.getInt(position);
+                if(length < RECORD_HEADER_SIZE || position + length > buffer.capacity()){
+                    break;
+                }
+                int storedCrc = buffer.getInt(position + 4);
+                byte type = buffer.get(position + 8);
+                byte[] body = readBody(position);
+                crc.reset();
+                crc.update(type);
+                crc.update(body, 0, body.length);
+                if((int)crc.getValue() != storedCrc){
+                    logger.warning("Torn record at " + position + " in outbox segment: " + file + "; reading no further.");
+                    break;
+                }
+
+                if(type == RECORD_APPEND){
+                    int idLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+                    String messageId = new String(body, 2, idLength, StandardCharsets.UTF_8);
+                    String jsonMessage = new String(body, 2 + idLength, body.length - 2 - idLength, StandardCharsets.UTF_8);
+                    // Carried forward, if it is there already; the latest copy is the one that counts
+                    unfinished.put(messageId, jsonMessage);
+                    unfinishedLocations.put(messageId, new Location(this, position));
+                }
+                else if(type == RECORD_DONE){
+                    String messageId = new String(body, StandardCharsets.UTF_8);
+                    unfinished.remove(messageId);
+                    unfinishedLocations.remove(messageId);
+                }
+                position += length;
+            }
+            buffer.position(position);
+        }
+
+        private void force() throws IOException {
+            buffer.force();
+        }
+
+        private void close() {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not close outbox segment: " + file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.learncity.backend_flexible.messaging.framework.client.queue;
+
+import com.learncity.backend_flexible.messaging.framework.client.connection.CcsConnection;
+
+/**
+ * A serialized message waiting in the {@link OutboundMessageQueue} to be sent to CCS.
+ *
+ * While it waits, a message with a collapse key may be replaced(its ID and JSON, that is)
+ * by a newer one with the same key - see {@link OutboundMessageQueue}.
+ */
+public class OutboundMessage {
+
+    // Null for the messages CCS doesn't ACK/NACK back(ACKs to Upstream messages)
+    private String messageId;
+    private String jsonMessage;
+    private final boolean highPriority;
+    // Connection it must go out on; null if any one would do
+    private final CcsConnection connection;
+    // Recipient and collapse_key; null if it doesn't collapse
+    private final String collapseKey;
+
+    public OutboundMessage(String messageId, String jsonMessage, boolean highPriority) {
+        this(messageId, jsonMessage, highPriority, null, null);
+    }
+
+    public OutboundMessage(String messageId, String jsonMessage, boolean highPriority, CcsConnection connection) {
+        this(messageId, jsonMessage, highPriority, connection, null);
+    }
+
+    /**
+     * @param collapseKey See {@link #collapseKeyOf(String, String)}; null if it doesn't collapse
+     */
+    public OutboundMessage(String messageId, String jsonMessage, boolean highPriority, CcsConnection connection, String collapseKey) {
+        if(jsonMessage == null || jsonMessage.isEmpty()){
+            throw new IllegalArgumentException("Message to be sent cannot be null or empty.");
+        }
+        this.messageId = messageId;
+        this.jsonMessage = jsonMessage;
+        this.highPriority = highPriority;
+        this.connection = connection;
+        this.collapseKey = collapseKey;
+    }
+
+    /**
+     * @param to Recipient of the message(a token, a topic or, a condition)
+     * @return Key the messages that collapse into one another share; null if the message doesn't collapse
+     */
+    public static String collapseKeyOf(String to, String collapseKey) {
+        if(to == null || collapseKey == null){
+            return null;
+        }
+        return to + '\u0000' + collapseKey;
+    }
+
+    /**
+     * Takes the ID and the JSON of the newer message; the queue's lock must be held
+     */
+    void replaceWith(OutboundMessage newer) {
+        this.messageId = newer.messageId;
+        this.jsonMessage = newer.jsonMessage;
+    }
+
+    /**
+     * @return A copy, as it is now
+     */
+    OutboundMessage copy() {
+        return new OutboundMessage(messageId, jsonMessage, highPriority, connection, collapseKey);
+    }
+
+    /**
+     * @return Whether CCS is going to ACK/NACK this message, i.e, whether it needs
+     * a slot in the in-flight window.
+     */
+    public boolean isAcknowledgeable() {
+        return messageId != null;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getJsonMessage() {
+        return jsonMessage;
+    }
+
+    public boolean isHighPriority() {
+        return highPriority;
+    }
+
+    public CcsConnection getConnection() {
+        return connection;
+    }
+
+    public String getCollapseKey() {
+        return collapseKey;
+    }
+}
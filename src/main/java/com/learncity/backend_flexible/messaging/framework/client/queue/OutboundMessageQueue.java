@@ -0,0 +1,252 @@
+package com.learncity.backend_flexible.messaging.framework.client.queue;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of the messages waiting to be sent. High priority messages are
+ * always dequeued before the normal priority ones; within a priority, it is FIFO.
+ *
+ * Offers are never blocked - once the queue is at its capacity, they are rejected
+ * and counted as such. A message that is to be offered later(held back for the rate of
+ * its recipient, for ex.) can have a place reserved for it; the reserved places count
+ * against the capacity as well.
+ *
+ * The messages waiting are indexed by their collapse key(recipient and collapse_key).
+ * A message offered with the key of one waiting, of the same priority, replaces it in
+ * its place - CCS would only deliver the last of them anyway. The one replaced is handed
+ * to the {@link CoalescingListener}.
+ */
+public class OutboundMessageQueue {
+
+    /**
+     * Informed of the messages replaced while waiting. Called on the offering thread.
+     */
+    public interface CoalescingListener {
+
+        /**
+         * @param older The message replaced; it is not going to be sent
+         * @param newer The message that took its place
+         */
+        void onCoalesced(OutboundMessage older, OutboundMessage newer);
+    }
+
+    private final int capacity;
+
+    private final ArrayDeque<OutboundMessage> highPriorityMessages = new ArrayDeque<OutboundMessage>();
+    private final ArrayDeque<OutboundMessage> normalPriorityMessages = new ArrayDeque<OutboundMessage>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+    // Places reserved for the messages to be offered later; lock must be held
+    private int reservedCount;
+
+    // Collapse key -> the message waiting with it
+    private final HashMap<String, OutboundMessage> collapsibleMessages = new HashMap<String, OutboundMessage>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private volatile CoalescingListener coalescingListener;
+
+    public OutboundMessageQueue(int capacity) {
+        if(capacity <= 0){
+            throw new IllegalArgumentException("Queue capacity must be positive.");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return false if the message was rejected because the queue is full; a message that
+     * replaces one waiting is never rejected
+     */
+    public boolean offer(OutboundMessage message) {
+        return offer(message, false);
+    }
+
+    /**
+     * Reserves a place for a message that is to be offered later, with
+     * {@link #offerReserved(OutboundMessage)}. It counts against the capacity until then.
+     *
+     * @return false if the queue is full; counted as a rejection
+     */
+    public boolean reserve() {
+        lock.lock();
+        try {
+            if(size() + reservedCount >= capacity){
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            reservedCount++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Offers a message that a place was reserved for; it is never rejected
+     */
+    public void offerReserved(OutboundMessage message) {
+        offer(message, true);
+    }
+
+    private boolean offer(OutboundMessage message, boolean reserved) {
+        OutboundMessage coalesced = null;
+        lock.lock();
+        try {
+            if(reserved && reservedCount > 0){
+                reservedCount--;
+            }
+            String collapseKey = message.getCollapseKey();
+            if(collapseKey != null){
+                OutboundMessage waiting = collapsibleMessages.get(collapseKey);
+                if(waiting != null && waiting.isHighPriority() == message.isHighPriority()){
+                    coalesced = waiting.copy();
+                    waiting.replaceWith(message);
+                    coalescedCount.incrementAndGet();
+                }
+            }
+            if(coalesced == null){
+                if(!reserved && size() + reservedCount >= capacity){
+                    rejectedCount.incrementAndGet();
+                    return false;
+                }
+                (message.isHighPriority() ? highPriorityMessages : normalPriorityMessages).addLast(message);
+                if(collapseKey != null){
+                    collapsibleMessages.put(collapseKey, message);
+                }
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        CoalescingListener listener = coalescingListener;
+        if(coalesced != null && listener != null){
+            listener.onCoalesced(coalesced, message);
+        }
+        return true;
+    }
+
+    /**
+     * Puts back a message that was already accepted once(for ex., one that has to be sent
+     * again on another connection). It goes to the head of the high priority messages and
+     * is never rejected, regardless of the capacity.
+     */
+    public void requeue(OutboundMessage message) {
+        lock.lock();
+        try {
+            highPriorityMessages.addFirst(message);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for as long as there is no message to be sent.
+     */
+    public OutboundMessage take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while(size() == 0){
+                notEmpty.await();
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to the given time for a message to be sent.
+     *
+     * @return The message or, null if there was none in the given time
+     */
+    public OutboundMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while(size() == 0){
+                if(nanos <= 0){
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Lock must be held
+    private OutboundMessage poll() {
+        OutboundMessage message = highPriorityMessages.pollFirst();
+        if(message == null){
+            message = normalPriorityMessages.pollFirst();
+        }
+        if(message != null && message.getCollapseKey() != null){
+            // On its way out; too late to replace
+            collapsibleMessages.remove(message.getCollapseKey(), message);
+        }
+        return message;
+    }
+
+    /**
+     * @return Number of messages waiting in the queue(its depth)
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return highPriorityMessages.size() + normalPriorityMessages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getHighPriorityCount() {
+        lock.lock();
+        try {
+            return highPriorityMessages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of places reserved for the messages to be offered later
+     */
+    public int getReservedCount() {
+        lock.lock();
+        try {
+            return reservedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of messages rejected so far because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return Number of messages replaced so far by a newer one with the same collapse key
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public void setCoalescingListener(CoalescingListener coalescingListener) {
+        this.coalescingListener = coalescingListener;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
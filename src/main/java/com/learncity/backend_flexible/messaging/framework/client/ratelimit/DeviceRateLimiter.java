@@ -0,0 +1,123 @@
+package com.learncity.backend_flexible.messaging.framework.client.ratelimit;
+
+import com.learncity.backend_flexible.messaging.framework.util.hash.Hashes;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the messages to a device within the rate CCS allows per device, so that they
+ * are held back here rather than NACKed as DEVICE_MESSAGE_RATE_EXCEEDED.
+ *
+ * A token bucket per device - kept in its compact form(the generic cell rate algorithm):
+ * a bucket is a single long, the time the device's next message is due at, in a fixed
+ * array indexed by the hash of the token. No objects per device, nothing to expire, and
+ * a reservation is a CAS. Devices whose tokens hash to the same slot share a bucket; with
+ * the slots outnumbering the devices active within a minute or so, that is rare, and it
+ * only ever errs on the side of sending slower.
+ */
+public class DeviceRateLimiter {
+
+    // As per the FCM documentation
+    public static final int DEFAULT_MESSAGES_PER_MINUTE = 240;
+    public static final int DEFAULT_BURST = 20;
+    public static final int DEFAULT_SLOT_COUNT = 1 << 20;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final int messagesPerMinute;
+    private final int burst;
+    // Between two messages, at the rate
+    private final long intervalNanos;
+    // How far ahead of its time a message may go, as part of a burst
+    private final long burstToleranceNanos;
+
+    private final AtomicLongArray buckets;
+    private final int mask;
+    // The times are kept relative to this, so that 0 is "long ago"
+    private final long baseNanos = System.nanoTime();
+
+    /**
+     * @param burst Messages a device may be sent at once, before the rate kicks in
+     * @param slotCount Number of buckets; rounded up to a power of two
+     */
+    public DeviceRateLimiter(int messagesPerMinute, int burst, int slotCount) {
+        if(messagesPerMinute <= 0 || burst <= 0 || slotCount <= 0){
+            throw new IllegalArgumentException("Rate, burst and slot count must be positive.");
+        }
+        this.messagesPerMinute = messagesPerMinute;
+        this.burst = burst;
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / messagesPerMinute;
+        this.burstToleranceNanos = intervalNanos * (burst - 1);
+        int slots = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        this.buckets = new AtomicLongArray(slots);
+        this.mask = slots - 1;
+    }
+
+    public DeviceRateLimiter() {
+        this(DEFAULT_MESSAGES_PER_MINUTE, DEFAULT_BURST, DEFAULT_SLOT_COUNT);
+    }
+
+    /**
+     * Reserves the next message to the device.
+     *
+     * @param maxDelayMillis The longest the message may be held back
+     * @return Milliseconds the message is to be held back for(0 to send it right away) or,
+     * -1 if it would have to be held back for longer than the max - nothing is reserved then
+     */
+    public long reserve(String key, long maxDelayMillis) {
+        long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        int slot = slotOf(key);
+        while(true){
+            long now = System.nanoTime() - baseNanos;
+            long due = buckets.get(slot);
+            long start = Math.max(due, now);
+            long delayNanos = Math.max(0, start - burstToleranceNanos - now);
+            if(delayNanos > maxDelayNanos){
+                return -1;
+            }
+            if(buckets.compareAndSet(slot, due, start + intervalNanos)){
+                // Rounded up, so as not to go ahead of time
+                return (delayNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+            }
+        }
+    }
+
+    /**
+     * Empties the bucket of the device - CCS says it is over the rate anyway(the device
+     * was sent messages from elsewhere as well, for ex.)
+     */
+    public void backOff(String key) {
+        int slot = slotOf(key);
+        while(true){
+            long now = System.nanoTime() - baseNanos;
+            long due = buckets.get(slot);
+            long drained = now + burstToleranceNanos + intervalNanos;
+            if(due >= drained || buckets.compareAndSet(slot, due, drained)){
+                return;
+            }
+        }
+    }
+
+    private int slotOf(String key) {
+        return Hashes.spread(key) & mask;
+    }
+
+    /**
+     * @return Whether the messages to the recipient are limited - only a device is; not a topic, or a condition
+     */
+    public static boolean isDevice(String to) {
+        return to != null && !to.startsWith("/topics/");
+    }
+
+    public int getMessagesPerMinute() {
+        return messagesPerMinute;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public int getSlotCount() {
+        return buckets.length();
+    }
+}
@@ -0,0 +1,191 @@
+package com.learncity.backend_flexible.messaging.framework.client.ratelimit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Paces the messages to the topics - to a "/topics/..." or, to a condition on the topics -
+ * to keep within the rate CCS allows a topic, rather than have them NACKed as
+ * TOPICS_MESSAGE_RATE_EXCEEDED.
+ *
+ * Each topic has the time its next message is due at(a token bucket, as in
+ * {@link DeviceRateLimiter}); a message to a condition waits on all the topics the
+ * condition refers to. The topics of a condition are parsed out of it once and cached by
+ * the condition. There are few topics and, the messages to them are few(each fans out to
+ * many devices), so the buckets are kept in a plain map, under one lock.
+ */
+public class TopicRateGovernor {
+
+    private static final Logger logger = Logger.getLogger(TopicRateGovernor.class.getSimpleName());
+
+    public static final int DEFAULT_MESSAGES_PER_MINUTE = 60;
+    public static final int DEFAULT_BURST = 10;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String TOPICS_PREFIX = "/topics/";
+    // 'TopicA' in topics
+    private static final Pattern TOPIC_IN_CONDITION = Pattern.compile("(['\"])(.+?)\\1\\s*in\\s+topics", Pattern.CASE_INSENSITIVE);
+    private static final int MAX_CACHED_CONDITIONS = 1024;
+    private static final int MAX_TRACKED_TOPICS = 1024;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final int messagesPerMinute;
+    private final int burst;
+    private final long intervalNanos;
+    private final long burstToleranceNanos;
+
+    // Topic -> time its next message is due at
+    private final Map<String, Long> dueTimes = new HashMap<String, Long>();
+    // Condition -> its topics
+    private final ConcurrentHashMap<String, String[]> conditionTopics = new ConcurrentHashMap<String, String[]>();
+    private final long baseNanos = System.nanoTime();
+
+    public TopicRateGovernor(int messagesPerMinute, int burst) {
+        if(messagesPerMinute <= 0 || burst <= 0){
+            throw new IllegalArgumentException("Rate and burst must be positive.");
+        }
+        this.messagesPerMinute = messagesPerMinute;
+        this.burst = burst;
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / messagesPerMinute;
+        this.burstToleranceNanos = intervalNanos * (burst - 1);
+    }
+
+    public TopicRateGovernor() {
+        this(DEFAULT_MESSAGES_PER_MINUTE, DEFAULT_BURST);
+    }
+
+    /**
+     * @return Whether the message with the recipient(or, condition) goes to a topic
+     */
+    public static boolean isTopical(String to, String condition) {
+        return (to != null && to.startsWith(TOPICS_PREFIX)) || (to == null && condition != null);
+    }
+
+    /**
+     * @return Topics the message goes to; none if it is not to a topic
+     */
+    public String[] topicsOf(String to, String condition) {
+        if(to != null){
+            return to.startsWith(TOPICS_PREFIX) ? new String[]{to.substring(TOPICS_PREFIX.length())} : new String[0];
+        }
+        if(condition == null){
+            return new String[0];
+        }
+        String[] topics = conditionTopics.get(condition);
+        if(topics == null){
+            topics = parseCondition(condition);
+            if(conditionTopics.size() >= MAX_CACHED_CONDITIONS){
+                // The conditions in use are few; this is only in case they are not
+                conditionTopics.clear();
+            }
+            conditionTopics.put(condition, topics);
+        }
+        return topics;
+    }
+
+    /**
+     * @return Topics of a message, as of its JSON; for the odd message only(for ex., a NACKed one)
+     */
+    public String[] topicsOfMessage(String jsonMessage) {
+        try {
+            JsonNode message = objectMapper.readTree(jsonMessage);
+            JsonNode to = message.get("to");
+            JsonNode condition = message.get("condition");
+            return topicsOf(to == null ? null : to.asText(), condition == null ? null : condition.asText());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not read the topics of message: " + jsonMessage, e);
+            return new String[0];
+        }
+    }
+
+    /**
+     * The topic names the condition refers to, without duplicates, in a fixed order
+     */
+    private static String[] parseCondition(String condition) {
+        TreeSet<String> topics = new TreeSet<String>();
+        Matcher matcher = TOPIC_IN_CONDITION.matcher(condition);
+        while(matcher.find()){
+            topics.add(matcher.group(2).trim());
+        }
+        return topics.toArray(new String[topics.size()]);
+    }
+
+    /**
+     * Reserves the next message to the topics.
+     *
+     * @param maxDelayMillis The longest the message may be held back
+     * @return Milliseconds the message is to be held back for(0 to send it right away) or,
+     * -1 if it would have to be held back for longer than the max - nothing is reserved then
+     */
+    public synchronized long reserve(String[] topics, long maxDelayMillis) {
+        if(topics.length == 0){
+            return 0;
+        }
+        long now = System.nanoTime() - baseNanos;
+        // Goes once all of the topics are due
+        long start = now;
+        for(String topic : topics){
+            Long due = dueTimes.get(topic);
+            if(due != null){
+                start = Math.max(start, due);
+            }
+        }
+        long delayNanos = Math.max(0, start - burstToleranceNanos - now);
+        if(delayNanos > TimeUnit.MILLISECONDS.toNanos(maxDelayMillis)){
+            return -1;
+        }
+        for(String topic : topics){
+            Long due = dueTimes.get(topic);
+            dueTimes.put(topic, Math.max(start, due == null ? 0 : due) + intervalNanos);
+        }
+        expireDueTimes(now);
+        return (delayNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Empties the buckets of the topics - CCS says they are over the rate anyway
+     */
+    public synchronized void backOff(String[] topics) {
+        long drained = System.nanoTime() - baseNanos + burstToleranceNanos + intervalNanos;
+        for(String topic : topics){
+            Long due = dueTimes.get(topic);
+            if(due == null || due < drained){
+                dueTimes.put(topic, drained);
+            }
+        }
+    }
+
+    // A topic that is due already is as good as one never sent to; dropped, once there are many
+    private void expireDueTimes(long now) {
+        if(dueTimes.size() < MAX_TRACKED_TOPICS){
+            return;
+        }
+        Iterator<Map.Entry<String, Long>> iterator = dueTimes.entrySet().iterator();
+        while(iterator.hasNext()){
+            if(iterator.next().getValue() <= now){
+                iterator.remove();
+            }
+        }
+    }
+
+    public int getMessagesPerMinute() {
+        return messagesPerMinute;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+}
@@ -0,0 +1,238 @@
+package com.learncity.backend_flexible.messaging.framework.client.retry;
+
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse;
+import com.learncity.backend_flexible.messaging.framework.util.timer.HashedTimingWheel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse.ErrorResponseCodes.INTERNAL_SERVER_ERROR;
+import static com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse.ErrorResponseCodes.SERVICE_UNAVAILABLE;
+import static com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse.ErrorResponseCodes.TOPICS_MESSAGE_RATE_EXCEEDED;
+
+/**
+ * Resends the downstream messages NACKed for a transient server failure(SERVICE_UNAVAILABLE,
+ * INTERNAL_SERVER_ERROR) or, for a topic over its rate(TOPICS_MESSAGE_RATE_EXCEEDED) after
+ * an exponentially increasing, jittered delay - as the FCM documentation asks of the app
+ * servers.
+ *
+ * The payload of a message is kept here(by its message ID) from its first failure until it is
+ * ACKed, fails in some other way or, runs out of attempts - at which point it is handed to the
+ * {@link DeadLetterListener}. The delays are kept on a {@link HashedTimingWheel}, so that a burst
+ * of failures costs neither a thread nor a heap re-ordering each.
+ */
+public class RetryScheduler {
+
+    private static final Logger logger = Logger.getLogger(RetryScheduler.class.getSimpleName());
+
+    // Retries, on top of the first attempt
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 1000;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long TICK_MILLIS = 100;
+    private static final int TICKS_PER_WHEEL = 512;
+
+    /**
+     * Does the actual resending once the delay of a message has passed. It is called on the
+     * timer thread, so it should only hand the message over(for ex., to the send queue).
+     */
+    public interface Resender {
+        void resend(String messageId, String jsonMessage);
+    }
+
+    /**
+     * Informed of the messages that are not going to be retried anymore.
+     */
+    public interface DeadLetterListener {
+
+        /**
+         * @param attempts Number of times the message was retried
+         * @param lastResponse The last NACK received for the message
+         */
+        void onDeadLetter(String messageId, String jsonMessage, int attempts, DownstreamMessageResponse lastResponse);
+    }
+
+    private final Resender resender;
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private volatile DeadLetterListener deadLetterListener;
+
+    private final ConcurrentHashMap<String, PendingRetry> pendingRetries = new ConcurrentHashMap<String, PendingRetry>();
+    private final HashedTimingWheel timer;
+
+    public RetryScheduler(Resender resender, int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        if(resender == null){
+            throw new IllegalArgumentException("Resender cannot be null.");
+        }
+        if(maxAttempts <= 0){
+            throw new IllegalArgumentException("Max attempts must be positive.");
+        }
+        if(baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis){
+            throw new IllegalArgumentException("Delays must be positive with the max delay not less than the base delay.");
+        }
+        this.resender = resender;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.deadLetterListener = new LoggedDeadLetterListener();
+        this.timer = new HashedTimingWheel("RetryScheduler", TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+    }
+
+    /**
+     * @return Whether the NACK is for a failure that a later attempt might not run into
+     */
+    public static boolean isRetryable(DownstreamMessageResponse response) {
+        return "nack".equals(response.getMessageType())
+                && (SERVICE_UNAVAILABLE.equals(response.getError()) || INTERNAL_SERVER_ERROR.equals(response.getError())
+                    || TOPICS_MESSAGE_RATE_EXCEEDED.equals(response.getError()));
+    }
+
+    /**
+     * Schedules another attempt of the NACKed message or, if it has run out of attempts,
+     * gives it to the dead-letter listener.
+     *
+     * @param jsonMessage The payload sent; if null, the one kept from an earlier failure is used
+     * @return false if the message is not going to be retried
+     */
+    public boolean scheduleRetry(String messageId, String jsonMessage, DownstreamMessageResponse response) {
+        if(messageId == null){
+            return false;
+        }
+        PendingRetry pendingRetry = pendingRetries.get(messageId);
+        if(pendingRetry == null){
+            if(jsonMessage == null){
+                // Nothing to resend
+                logger.warning("No payload to retry message: " + messageId);
+                return false;
+            }
+            pendingRetry = new PendingRetry(messageId, jsonMessage);
+            PendingRetry existing = pendingRetries.putIfAbsent(messageId, pendingRetry);
+            if(existing != null){
+                pendingRetry = existing;
+            }
+        }
+
+        synchronized (pendingRetry){
+            if(pendingRetry.timeout != null && !pendingRetry.timeout.isExpired()){
+                // A retry is pending already(a duplicate NACK)
+                return true;
+            }
+            if(pendingRetry.attempts >= maxAttempts){
+                pendingRetries.remove(messageId, pendingRetry);
+                DeadLetterListener listener = deadLetterListener;
+                if(listener != null){
+                    listener.onDeadLetter(messageId, pendingRetry.jsonMessage, pendingRetry.attempts, response);
+                }
+                return false;
+            }
+            long delayMillis = nextDelayMillis(pendingRetry.attempts);
+            logger.info("Retrying message: " + messageId + " in " + delayMillis + " ms(attempt "
+                    + (pendingRetry.attempts + 1) + " of " + maxAttempts + ") after: " + response.getError());
+            pendingRetry.attempts++;
+            pendingRetry.timeout = timer.newTimeout(pendingRetry, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * A random delay between half and all of the exponentially growing cap, so that the
+     * messages failed together don't all come back together.
+     *
+     * @param retries Number of retries made so far
+     */
+    private long nextDelayMillis(int retries) {
+        long cap = maxDelayMillis;
+        // Don't shift past the max delay(or, out of a long)
+        if(retries < 62 && (baseDelayMillis << retries) >>> retries == baseDelayMillis){
+            cap = Math.min(maxDelayMillis, baseDelayMillis << retries);
+        }
+        return ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+    }
+
+    /**
+     * The message is done with - ACKed or, NACKed for a reason retrying does nothing about.
+     * Its payload is let go of.
+     */
+    public void forget(String messageId) {
+        if(messageId == null){
+            return;
+        }
+        PendingRetry pendingRetry = pendingRetries.remove(messageId);
+        if(pendingRetry != null){
+            synchronized (pendingRetry){
+                if(pendingRetry.timeout != null){
+                    pendingRetry.timeout.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of messages being retried
+     */
+    public int getPendingCount() {
+        return pendingRetries.size();
+    }
+
+    public void shutdown() {
+        timer.stop();
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public DeadLetterListener getDeadLetterListener() {
+        return deadLetterListener;
+    }
+
+    public void setDeadLetterListener(DeadLetterListener deadLetterListener) {
+        this.deadLetterListener = deadLetterListener;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    private class PendingRetry implements Runnable {
+
+        private final String messageId;
+        private final String jsonMessage;
+        // Attempts made after the first one
+        private int attempts;
+        private HashedTimingWheel.Timeout timeout;
+
+        private PendingRetry(String messageId, String jsonMessage) {
+            this.messageId = messageId;
+            this.jsonMessage = jsonMessage;
+        }
+
+        @Override
+        public void run() {
+            // Kept until it is ACKed or, NACKed again
+            resender.resend(messageId, jsonMessage);
+        }
+    }
+
+    /**
+     * The default dead-letter listener; it just logs them.
+     */
+    public static class LoggedDeadLetterListener implements DeadLetterListener {
+
+        @Override
+        public void onDeadLetter(String messageId, String jsonMessage, int attempts, DownstreamMessageResponse lastResponse) {
+            logger.severe("Giving up on message: " + messageId + " after " + attempts + " retries. Last error: "
+                    + lastResponse.getError() + " -> " + lastResponse.getErrorDescription());
+        }
+    }
+}
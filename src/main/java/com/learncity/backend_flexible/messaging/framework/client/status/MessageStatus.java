@@ -0,0 +1,84 @@
+package com.learncity.backend_flexible.messaging.framework.client.status;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Where a downstream message has got to - a snapshot, as of the lookup, of what
+ * {@link MessageStatusStore} has on it. The times are epoch millis; 0 if it hasn't
+ * got that far(or, it isn't known).
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MessageStatus {
+
+    public enum State {
+        ACCEPTED, SENT, ACKED, NACKED, DELIVERED
+    }
+
+    @JsonProperty("message_id")
+    private final String messageId;
+    @JsonProperty("state")
+    private final State state;
+    // The NACK error, if NACKed
+    @JsonProperty("error")
+    private final String error;
+    @JsonProperty("accepted_at")
+    private final long acceptedAt;
+    @JsonProperty("sent_at")
+    private final long sentAt;
+    @JsonProperty("responded_at")
+    private final long respondedAt;
+    @JsonProperty("delivered_at")
+    private final long deliveredAt;
+
+    public MessageStatus(String messageId, State state, String error, long acceptedAt, long sentAt, long respondedAt, long deliveredAt) {
+        this.messageId = messageId;
+        this.state = state;
+        this.error = error;
+        this.acceptedAt = acceptedAt;
+        this.sentAt = sentAt;
+        this.respondedAt = respondedAt;
+        this.deliveredAt = deliveredAt;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getAcceptedAt() {
+        return acceptedAt;
+    }
+
+    public long getSentAt() {
+        return sentAt;
+    }
+
+    public long getRespondedAt() {
+        return respondedAt;
+    }
+
+    public long getDeliveredAt() {
+        return deliveredAt;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageStatus{" +
+                "messageId='" + messageId + '\'' +
+                ", state=" + state +
+                ", error='" + error + '\'' +
+                ", acceptedAt=" + acceptedAt +
+                ", sentAt=" + sentAt +
+                ", respondedAt=" + respondedAt +
+                ", deliveredAt=" + deliveredAt +
+                '}';
+    }
+}
@@ -0,0 +1,392 @@
+package com.learncity.backend_flexible.messaging.framework.client.status;
+
+import com.learncity.backend_flexible.messaging.framework.util.hash.FingerprintTable;
+import com.learncity.backend_flexible.messaging.framework.util.hash.Hashes;
+import com.learncity.backend_flexible.messaging.framework.util.timer.HashedTimingWheel;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks where the downstream messages have got to - accepted for sending, sent, ACKed or
+ * NACKed(with the error) and delivered to the device - by message ID, for a while.
+ *
+ * A message is a fixed-size record in a {@link FingerprintTable} - and the buffer can be
+ * off-heap, so millions of messages cost the GC nothing. The records are laid out as:
+ *
+ * <pre>
+ * [fingerprint 8][state 1][error 1][pad 6][accepted at 8][sent at 8][responded at 8][delivered at 8]
+ * </pre>
+ *
+ * The messages are split into stripes by fingerprint, each under a lock of its own, so the
+ * senders and the stanza threads don't all contend on one. A stripe has two generations of
+ * tables: the messages go into the current one, and are looked up in both. Every retention
+ * period(on a {@link HashedTimingWheel}), or once it is full, the current one becomes the
+ * previous one and a spare, cleared ahead of time, becomes the current one. The previous one
+ * is cleared into the next spare on the timer thread - never under the lock, nor on the
+ * thread that filled the table up(if the spare is not ready by the next rotation, a fresh
+ * one is allocated instead). So, a message is tracked for at least the retention period,
+ * unless more than the capacity of messages come in within it(more than a stripe's share of
+ * it, strictly speaking).
+ *
+ * The state only moves forward; a late ACK doesn't undo a delivery receipt, for ex.
+ */
+public class MessageStatusStore {
+
+    public static final int DEFAULT_CAPACITY = 128 * 1024;
+    public static final long DEFAULT_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final int RECORD_SIZE = 48;
+    private static final int STATE = 8;
+    private static final int ERROR = 9;
+    private static final int ACCEPTED_AT = 16;
+    private static final int SENT_AT = 24;
+    private static final int RESPONDED_AT = 32;
+    private static final int DELIVERED_AT = 40;
+
+    // A power of two; picked by the top bits of the fingerprint, the slot by the bottom ones
+    private static final int STRIPE_COUNT = 16;
+    private static final int STRIPE_SHIFT = 64 - Integer.numberOfTrailingZeros(STRIPE_COUNT);
+
+    // Stored states are the ordinals + 1; 0 is none
+    private static final MessageStatus.State[] STATES = MessageStatus.State.values();
+    // Error index for none and, for one past the ones that fit in a byte
+    private static final int NO_ERROR = 0;
+    private static final int OTHER_ERROR = 255;
+    private static final String OTHER_ERROR_CODE = "UNKNOWN";
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int TICKS_PER_WHEEL = 512;
+
+    private final int capacity;
+    private final long retentionMillis;
+    private final boolean offHeap;
+    private final int stripeCapacity;
+    private final int stripeSlots;
+
+    private final Stripe[] stripes;
+
+    // The error codes are few; a record holds the index of its one. Guarded by itself
+    private final List<String> errors = new ArrayList<String>();
+    private final Map<String, Integer> errorIndexes = new HashMap<String, Integer>();
+
+    private final HashedTimingWheel timer;
+    private volatile boolean shutdown;
+
+    /**
+     * @param capacity Messages a generation holds; the tables take about 64 bytes a message
+     *                 each, and there are three of them(the current, the previous and the spare)
+     * @param retentionMillis How long a message is to be tracked
+     * @param offHeap Whether the tables are to be direct buffers
+     */
+    public MessageStatusStore(int capacity, long retentionMillis, boolean offHeap) {
+        if(capacity <= 0){
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        if(retentionMillis <= 0){
+            throw new IllegalArgumentException("Retention must be positive.");
+        }
+        int stripeCapacity = (capacity + STRIPE_COUNT - 1) / STRIPE_COUNT;
+        // Kept at most 3/4 full
+        long slots = FingerprintTable.slotsFor(stripeCapacity, 0.75);
+        if(slots * RECORD_SIZE > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Capacity: " + capacity + " is too large.");
+        }
+        this.capacity = capacity;
+        this.retentionMillis = retentionMillis;
+        this.offHeap = offHeap;
+        this.stripeCapacity = stripeCapacity;
+        this.stripeSlots = (int) slots;
+        this.stripes = new Stripe[STRIPE_COUNT];
+        for(int i = 0; i < STRIPE_COUNT; i++){
+            stripes[i] = new Stripe(newTable(), newTable(), newTable());
+        }
+        errors.add(null);
+        this.timer = new HashedTimingWheel("MessageStatusStore", TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+        scheduleRotation();
+    }
+
+    public MessageStatusStore() {
+        this(DEFAULT_CAPACITY, DEFAULT_RETENTION_MILLIS, false);
+    }
+
+    private FingerprintTable newTable() {
+        return new FingerprintTable(stripeSlots, RECORD_SIZE, offHeap);
+    }
+
+    private void scheduleRotation() {
+        timer.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                for(Stripe stripe : stripes){
+                    FingerprintTable retired;
+                    synchronized (stripe){
+                        retired = stripe.rotate();
+                    }
+                    makeSpare(stripe, retired);
+                }
+                scheduleRotation();
+            }
+        }, retentionMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // On the timer thread
+    private void makeSpare(Stripe stripe, FingerprintTable retired) {
+        retired.clear();
+        synchronized (stripe){
+            if(stripe.spare == null){
+                stripe.spare = retired;
+            }
+        }
+    }
+
+    /**
+     * Accepted for sending - queued, or handed to a connection
+     */
+    public void onAccepted(String messageId) {
+        update(messageId, MessageStatus.State.ACCEPTED, ACCEPTED_AT, NO_ERROR);
+    }
+
+    /**
+     * Written to the connection
+     */
+    public void onSent(String messageId) {
+        update(messageId, MessageStatus.State.SENT, SENT_AT, NO_ERROR);
+    }
+
+    /**
+     * ACKed or, NACKed with the error. The last response counts(a NACKed message may be
+     * retried and ACKed after all).
+     */
+    public void onResponse(String messageId, boolean acked, String error) {
+        if(acked){
+            update(messageId, MessageStatus.State.ACKED, RESPONDED_AT, NO_ERROR);
+        }
+        else{
+            update(messageId, MessageStatus.State.NACKED, RESPONDED_AT, errorIndexOf(error));
+        }
+    }
+
+    /**
+     * Delivered to the device, as of a delivery receipt
+     */
+    public void onDelivered(String messageId) {
+        update(messageId, MessageStatus.State.DELIVERED, DELIVERED_AT, NO_ERROR);
+    }
+
+    private void update(String messageId, MessageStatus.State state, int timeField, int error) {
+        if(messageId == null){
+            return;
+        }
+        long fingerprint = Hashes.fingerprint(messageId);
+        Stripe stripe = stripeOf(fingerprint);
+        FingerprintTable retired = null;
+        synchronized (stripe){
+            FingerprintTable table = stripe.current;
+            int offset = table.find(fingerprint);
+            if(offset < 0){
+                table = stripe.previous;
+                offset = table.find(fingerprint);
+            }
+            if(offset < 0){
+                if(stripe.currentSize >= stripeCapacity){
+                    retired = stripe.rotate();
+                }
+                table = stripe.current;
+                offset = table.insert(fingerprint);
+                stripe.currentSize++;
+            }
+
+            ByteBuffer records = table.getBuffer();
+            long now = System.currentTimeMillis();
+            if(records.getLong(offset + timeField) == 0){
+                records.putLong(offset + timeField, now);
+            }
+            int stored = records.get(offset + STATE);
+            if(stored == 0 || rank(state) >= rank(STATES[stored - 1])){
+                records.put(offset + STATE, (byte) (state.ordinal() + 1));
+                records.put(offset + ERROR, (byte) error);
+                if(timeField == RESPONDED_AT){
+                    // The latest response
+                    records.putLong(offset + RESPONDED_AT, now);
+                }
+            }
+        }
+        if(retired != null){
+            clearLater(stripe, retired);
+        }
+    }
+
+    // Filled up ahead of the retention period; cleared on the timer thread rather than this one
+    private void clearLater(final Stripe stripe, final FingerprintTable retired) {
+        if(shutdown){
+            return;
+        }
+        timer.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                makeSpare(stripe, retired);
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private Stripe stripeOf(long fingerprint) {
+        return stripes[(int) (fingerprint >>> STRIPE_SHIFT)];
+    }
+
+    // ACKED and NACKED are on a par
+    private static int rank(MessageStatus.State state) {
+        switch (state){
+            case ACCEPTED:
+                return 0;
+            case SENT:
+                return 1;
+            case ACKED:
+            case NACKED:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * @return Status of the message or, null if it is not tracked(never seen or, expired)
+     */
+    public MessageStatus get(String messageId) {
+        if(messageId == null){
+            return null;
+        }
+        long fingerprint = Hashes.fingerprint(messageId);
+        Stripe stripe = stripeOf(fingerprint);
+        int stored;
+        int error;
+        long acceptedAt, sentAt, respondedAt, deliveredAt;
+        synchronized (stripe){
+            FingerprintTable table = stripe.current;
+            int offset = table.find(fingerprint);
+            if(offset < 0){
+                table = stripe.previous;
+                offset = table.find(fingerprint);
+            }
+            if(offset < 0){
+                return null;
+            }
+            ByteBuffer records = table.getBuffer();
+            stored = records.get(offset + STATE);
+            error = records.get(offset + ERROR) & 0xFF;
+            acceptedAt = records.getLong(offset + ACCEPTED_AT);
+            sentAt = records.getLong(offset + SENT_AT);
+            respondedAt = records.getLong(offset + RESPONDED_AT);
+            deliveredAt = records.getLong(offset + DELIVERED_AT);
+        }
+        return new MessageStatus(messageId,
+                stored == 0 ? null : STATES[stored - 1],
+                error == NO_ERROR ? null : error == OTHER_ERROR ? OTHER_ERROR_CODE : errorOf(error),
+                acceptedAt, sentAt, respondedAt, deliveredAt);
+    }
+
+    /**
+     * @return Statuses of the tracked ones among the messages, in the same order; the ones
+     * not tracked are left out
+     */
+    public Map<String, MessageStatus> getAll(Collection<String> messageIds) {
+        Map<String, MessageStatus> statuses = new LinkedHashMap<String, MessageStatus>();
+        for(String messageId : messageIds){
+            MessageStatus status = get(messageId);
+            if(status != null){
+                statuses.put(messageId, status);
+            }
+        }
+        return statuses;
+    }
+
+    private int errorIndexOf(String error) {
+        if(error == null){
+            return OTHER_ERROR;
+        }
+        synchronized (errors){
+            Integer index = errorIndexes.get(error);
+            if(index != null){
+                return index;
+            }
+            if(errors.size() >= OTHER_ERROR){
+                return OTHER_ERROR;
+            }
+            errorIndexes.put(error, errors.size());
+            errors.add(error);
+            return errors.size() - 1;
+        }
+    }
+
+    private String errorOf(int index) {
+        synchronized (errors){
+            return errors.get(index);
+        }
+    }
+
+    /**
+     * Stops expiring the messages; done with the store.
+     */
+    public void shutdown() {
+        shutdown = true;
+        timer.stop();
+    }
+
+    /**
+     * @return Number of messages in the current generation
+     */
+    public int getCurrentSize() {
+        int size = 0;
+        for(Stripe stripe : stripes){
+            synchronized (stripe){
+                size += stripe.currentSize;
+            }
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    private class Stripe {
+
+        private FingerprintTable current;
+        private FingerprintTable previous;
+        // Cleared, ready to be the next current one; null while it is being cleared
+        private FingerprintTable spare;
+        private int currentSize;
+
+        private Stripe(FingerprintTable current, FingerprintTable previous, FingerprintTable spare) {
+            this.current = current;
+            this.previous = previous;
+            this.spare = spare;
+        }
+
+        /**
+         * Under the lock of the stripe; takes no time.
+         *
+         * @return The table retired, for the caller to clear into the next spare - off the lock
+         */
+        private FingerprintTable rotate() {
+            FingerprintTable retired = previous;
+            previous = current;
+            current = spare != null ? spare : newTable();
+            spare = null;
+            currentSize = 0;
+            return retired;
+        }
+    }
+}
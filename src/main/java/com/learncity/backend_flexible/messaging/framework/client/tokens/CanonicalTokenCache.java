@@ -0,0 +1,167 @@
+package com.learncity.backend_flexible.messaging.framework.client.tokens;
+
+import com.learncity.backend_flexible.messaging.framework.util.hash.Hashes;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Old registration token -> its canonical one, as CCS says in the "registration_id" of an
+ * ACK(the app was registered again, for ex.) - so that the next messages go to the
+ * canonical one right away.
+ *
+ * Bounded, with the least recently used tokens evicted first. The map is split into
+ * stripes by the hash of the token, each an access-ordered {@link LinkedHashMap} of its
+ * own share of the size, under a lock of its own - the senders don't all contend on one
+ * lock, at the cost of the eviction being LRU per stripe rather than overall.
+ */
+public class CanonicalTokenCache {
+
+    public static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+    private static final int STRIPE_COUNT = 16;
+    // How far a chain of canonical tokens(one gone stale after the other) is followed
+    private static final int MAX_HOPS = 4;
+
+    private final int maxSize;
+    private final Stripe[] stripes;
+
+    public CanonicalTokenCache(int maxSize) {
+        if(maxSize <= 0){
+            throw new IllegalArgumentException("Size must be positive.");
+        }
+        this.maxSize = maxSize;
+        this.stripes = new Stripe[STRIPE_COUNT];
+        int stripeSize = Math.max(1, (maxSize + STRIPE_COUNT - 1) / STRIPE_COUNT);
+        for(int i = 0; i < STRIPE_COUNT; i++){
+            stripes[i] = new Stripe(stripeSize);
+        }
+    }
+
+    public CanonicalTokenCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Takes the canonical token for the old one from now on
+     */
+    public void put(String oldToken, String canonicalToken) {
+        if(oldToken == null || canonicalToken == null || oldToken.equals(canonicalToken)){
+            return;
+        }
+        // A token that is itself stale is resolved here, so that the chains stay short
+        String resolved = get(canonicalToken);
+        if(resolved != null){
+            if(resolved.equals(oldToken)){
+                // Gone back to the old one
+                remove(canonicalToken);
+            }
+            else{
+                canonicalToken = resolved;
+            }
+        }
+        Stripe stripe = stripeOf(oldToken);
+        synchronized (stripe){
+            stripe.put(oldToken, canonicalToken);
+        }
+    }
+
+    /**
+     * @return The canonical token for the token or, null if it is not known to have one
+     */
+    public String get(String token) {
+        if(token == null){
+            return null;
+        }
+        String canonicalToken = lookup(token);
+        // The canonical token may have gone stale itself since
+        for(int hops = 1; canonicalToken != null && hops < MAX_HOPS; hops++){
+            String next = lookup(canonicalToken);
+            if(next == null || next.equals(token)){
+                break;
+            }
+            canonicalToken = next;
+        }
+        return canonicalToken;
+    }
+
+    private String lookup(String token) {
+        Stripe stripe = stripeOf(token);
+        synchronized (stripe){
+            return stripe.get(token);
+        }
+    }
+
+    /**
+     * @return The canonical token for the token if there is one; the token itself otherwise
+     */
+    public String resolve(String token) {
+        String canonicalToken = get(token);
+        return canonicalToken != null ? canonicalToken : token;
+    }
+
+    public void remove(String token) {
+        Stripe stripe = stripeOf(token);
+        synchronized (stripe){
+            stripe.remove(token);
+        }
+    }
+
+    private Stripe stripeOf(String token) {
+        return stripes[Hashes.spread(token) & (STRIPE_COUNT - 1)];
+    }
+
+    /**
+     * @return Number of tokens with a canonical one
+     */
+    public int size() {
+        int size = 0;
+        for(Stripe stripe : stripes){
+            synchronized (stripe){
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A share of the map; its lock must be held
+     */
+    private static class Stripe {
+
+        private final int maxSize;
+        // In the order of access, the least recent first
+        private final LinkedHashMap<String, String> tokens = new LinkedHashMap<String, String>(16, 0.75f, true);
+
+        private Stripe(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        private String get(String token) {
+            return tokens.get(token);
+        }
+
+        private void put(String oldToken, String canonicalToken) {
+            tokens.put(oldToken, canonicalToken);
+            if(tokens.size() > maxSize){
+                Iterator<String> eldest = tokens.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        private void remove(String token) {
+            tokens.remove(token);
+        }
+
+        private int size() {
+            return tokens.size();
+        }
+    }
+}
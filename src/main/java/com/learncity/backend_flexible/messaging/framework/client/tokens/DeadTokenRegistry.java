@@ -0,0 +1,320 @@
+package com.learncity.backend_flexible.messaging.framework.client.tokens;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The registration tokens CCS has said are no good(DEVICE_UNREGISTERED, BAD_REGISTRATION),
+ * so that the messages to them are not sent at all.
+ *
+ * Every send looks its token up, so the tokens are kept in a plain concurrent map - a
+ * lookup is a read of the String's cached hash and a probe, without any lock. It is
+ * bounded: a token is forgotten once it has been dead for the retention time(sent to
+ * again, CCS would only NACK it once more) and, past the max size, the ones marked
+ * earliest are forgotten first. The tokens are kept in the order they were marked in, to
+ * tell which those are.
+ *
+ * If there is a snapshot file, the dead tokens are loaded from it on {@link #open()} and
+ * written to it(to a temporary file first, moved over it once complete) every snapshot
+ * interval that there is something new, and on {@link #close()}. A line a token, in the
+ * order they were marked in: [token]\t[error]\t[time marked at].
+ */
+public class DeadTokenRegistry {
+
+    private static final Logger logger = Logger.getLogger(DeadTokenRegistry.class.getSimpleName());
+
+    public static final int DEFAULT_MAX_SIZE = 256 * 1024;
+    public static final long DEFAULT_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(30);
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final int maxSize;
+    private final long retentionMillis;
+    private final File snapshotFile;
+    private final long snapshotIntervalMillis;
+
+    // Token -> how it died
+    private final ConcurrentHashMap<String, DeadToken> deadTokens = new ConcurrentHashMap<String, DeadToken>();
+    // In the order they were marked in; an entry no longer in the map(revived, for ex.) is skipped
+    private final ConcurrentLinkedQueue<DeadToken> markingOrder = new ConcurrentLinkedQueue<DeadToken>();
+
+    // Changed since the last snapshot
+    private volatile boolean dirty;
+
+    private Thread snapshotThread;
+    private volatile boolean running;
+
+    /**
+     * @param maxSize Dead tokens kept at most
+     * @param retentionMillis How long a token is kept as dead
+     * @param snapshotFile null to keep it in memory only
+     */
+    public DeadTokenRegistry(int maxSize, long retentionMillis, File snapshotFile, long snapshotIntervalMillis) {
+        if(maxSize <= 0 || retentionMillis <= 0){
+            throw new IllegalArgumentException("Size and retention must be positive.");
+        }
+        this.maxSize = maxSize;
+        this.retentionMillis = retentionMillis;
+        this.snapshotFile = snapshotFile;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+    }
+
+    public DeadTokenRegistry() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_RETENTION_MILLIS, null, DEFAULT_SNAPSHOT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Loads the last snapshot, if any, and starts snapshotting.
+     */
+    public synchronized void open() throws IOException {
+        if(running){
+            return;
+        }
+        if(snapshotFile != null && snapshotFile.exists()){
+            load();
+        }
+        running = true;
+        if(snapshotFile == null){
+            return;
+        }
+        snapshotThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runSnapshots();
+            }
+        }, "DeadTokenRegistry-Snapshot");
+        snapshotThread.setDaemon(true);
+        snapshotThread.start();
+    }
+
+    private void load() throws IOException {
+        long now = System.currentTimeMillis();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(snapshotFile), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while((line = reader.readLine()) != null){
+                int tab = line.indexOf('\t');
+                if(tab <= 0){
+                    // A line cut short, or a blank one
+                    continue;
+                }
+                String error = line.substring(tab + 1);
+                long markedAtMillis = now;
+                int secondTab = error.indexOf('\t');
+                if(secondTab >= 0){
+                    try {
+                        markedAtMillis = Long.parseLong(error.substring(secondTab + 1));
+                    } catch (NumberFormatException e) {
+                        // Cut short; taken as marked now
+                    }
+                    error = error.substring(0, secondTab);
+                }
+                add(new DeadToken(line.substring(0, tab), error, markedAtMillis));
+            }
+        } finally {
+            reader.close();
+        }
+        expire(now);
+        logger.info("Loaded " + deadTokens.size() + " dead token(s) from: " + snapshotFile);
+    }
+
+    private void runSnapshots() {
+        while(running){
+            try {
+                Thread.sleep(snapshotIntervalMillis);
+            } catch (InterruptedException e) {
+                // Closing
+                return;
+            }
+            expire(System.currentTimeMillis());
+            if(dirty){
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Could not snapshot the dead tokens to: " + snapshotFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the dead tokens to the snapshot file, if there is one
+     */
+    public synchronized void snapshot() throws IOException {
+        if(snapshotFile == null){
+            return;
+        }
+        // Whatever comes in from here on makes the next one
+        dirty = false;
+        File temporary = new File(snapshotFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for(DeadToken deadToken : markingOrder){
+                if(deadTokens.get(deadToken.token) != deadToken){
+                    continue;
+                }
+                writer.write(deadToken.token);
+                writer.write('\t');
+                writer.write(deadToken.error);
+                writer.write('\t');
+                writer.write(Long.toString(deadToken.markedAtMillis));
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        } finally {
+            out.close();
+        }
+        Files.move(temporary.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Stops snapshotting, taking a last one if there is something new.
+     */
+    public synchronized void close() throws IOException {
+        if(!running){
+            return;
+        }
+        running = false;
+        if(snapshotThread != null){
+            snapshotThread.interrupt();
+            snapshotThread = null;
+        }
+        if(dirty){
+            snapshot();
+        }
+    }
+
+    /**
+     * Takes the token as dead from now on
+     *
+     * @param error The error it was NACKed with
+     */
+    public void markDead(String token, String error) {
+        if(token == null){
+            return;
+        }
+        long now = System.currentTimeMillis();
+        DeadToken marked = deadTokens.get(token);
+        if(marked != null && !marked.isExpired(now, retentionMillis)){
+            return;
+        }
+        add(new DeadToken(token, error == null ? "" : error, now));
+        dirty = true;
+        logger.info("Registration token marked dead(" + error + "): " + token);
+        expire(now);
+    }
+
+    private void add(DeadToken deadToken) {
+        deadTokens.put(deadToken.token, deadToken);
+        markingOrder.offer(deadToken);
+        // The ones marked earliest make way
+        while(deadTokens.size() > maxSize){
+            DeadToken eldest = markingOrder.poll();
+            if(eldest == null){
+                break;
+            }
+            deadTokens.remove(eldest.token, eldest);
+        }
+    }
+
+    /**
+     * Forgets the tokens dead for longer than the retention; they are at the head of the marking order
+     */
+    private void expire(long now) {
+        DeadToken eldest;
+        while((eldest = markingOrder.peek()) != null
+                && (eldest.isExpired(now, retentionMillis) || deadTokens.get(eldest.token) != eldest)){
+            if(markingOrder.remove(eldest) && deadTokens.remove(eldest.token, eldest)){
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * @return The error the token was NACKed with or, null if it is not known to be dead
+     */
+    public String getDeadError(String token) {
+        if(token == null){
+            return null;
+        }
+        DeadToken deadToken = deadTokens.get(token);
+        if(deadToken == null || deadToken.isExpired(System.currentTimeMillis(), retentionMillis)){
+            return null;
+        }
+        return deadToken.error;
+    }
+
+    public boolean isDead(String token) {
+        return getDeadError(token) != null;
+    }
+
+    /**
+     * Takes the token as live again(for ex., marked dead by mistake)
+     *
+     * @return false if it was not dead
+     */
+    public boolean revive(String token) {
+        if(token == null || deadTokens.remove(token) == null){
+            return false;
+        }
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * @return Number of dead tokens
+     */
+    public int size() {
+        return deadTokens.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getRetentionMillis() {
+        return retentionMillis;
+    }
+
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    private static class DeadToken {
+
+        private final String token;
+        private final String error;
+        private final long markedAtMillis;
+
+        private DeadToken(String token, String error, long markedAtMillis) {
+            this.token = token;
+            this.error = error;
+            this.markedAtMillis = markedAtMillis;
+        }
+
+        private boolean isExpired(long now, long retentionMillis) {
+            return now - markedAtMillis >= retentionMillis;
+        }
+    }
+}
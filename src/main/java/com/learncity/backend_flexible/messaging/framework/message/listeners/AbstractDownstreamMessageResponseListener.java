@@ -66,7 +66,8 @@ public abstract class AbstractDownstreamMessageResponseListener extends Abstract
                 handleUnrecoverableFailure(downstreamMessageResponse);
                 break;
             case TOPICS_MESSAGE_RATE_EXCEEDED:
-                handleUnrecoverableFailure(downstreamMessageResponse);
+                // Retried with a backoff, like a server failure
+                handleServerFailure(downstreamMessageResponse);
                 break;
             case CONNECTION_DRAINING:
                 handleConnectionDrainingFailure();
@@ -5,18 +5,35 @@ import com.learncity.backend_flexible.messaging.framework.message.util.source_vi
 
 /**
  * Created by DJ on 5/4/2017.
+ *
+ * The source is kept per thread - a listener is called for many messages at a time, each
+ * on its own thread, and {@link #viewSource()} is to give the source of the message the
+ * calling thread is handling.
  */
 public abstract class AbstractFcmMessageListener<Message> implements GenericFcmMessageListener<Message>, SourceViewer<FcmMessageSourceViewer> {
 
-    private FcmMessageSourceViewer fcmMessageSourceViewer;
+    private final ThreadLocal<FcmMessageSourceViewer> fcmMessageSourceViewer = new ThreadLocal<FcmMessageSourceViewer>();
 
+    /**
+     * Sets the source of the message about to be handled on the calling thread
+     */
     @Override
     public void setSource(FcmMessageSourceViewer fcmMessageSourceViewer) {
-        this.fcmMessageSourceViewer = fcmMessageSourceViewer;
+        this.fcmMessageSourceViewer.set(fcmMessageSourceViewer);
     }
 
+    /**
+     * @return Source of the message being handled on the calling thread
+     */
     @Override
     public FcmMessageSourceViewer viewSource() {
-        return fcmMessageSourceViewer;
+        return fcmMessageSourceViewer.get();
+    }
+
+    /**
+     * Done with the message being handled on the calling thread
+     */
+    public void clearSource() {
+        fcmMessageSourceViewer.remove();
     }
 }
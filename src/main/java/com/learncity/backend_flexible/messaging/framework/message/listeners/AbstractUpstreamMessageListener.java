@@ -2,7 +2,10 @@ package com.learncity.backend_flexible.messaging.framework.message.listeners;
 
 import com.learncity.backend_flexible.messaging.framework.client.CcsClient;
 import com.learncity.backend_flexible.messaging.framework.message.model.incoming.UpstreamMessage;
+import com.learncity.backend_flexible.messaging.framework.util.dedup.RecentIdCache;
+import com.learncity.backend_flexible.messaging.framework.util.logging.MessageLogger;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -11,13 +14,41 @@ import java.util.logging.Logger;
 public abstract class AbstractUpstreamMessageListener extends AbstractFcmMessageListener<UpstreamMessage> {
 
     private static final Logger logger = Logger.getLogger(AbstractUpstreamMessageListener.class.getSimpleName());
+    private static final MessageLogger receivedLogger = new MessageLogger(logger, Level.INFO);
+
+    // Upstream messages seen lately; CCS delivers again the ones it didn't see ACKed in time
+    private final RecentIdCache seenMessages;
+
+    public AbstractUpstreamMessageListener() {
+        this(new RecentIdCache());
+    }
+
+    /**
+     * @param seenMessages Where the IDs of the messages handled are remembered, to skip
+     * handling them again when they are delivered again
+     */
+    public AbstractUpstreamMessageListener(RecentIdCache seenMessages) {
+        this.seenMessages = seenMessages;
+    }
 
     @Override
     public void onReceiveMessage(UpstreamMessage upstreamMessage) {
 
-        logger.info("Upstream message received: \n" + this.viewSource().toString());
+        receivedLogger.log(MessageLogger.UPSTREAM, "Upstream message received: {0}", upstreamMessage);
 
-        processUpstreamMessage(upstreamMessage);
+        String messageId = upstreamMessage.getMessageId();
+        if(messageId != null && seenMessages.isSeen(messageId)){
+            // Handled already; its ACK must have been lost or late. Just ACK it again.
+            logger.fine("Duplicate Upstream message: " + messageId + "; ACKing it again.");
+        }
+        else{
+            processUpstreamMessage(upstreamMessage);
+            // Only once handled; if it failed, it is to be handled again when it comes again.
+            // The copies of a message come from the same device, so they are not handled at once.
+            if(messageId != null){
+                seenMessages.markSeen(messageId);
+            }
+        }
 
         //final String action = inMessage.getDataPayload().get(Constants.PAYLOAD_ATTRIBUTE_ACTION);
         /*if (action != null) {
@@ -26,8 +57,13 @@ public abstract class AbstractUpstreamMessageListener extends AbstractFcmMessage
         }*/
 
         // Send ACK to Ccs
-        logger.info("Sending Ack to Ccs for the Upstream Message received...");
-        CcsClient.getInstance().sendAsync(upstreamMessage.getAcknowledgement().toString());
+        receivedLogger.log(MessageLogger.ACK, "Sending Ack to Ccs for the Upstream Message: {0}", messageId);
+        // ...on the same connection it came in on, ahead of the Downstream messages
+        CcsClient.getInstance().sendAcknowledgement(upstreamMessage.getAcknowledgement(), viewSource().getConnection());
+    }
+
+    public RecentIdCache getSeenMessages() {
+        return seenMessages;
     }
 
     protected abstract void processUpstreamMessage(UpstreamMessage upstreamMessage);
@@ -18,7 +18,7 @@ public class LoggedDownstreamMessageResponseListener extends AbstractDownstreamM
     }
 
     public void handleServerFailure(DownstreamMessageResponse downstreamMessageResponse) {
-        // TODO: Resend the message
+        // The client resends it after a backoff, for as many attempts as it is configured for
         logger.info("Server error: " + downstreamMessageResponse.getError() + " -> " + downstreamMessageResponse.getErrorDescription());
 
     }
@@ -30,7 +30,8 @@ public class LoggedDownstreamMessageResponseListener extends AbstractDownstreamM
     }
 
     public void handleConnectionDrainingFailure() {
-        // TODO: handle the connection draining failure. Force reconnect?
+        // The client has already moved new traffic to a replacement connection and will
+        // resend this message on it.
         logger.info("FCM Connection is draining!");
     }
 }
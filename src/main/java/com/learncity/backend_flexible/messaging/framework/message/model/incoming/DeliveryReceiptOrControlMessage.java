@@ -4,6 +4,7 @@ package com.learncity.backend_flexible.messaging.framework.message.model.incomin
  * Created by DJ on 5/3/2017.
  */
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -27,6 +28,8 @@ import java.util.Map;
  * <a href = "https://firebase.google.com/docs/cloud-messaging/xmpp-server-ref#ccs">here.</a>
  */
 @JsonInclude(JsonInclude.Include.NON_NULL)
+// CCS may well add fields; they are not to fail the binding
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class DeliveryReceiptOrControlMessage {
 
 
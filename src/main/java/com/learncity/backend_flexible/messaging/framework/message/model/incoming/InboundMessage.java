@@ -0,0 +1,122 @@
+package com.learncity.backend_flexible.messaging.framework.message.model.incoming;
+
+/**
+ * A message received from CCS, decoded: what kind of message it is, the message itself
+ * bound to its class and the JSON it was decoded from. The fields every message is handled
+ * by(its ID, sender and error) are read off the JSON as well, apart from the binding - so
+ * they are there even if the message couldn't be bound.
+ */
+public final class InboundMessage {
+
+    public enum Type {
+        /** An upstream message from a client app; it has no "message_type" */
+        UPSTREAM,
+        ACK,
+        NACK,
+        RECEIPT,
+        CONTROL,
+        /** A "message_type" we don't know about */
+        UNKNOWN;
+
+        public static Type of(String messageType) {
+            if(messageType == null){
+                return UPSTREAM;
+            }
+            switch(messageType){
+                case "ack":
+                    return ACK;
+                case "nack":
+                    return NACK;
+                case "receipt":
+                    return RECEIPT;
+                case "control":
+                    return CONTROL;
+                default:
+                    return UNKNOWN;
+            }
+        }
+    }
+
+    private final Type type;
+    private final String messageType;
+    private final String messageId;
+    private final String from;
+    private final String error;
+    private final Object message;
+    private final String json;
+
+    /**
+     * @param message The message bound to the class for its type; null if it couldn't be bound
+     */
+    public InboundMessage(String messageType, String messageId, String from, String error, Object message, String json) {
+        this.type = Type.of(messageType);
+        this.messageType = messageType;
+        this.messageId = messageId;
+        this.from = from;
+        this.error = error;
+        this.message = message;
+        this.json = json;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The "message_type" as received; null for an upstream message
+     */
+    public String getMessageType() {
+        return messageType;
+    }
+
+    /**
+     * @return The top level "message_id" or, null if there is none
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * @return The top level "from" or, null if there is none
+     */
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * @return The top level "error"(of a NACK) or, null if there is none
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return The message - an {@link UpstreamMessage}, {@link DownstreamMessageResponse} or,
+     * {@link DeliveryReceiptOrControlMessage} as per the type. Null if it couldn't be bound.
+     */
+    public Object getMessage() {
+        return message;
+    }
+
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * @return The class a message of the type is bound to; null for an unknown type
+     */
+    public static Class<?> messageClassOf(Type type) {
+        switch(type){
+            case UPSTREAM:
+                return UpstreamMessage.class;
+            case ACK:
+            case NACK:
+                return DownstreamMessageResponse.class;
+            case RECEIPT:
+            case CONTROL:
+                return DeliveryReceiptOrControlMessage.class;
+            default:
+                return null;
+        }
+    }
+}
@@ -4,10 +4,12 @@ package com.learncity.backend_flexible.messaging.framework.message.model.incomin
  * Created by DJ on 5/3/2017.
  */
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learncity.backend_flexible.messaging.framework.message.util.json.JsonStrings;
 
 import java.util.Map;
 
@@ -15,6 +17,8 @@ import java.util.Map;
  * Represents a standard Upstream message sent by the client App.
  */
 @JsonInclude(JsonInclude.Include.NON_NULL)
+// CCS may well add fields; they are not to fail the binding
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class UpstreamMessage {
 
 
@@ -52,7 +56,7 @@ public class UpstreamMessage {
      *
      * This parameter specifies the key-value pairs of the message's payload.
      */
-    @JsonProperty(value = "dataPayload")
+    @JsonProperty(value = "data")
     @JsonInclude(JsonInclude.Include.NON_EMPTY)
     private Map<String, Object> dataPayload;
 
@@ -219,11 +223,27 @@ public class UpstreamMessage {
         @JsonInclude(JsonInclude.Include.NON_EMPTY)
         private String messageType;
 
+        // Pre-serialized ACK; only the two values go in between. Same as Jackson's serialization
+        // of it, for the fields are in this order.
+        private static final String ACK_HEAD = "{\"to\":\"";
+        private static final String ACK_MIDDLE = "\",\"message_id\":\"";
+        private static final String ACK_TAIL = "\",\"message_type\":\"ack\"}";
+
         /**
          * @return Returns a JSON Stringified representation of this object using Jackson Object Mapper.
          */
         @Override
         public String toString(){
+            if("ack".equals(messageType) && to != null && !to.isEmpty() && messageId != null && !messageId.isEmpty()){
+                StringBuilder json = new StringBuilder(ACK_HEAD.length() + ACK_MIDDLE.length() + ACK_TAIL.length()
+                        + to.length() + messageId.length());
+                json.append(ACK_HEAD);
+                JsonStrings.appendEscaped(json, to);
+                json.append(ACK_MIDDLE);
+                JsonStrings.appendEscaped(json, messageId);
+                json.append(ACK_TAIL);
+                return json.toString();
+            }
             String json;
             try {
                 json = objectMapper.writeValueAsString(this);
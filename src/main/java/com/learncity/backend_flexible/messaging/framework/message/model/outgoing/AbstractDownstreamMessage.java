@@ -7,6 +7,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.learncity.backend_flexible.messaging.framework.message.util.MessageUtils;
 import com.learncity.backend_flexible.messaging.framework.message.util.generator.Generator;
+import com.learncity.backend_flexible.messaging.framework.message.util.json.DownstreamMessageJsonWriter;
 
 import java.util.Map;
 
@@ -164,7 +165,11 @@ public abstract class AbstractDownstreamMessage {
         if(this.messageId == null){
             messageId = MessageUtils.getUniqueMessageId();
         }
-	    String json;
+        // The in-built message types have writers of their own; no need for the bean serialization
+        String json = DownstreamMessageJsonWriter.toJson(this);
+        if(json != null){
+            return json;
+        }
         try {
             json = objectMapper.writeValueAsString(this);
         } catch (JsonProcessingException e) {
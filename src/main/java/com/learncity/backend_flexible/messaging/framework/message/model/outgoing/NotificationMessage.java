@@ -3,8 +3,8 @@ package com.learncity.backend_flexible.messaging.framework.message.model.outgoin
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.learncity.backend_flexible.messaging.framework.message.util.MessageUtils;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -34,12 +34,44 @@ public class NotificationMessage extends DataMessage {
     protected NotificationMessage(Builder b){
         super(b);
         // Now get the Payload from the Payload POJO in an Attribute Map
-        this.notificationPayload = MessageUtils.toAttributeMap(b.notificationPayload);
+        this.notificationPayload = toAttributeMap(b.notificationPayload);
+    }
+
+    /**
+     * The properties of the payload, as its bean serialization has them - same order, the
+     * nulls in - read off the getters rather than converted through Jackson.
+     */
+    private static Map<String, Object> toAttributeMap(NotificationPayload payload) {
+        if(payload == null){
+            return null;
+        }
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("title", payload.getTitle());
+        map.put("body", payload.getBody());
+        map.put("icon", payload.getIcon());
+        map.put("sound", payload.getSound());
+        map.put("tag", payload.getTag());
+        map.put("color", payload.getColor());
+        map.put("click_action", payload.getClick_action());
+        map.put("body_loc_key", payload.getBody_loc_key());
+        map.put("body_loc_args", payload.getBody_loc_args());
+        map.put("title_loc_key", payload.getTitle_loc_key());
+        map.put("title_loc_args", payload.getTitle_loc_args());
+        Map<String, Object> extras = payload.getNotificationExtras();
+        map.put("notificationExtras", extras == null ? null : new LinkedHashMap<String, Object>(extras));
+        return map;
     }
 
     protected NotificationMessage(){
     }
 
+    /**
+     * Read-only; for the serializers. The payload is still not meant to be set directly.
+     */
+    public Map<String, Object> getNotificationPayload() {
+        return notificationPayload;
+    }
+
     // Using Builder----------------------------------------------------------------------------------------------------
 
     public static class Builder<B extends Builder<B>> extends DataMessage.Builder{
@@ -56,7 +88,7 @@ public class NotificationMessage extends DataMessage {
         }
 
         public B setNotificationPayload(NotificationPayload notificationPayload){
-            this.notificationPayload = this.notificationPayload;
+            this.notificationPayload = notificationPayload;
             return (B)getThis();
         }
 
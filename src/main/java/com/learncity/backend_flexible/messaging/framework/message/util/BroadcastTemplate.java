@@ -0,0 +1,103 @@
+package com.learncity.backend_flexible.messaging.framework.message.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.AbstractDownstreamMessage;
+import com.learncity.backend_flexible.messaging.framework.message.util.json.JsonStrings;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A downstream message serialized once, for sending to any number of recipients.
+ *
+ * The JSON of the message is split around its "to" and "message_id" values; rendering it
+ * for a recipient is just copying the invariant parts with the recipient's token and a
+ * message ID in between - no bean serialization, no UUID generation. The message it is
+ * made from is only read, never changed, so it is safe to share.
+ */
+public final class BroadcastTemplate {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final String TO = "to";
+    private static final String MESSAGE_ID = "message_id";
+    // For a broadcast, the recipients are the target
+    private static final String CONDITION = "condition";
+
+    // The JSON is cut at these; they cannot clash with anything in the payload
+    private static final String PLACEHOLDER = "\"" + UUID.randomUUID() + "\"";
+
+    private final char[] head;
+    private final char[] middle;
+    private final char[] tail;
+    private final String messageIdPrefix;
+
+    private BroadcastTemplate(char[] head, char[] middle, char[] tail, String messageIdPrefix) {
+        this.head = head;
+        this.middle = middle;
+        this.tail = tail;
+        this.messageIdPrefix = messageIdPrefix;
+    }
+
+    /**
+     * Serializes the message, leaving out its "to", "condition" and "message_id" - they are
+     * filled in per recipient.
+     */
+    public static BroadcastTemplate of(AbstractDownstreamMessage message) {
+        // Read off with the message's own annotations; the message is not touched
+        JsonNode source = objectMapper.valueToTree(message);
+        String placeholderValue = PLACEHOLDER.substring(1, PLACEHOLDER.length() - 1);
+
+        ObjectNode template = objectMapper.createObjectNode();
+        template.put(TO, placeholderValue);
+        template.put(MESSAGE_ID, placeholderValue);
+        Iterator<Map.Entry<String, JsonNode>> fields = source.fields();
+        while(fields.hasNext()){
+            Map.Entry<String, JsonNode> field = fields.next();
+            String name = field.getKey();
+            if(!TO.equals(name) && !MESSAGE_ID.equals(name) && !CONDITION.equals(name)){
+                template.set(name, field.getValue());
+            }
+        }
+
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(template);
+        } catch (JsonProcessingException e) {
+            e.printStackTrace();
+            throw new RuntimeException("There was a problem processing Json.");
+        }
+
+        int toAt = json.indexOf(PLACEHOLDER);
+        int messageIdAt = json.indexOf(PLACEHOLDER, toAt + PLACEHOLDER.length());
+        return new BroadcastTemplate(
+                json.substring(0, toAt).toCharArray(),
+                json.substring(toAt + PLACEHOLDER.length(), messageIdAt).toCharArray(),
+                json.substring(messageIdAt + PLACEHOLDER.length()).toCharArray(),
+                MessageUtils.getUniqueMessageId() + "-");
+    }
+
+    /**
+     * @return ID of the message to the recipient at the index; unique across broadcasts
+     */
+    public String messageId(int recipientIndex) {
+        return messageIdPrefix + Integer.toString(recipientIndex, Character.MAX_RADIX);
+    }
+
+    /**
+     * @return The JSON of the message to the recipient
+     */
+    public String render(String to, String messageId) {
+        StringBuilder json = new StringBuilder(head.length + middle.length + tail.length + to.length() + messageId.length() + 4);
+        json.append(head);
+        JsonStrings.appendQuoted(json, to);
+        json.append(middle);
+        JsonStrings.appendQuoted(json, messageId);
+        json.append(tail);
+        return json.toString();
+    }
+}
@@ -13,6 +13,7 @@ import com.fasterxml.uuid.impl.TimeBasedGenerator;
 import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.AbstractDownstreamMessage;
 import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.DataMessage;
 import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.NotificationMessage;
+import com.learncity.backend_flexible.messaging.framework.message.util.json.DownstreamMessageJsonWriter;
 
 /**
  * Includes common message utils like:
@@ -71,14 +72,7 @@ public class MessageUtils {
 	}
 
 	public static String createJsonMessage(Map<String, Object> jsonMap) {
-	    String json;
-        try {
-            json = objectMapper.writeValueAsString(jsonMap);
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
-            throw new RuntimeException("There was a problem processing Json.");
-        }
-		return json;
+        return DownstreamMessageJsonWriter.toJson(jsonMap);
 	}
 
 	/**
@@ -0,0 +1,264 @@
+package com.learncity.backend_flexible.messaging.framework.message.util.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.AbstractDownstreamMessage;
+import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.DataMessage;
+import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.NotificationMessage;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+
+/**
+ * Hand-written JSON writers for {@link DataMessage} and {@link NotificationMessage}(and, the
+ * plain maps sent as messages) - the hot path of sending.
+ *
+ * They write straight to a {@link JsonGenerator}, with no bean introspection, into a
+ * per-thread buffer that is reused from one message to the next. The output is exactly
+ * what Jackson's bean serialization makes of these classes - same properties, same order,
+ * same inclusion rules - so the two can be used interchangeably.
+ *
+ * The buffer is of chars, not bytes: what goes out is a String - the stanza is built of
+ * it(and, the outbox and the logs take it as one) - so bytes would only be decoded back.
+ *
+ * Any other subclass of {@link AbstractDownstreamMessage} may have properties of its own;
+ * {@link #toJson(AbstractDownstreamMessage)} returns null for it, for the caller to fall
+ * back to Jackson.
+ */
+public final class DownstreamMessageJsonWriter {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final JsonFactory jsonFactory = objectMapper.getFactory();
+
+    // Buffers grown past this are not kept for the next message
+    private static final int MAX_RETAINED_BUFFER_CHARS = 64 * 1024;
+
+    private static final ThreadLocal<ReusableCharBuffer> buffers = new ThreadLocal<ReusableCharBuffer>() {
+        @Override
+        protected ReusableCharBuffer initialValue() {
+            return new ReusableCharBuffer();
+        }
+    };
+
+    private DownstreamMessageJsonWriter() {
+    }
+
+    /**
+     * @return The JSON of the message or, null if it is not of a class written here
+     */
+    public static String toJson(AbstractDownstreamMessage message) {
+        Class<?> messageClass = message.getClass();
+        if(messageClass != DataMessage.class && messageClass != NotificationMessage.class){
+            return null;
+        }
+        ReusableCharBuffer buffer = buffers.get();
+        buffer.reset();
+        try {
+            JsonGenerator generator = jsonFactory.createGenerator(buffer);
+            writeMessage(generator, (DataMessage) message);
+            generator.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("There was a problem processing Json.");
+        }
+        return buffer.toStringAndRelease();
+    }
+
+    /**
+     * @return The JSON of the map; the same as Jackson makes of it(the null values written too)
+     */
+    public static String toJson(Map<String, ?> map) {
+        ReusableCharBuffer buffer = buffers.get();
+        buffer.reset();
+        try {
+            JsonGenerator generator = jsonFactory.createGenerator(buffer);
+            writeMap(generator, map);
+            generator.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new RuntimeException("There was a problem processing Json.");
+        }
+        return buffer.toStringAndRelease();
+    }
+
+    /**
+     * Writes the message as a value of the generator(a property of an enclosing object,
+     * for ex.); a message not of a class written here goes through Jackson.
+     */
+    public static void write(JsonGenerator generator, AbstractDownstreamMessage message) throws IOException {
+        Class<?> messageClass = message.getClass();
+        if(messageClass != DataMessage.class && messageClass != NotificationMessage.class){
+            objectMapper.writeValue(generator, message);
+            return;
+        }
+        writeMessage(generator, (DataMessage) message);
+    }
+
+    private static void writeMessage(JsonGenerator generator, DataMessage message) throws IOException {
+        generator.writeStartObject();
+
+        // Order and inclusion as per the bean serialization: the fields top down the
+        // hierarchy, the nulls left out and "to" left out when empty as well
+        String to = message.getTo();
+        if(to != null && !to.isEmpty()){
+            generator.writeStringField("to", to);
+        }
+        writeStringField(generator, "condition", message.getCondition());
+        writeStringField(generator, "message_id", message.getMessageId());
+        writeStringField(generator, "collapse_key", message.getCollapseKey());
+        writeStringField(generator, "priority", message.getPriority());
+        writeBooleanField(generator, "content_available", message.isContentAvailable());
+        if(message.getTimeToLive() != null){
+            generator.writeNumberField("time_to_live", message.getTimeToLive());
+        }
+        writeBooleanField(generator, "delivery_receipt_requested", message.isDeliveryReceiptRequested());
+        writeBooleanField(generator, "dry_run", message.isDryRun());
+
+        Map<String, String> dataPayload = message.getDataPayload();
+        if(dataPayload != null){
+            generator.writeFieldName("data");
+            generator.writeStartObject();
+            for(Map.Entry<String, String> entry : dataPayload.entrySet()){
+                generator.writeFieldName(entry.getKey());
+                if(entry.getValue() == null){
+                    generator.writeNull();
+                }
+                else{
+                    generator.writeString(entry.getValue());
+                }
+            }
+            generator.writeEndObject();
+        }
+
+        if(message instanceof NotificationMessage){
+            Map<String, Object> notificationPayload = ((NotificationMessage) message).getNotificationPayload();
+            if(notificationPayload != null){
+                generator.writeFieldName("notification");
+                // The values of the map are written null or not
+                writeMap(generator, notificationPayload);
+            }
+        }
+
+        generator.writeEndObject();
+    }
+
+    private static void writeMap(JsonGenerator generator, Map<String, ?> map) throws IOException {
+        generator.writeStartObject();
+        for(Map.Entry<String, ?> entry : map.entrySet()){
+            generator.writeFieldName(entry.getKey());
+            writeValue(generator, entry.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if(value == null){
+            generator.writeNull();
+        }
+        else if(value instanceof String){
+            generator.writeString((String) value);
+        }
+        else if(value instanceof Boolean){
+            generator.writeBoolean((Boolean) value);
+        }
+        else if(value instanceof Integer || value instanceof Short || value instanceof Byte){
+            generator.writeNumber(((Number) value).intValue());
+        }
+        else if(value instanceof Long){
+            generator.writeNumber((Long) value);
+        }
+        else if(value instanceof Double){
+            generator.writeNumber((Double) value);
+        }
+        else if(value instanceof Float){
+            generator.writeNumber((Float) value);
+        }
+        else if(value instanceof BigInteger){
+            generator.writeNumber((BigInteger) value);
+        }
+        else if(value instanceof BigDecimal){
+            generator.writeNumber((BigDecimal) value);
+        }
+        else{
+            // Nested maps, lists and whatever else the extras may hold
+            objectMapper.writeValue(generator, value);
+        }
+    }
+
+    private static void writeStringField(JsonGenerator generator, String name, String value) throws IOException {
+        if(value != null){
+            generator.writeStringField(name, value);
+        }
+    }
+
+    private static void writeBooleanField(JsonGenerator generator, String name, Boolean value) throws IOException {
+        if(value != null){
+            generator.writeBooleanField(name, value);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A growable char buffer that is written to over and over again; unlike a StringWriter,
+     * it doesn't start from scratch for every message.
+     */
+    private static final class ReusableCharBuffer extends Writer {
+
+        private char[] chars = new char[1024];
+        private int length;
+
+        private void reset() {
+            length = 0;
+        }
+
+        private String toStringAndRelease() {
+            String string = new String(chars, 0, length);
+            if(chars.length > MAX_RETAINED_BUFFER_CHARS){
+                chars = new char[1024];
+            }
+            length = 0;
+            return string;
+        }
+
+        private void ensureCapacity(int extra) {
+            if(length + extra > chars.length){
+                char[] grown = new char[Math.max(chars.length << 1, length + extra)];
+                System.arraycopy(chars, 0, grown, 0, length);
+                chars = grown;
+            }
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int count) {
+            ensureCapacity(count);
+            System.arraycopy(buffer, offset, chars, length, count);
+            length += count;
+        }
+
+        @Override
+        public void write(int c) {
+            ensureCapacity(1);
+            chars[length++] = (char) c;
+        }
+
+        @Override
+        public void write(String string, int offset, int count) {
+            ensureCapacity(count);
+            string.getChars(offset, offset + count, chars, length);
+            length += count;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.learncity.backend_flexible.messaging.framework.message.util.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.InboundMessage;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decodes the JSON of a message from CCS in a single pass.
+ *
+ * The JSON is tokenized once; the tokens are buffered while the top level "message_type" is
+ * looked for(it can be anywhere in the object), and then the buffered tokens are bound to the
+ * class for the type. No Map of the message is built and the text is not parsed again.
+ */
+public final class InboundMessageDecoder {
+
+    private static final Logger logger = Logger.getLogger(InboundMessageDecoder.class.getSimpleName());
+
+    private static final String MESSAGE_TYPE = "message_type";
+    private static final String MESSAGE_ID = "message_id";
+    private static final String FROM = "from";
+    private static final String ERROR = "error";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final JsonFactory jsonFactory = objectMapper.getFactory();
+
+    private InboundMessageDecoder() {
+    }
+
+    /**
+     * @throws IOException If it is not a well-formed JSON object. A well-formed object that
+     * doesn't fit the class for its type is decoded with a null message instead - its ID,
+     * sender and error are there regardless.
+     */
+    public static InboundMessage decode(String json) throws IOException {
+        JsonParser parser = jsonFactory.createParser(json);
+        try {
+            if(parser.nextToken() != JsonToken.START_OBJECT){
+                throw new JsonParseException(parser, "Expected a JSON object.");
+            }
+
+            TokenBuffer tokens = new TokenBuffer(parser);
+            String messageType = null;
+            String messageId = null;
+            String from = null;
+            String error = null;
+            tokens.writeStartObject();
+            while(parser.nextToken() == JsonToken.FIELD_NAME){
+                String name = parser.getCurrentName();
+                tokens.writeFieldName(name);
+                JsonToken value = parser.nextToken();
+                if(value == JsonToken.VALUE_STRING){
+                    switch(name){
+                        case MESSAGE_TYPE:
+                            messageType = parser.getText();
+                            break;
+                        case MESSAGE_ID:
+                            messageId = parser.getText();
+                            break;
+                        case FROM:
+                            from = parser.getText();
+                            break;
+                        case ERROR:
+                            error = parser.getText();
+                            break;
+                    }
+                }
+                // The nested objects(data, for ex.) are copied along, as they are
+                tokens.copyCurrentStructure(parser);
+            }
+            tokens.writeEndObject();
+
+            InboundMessage.Type type = InboundMessage.Type.of(messageType);
+            Class<?> messageClass = InboundMessage.messageClassOf(type);
+            Object message = null;
+            if(messageClass != null){
+                try {
+                    message = objectMapper.readValue(tokens.asParser(), messageClass);
+                } catch (JsonProcessingException e) {
+                    logger.log(Level.WARNING, "Could not bind a " + type + " message: " + json, e);
+                }
+            }
+            return new InboundMessage(messageType, messageId, from, error, message, json);
+        } finally {
+            parser.close();
+        }
+    }
+}
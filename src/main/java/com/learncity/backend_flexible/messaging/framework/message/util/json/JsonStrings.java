@@ -0,0 +1,45 @@
+package com.learncity.backend_flexible.messaging.framework.message.util.json;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * For the JSON put together out of pre-rendered pieces(the ACKs, the broadcasts) - the
+ * strings spliced in between are escaped here.
+ */
+public final class JsonStrings {
+
+    private JsonStrings() {
+    }
+
+    /**
+     * Appends the string in quotes, escaped as need be
+     */
+    public static void appendQuoted(StringBuilder json, String value) {
+        json.append('"');
+        appendEscaped(json, value);
+        json.append('"');
+    }
+
+    /**
+     * Appends the string escaped as need be - as it goes between the quotes of a JSON string
+     */
+    public static void appendEscaped(StringBuilder json, String value) {
+        if(needsEscaping(value)){
+            json.append(JsonStringEncoder.getInstance().quoteAsString(value));
+        }
+        else{
+            // Registration tokens and message IDs always take this path
+            json.append(value);
+        }
+    }
+
+    private static boolean needsEscaping(String value) {
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if(c < 0x20 || c == '"' || c == '\\'){
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,5 +1,6 @@
 package com.learncity.backend_flexible.messaging.framework.message.util.source_viewers.impl;
 
+import com.learncity.backend_flexible.messaging.framework.client.connection.CcsConnection;
 import com.learncity.backend_flexible.messaging.framework.message.util.MessageUtils;
 import com.learncity.backend_flexible.messaging.framework.message.util.source_viewers.SourceViewer;
 import com.learncity.backend_flexible.messaging.framework.util.smackx.fcm.packet.FcmPacketExtension;
@@ -17,6 +18,8 @@ public class FcmMessageSourceViewer implements SourceViewer<Message> {
     private String sourceAsString;
     private Map<String, Object> sourceAsMap;
     private Message messageReceived;
+    // The connection the message came in on
+    private CcsConnection connection;
 
     private final Object lock = new Object();
 
@@ -25,6 +28,19 @@ public class FcmMessageSourceViewer implements SourceViewer<Message> {
         resetSources();
     }
 
+    public FcmMessageSourceViewer(Message messageReceived, CcsConnection connection) {
+        this(messageReceived);
+        this.connection = connection;
+    }
+
+    /**
+     * @param sourceAsString The JSON of the message, when the caller has it at hand already
+     */
+    public FcmMessageSourceViewer(Message messageReceived, CcsConnection connection, String sourceAsString) {
+        this(messageReceived, connection);
+        this.sourceAsString = sourceAsString;
+    }
+
     @Override
     public void setSource(Message messageReceived) {
         this.messageReceived = messageReceived;
@@ -36,6 +52,13 @@ public class FcmMessageSourceViewer implements SourceViewer<Message> {
         return messageReceived;
     }
 
+    /**
+     * @return The connection the message came in on or, null if not known
+     */
+    public CcsConnection getConnection() {
+        return connection;
+    }
+
     public String getSourceAsJSONString() {
         //Lazy get
         synchronized (lock){
@@ -0,0 +1,34 @@
+package com.learncity.backend_flexible.messaging.framework.util.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dumps a wire capture file as NDJSON to the standard output:
+ *
+ * <pre>
+ * java -cp ... com.learncity.backend_flexible.messaging.framework.util.capture.WireCaptureDump &lt;file&gt; [seconds]
+ * </pre>
+ *
+ * With the seconds, only the messages of the last so many seconds are dumped. It can be
+ * run on the file of a live process as well.
+ */
+public class WireCaptureDump {
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1 || args.length > 2){
+            System.err.println("Usage: WireCaptureDump <file> [seconds]");
+            System.exit(1);
+        }
+        long sinceMillis = 0;
+        if(args.length == 2){
+            sinceMillis = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(Long.parseLong(args[1]));
+        }
+        Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        WireCaptureRing.writeAsNdjson(WireCaptureRing.read(new File(args[0]), sinceMillis), out);
+    }
+}
@@ -0,0 +1,409 @@
+package com.learncity.backend_flexible.messaging.framework.util.capture;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size, memory-mapped ring file of the raw JSON going in and out over the
+ * connections to CCS - for looking into what was on the wire after the fact, without
+ * logging every message.
+ *
+ * The file is a header followed by fixed-size slots, one message a slot, the oldest
+ * overwritten first:
+ *
+ * <pre>
+ * header: [magic:4][version:4][slot size:4][slot count:4] ...padded to 64 bytes
+ * slot:   [sequence:8][timestamp millis:8][connection ID:4][direction:1][-:3]
+ *         [length:4][stored length:4][UTF-8 payload][sequence:8]
+ * </pre>
+ *
+ * A writer claims a slot with an atomic increment and writes straight into the mapping,
+ * encoding the JSON as it goes - no lock and nothing allocated for a message. A payload
+ * longer than the slot is cut short; its full length is kept. A slot is valid if the
+ * sequence at its end is the one at its start, i.e., it was written through.
+ *
+ * The file outlives the process; what was in it is picked up again on the next start,
+ * so it can be read off after a crash, with {@link WireCaptureDump} for ex.
+ */
+public class WireCaptureRing implements Closeable {
+
+    public static final byte INBOUND = 0;
+    public static final byte OUTBOUND = 1;
+
+    public static final int DEFAULT_FILE_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_SLOT_SIZE = 4 * 1024;
+
+    private static final int MAGIC = 0x57495245;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    // Offsets within a slot
+    private static final int SEQUENCE = 0;
+    private static final int TIMESTAMP = 8;
+    private static final int CONNECTION_ID = 16;
+    private static final int DIRECTION = 20;
+    private static final int LENGTH = 24;
+    private static final int STORED_LENGTH = 28;
+    private static final int PAYLOAD = 32;
+    // Plus the sequence at the end
+    private static final int SLOT_OVERHEAD = PAYLOAD + 8;
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private final int slotSize;
+    private final int slotCount;
+    private final AtomicLong sequence;
+
+    /**
+     * Opens the ring file, creating it if need be. A file of the same geometry is taken
+     * over as it is; any other is cleared.
+     */
+    public WireCaptureRing(File file, int fileSize, int slotSize) throws IOException {
+        if(slotSize <= SLOT_OVERHEAD){
+            throw new IllegalArgumentException("Slot size has to be more than " + SLOT_OVERHEAD + " bytes.");
+        }
+        int slotCount = (fileSize - HEADER_SIZE) / slotSize;
+        if(slotCount < 1){
+            throw new IllegalArgumentException("File size: " + fileSize + " cannot hold a slot of " + slotSize + " bytes.");
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        if(directory != null && !directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Could not create directory: " + directory);
+        }
+
+        this.file = file;
+        this.slotSize = slotSize;
+        this.slotCount = slotCount;
+        long size = HEADER_SIZE + (long) slotCount * slotSize;
+
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        boolean reused = randomAccessFile.length() == size
+                && randomAccessFile.readInt() == MAGIC
+                && randomAccessFile.readInt() == VERSION
+                && randomAccessFile.readInt() == slotSize
+                && randomAccessFile.readInt() == slotCount;
+        if(!reused){
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(size);
+        }
+        buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, slotSize);
+        buffer.putInt(12, slotCount);
+
+        // Carries on from the last message captured before
+        long lastSequence = 0;
+        if(reused){
+            for(int slot = 0; slot < slotCount; slot++){
+                lastSequence = Math.max(lastSequence, validSequence(buffer, HEADER_SIZE + slot * slotSize, slotSize));
+            }
+        }
+        sequence = new AtomicLong(lastSequence);
+    }
+
+    /**
+     * Captures the JSON. Lock-free; allocates nothing.
+     *
+     * @param direction {@link #INBOUND} or {@link #OUTBOUND}
+     */
+    public void record(int connectionId, byte direction, String json) {
+        long slotSequence = sequence.incrementAndGet();
+        int base = HEADER_SIZE + (int) (slotSequence % slotCount) * slotSize;
+
+        // Absolute puts only; the buffer's position is never touched, so writers don't clash
+        buffer.putLong(base + SEQUENCE, slotSequence);
+        buffer.putLong(base + TIMESTAMP, System.currentTimeMillis());
+        buffer.putInt(base + CONNECTION_ID, connectionId);
+        buffer.put(base + DIRECTION, direction);
+        buffer.putInt(base + LENGTH, encode(json, base));
+        // Written last; the slot is valid once it matches the one at the start
+        buffer.putLong(base + slotSize - 8, slotSequence);
+    }
+
+    /**
+     * Encodes the JSON as UTF-8 into the payload of the slot, as much as fits, whole
+     * characters only.
+     *
+     * @return The length of the whole of it
+     */
+    private int encode(String json, int base) {
+        int at = base + PAYLOAD;
+        int end = base + slotSize - 8;
+        int length = 0;
+        for(int i = 0; i < json.length(); i++){
+            int c = json.charAt(i);
+            int bytes;
+            if(c < 0x80){
+                bytes = 1;
+            }
+            else if(c < 0x800){
+                bytes = 2;
+            }
+            else if(Character.isHighSurrogate((char) c) && i + 1 < json.length() && Character.isLowSurrogate(json.charAt(i + 1))){
+                c = Character.toCodePoint((char) c, json.charAt(++i));
+                bytes = 4;
+            }
+            else{
+                // Unpaired surrogates go as they are
+                bytes = 3;
+            }
+            length += bytes;
+            if(at + bytes > end){
+                // Cut short; only the length is counted from here on
+                end = at;
+                continue;
+            }
+            switch(bytes){
+                case 1:
+                    buffer.put(at++, (byte) c);
+                    break;
+                case 2:
+                    buffer.put(at++, (byte) (0xC0 | (c >> 6)));
+                    buffer.put(at++, (byte) (0x80 | (c & 0x3F)));
+                    break;
+                case 3:
+                    buffer.put(at++, (byte) (0xE0 | (c >> 12)));
+                    buffer.put(at++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buffer.put(at++, (byte) (0x80 | (c & 0x3F)));
+                    break;
+                default:
+                    buffer.put(at++, (byte) (0xF0 | (c >> 18)));
+                    buffer.put(at++, (byte) (0x80 | ((c >> 12) & 0x3F)));
+                    buffer.put(at++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buffer.put(at++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        buffer.putInt(base + STORED_LENGTH, at - base - PAYLOAD);
+        return length;
+    }
+
+    /**
+     * @return The messages captured since the time, oldest first
+     */
+    public List<Record> read(long sinceMillis) {
+        return readRecords(buffer.duplicate(), slotSize, slotCount, sinceMillis);
+    }
+
+    /**
+     * Reads the messages captured since the time off a ring file, for ex., one left behind
+     * by a process that is gone.
+     */
+    public static List<Record> read(File file, long sinceMillis) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION){
+                throw new IOException("Not a wire capture file: " + file);
+            }
+            int slotSize = buffer.getInt(8);
+            int slotCount = buffer.getInt(12);
+            if(buffer.capacity() < HEADER_SIZE + (long) slotSize * slotCount){
+                throw new IOException("Wire capture file: " + file + " is cut short.");
+            }
+            return readRecords(buffer, slotSize, slotCount, sinceMillis);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static List<Record> readRecords(ByteBuffer buffer, int slotSize, int slotCount, long sinceMillis) {
+        List<Record> records = new ArrayList<Record>();
+        for(int slot = 0; slot < slotCount; slot++){
+            Record record = readRecord(buffer, HEADER_SIZE + slot * slotSize, slotSize, sinceMillis);
+            if(record != null){
+                records.add(record);
+            }
+        }
+        Collections.sort(records, new Comparator<Record>() {
+            @Override
+            public int compare(Record o1, Record o2) {
+                return Long.compare(o1.sequence, o2.sequence);
+            }
+        });
+        return records;
+    }
+
+    /**
+     * @return The message in the slot or, null if there is none(or, it is older than the time)
+     */
+    private static Record readRecord(ByteBuffer buffer, int base, int slotSize, long sinceMillis) {
+        long slotSequence = validSequence(buffer, base, slotSize);
+        if(slotSequence == 0){
+            return null;
+        }
+        long timestamp = buffer.getLong(base + TIMESTAMP);
+        if(timestamp < sinceMillis){
+            return null;
+        }
+        int storedLength = Math.min(buffer.getInt(base + STORED_LENGTH), slotSize - SLOT_OVERHEAD);
+        byte[] payload = new byte[Math.max(storedLength, 0)];
+        for(int i = 0; i < payload.length; i++){
+            payload[i] = buffer.get(base + PAYLOAD + i);
+        }
+        Record record = new Record(slotSequence, timestamp, buffer.getInt(base + CONNECTION_ID), buffer.get(base + DIRECTION),
+                buffer.getInt(base + LENGTH), payload.length, new String(payload, StandardCharsets.UTF_8));
+        // Read again; a writer may have lapped the slot in the meantime
+        return validSequence(buffer, base, slotSize) == slotSequence ? record : null;
+    }
+
+    /**
+     * @return Sequence of the slot if it was written through or, 0
+     */
+    private static long validSequence(ByteBuffer buffer, int base, int slotSize) {
+        long slotSequence = buffer.getLong(base + SEQUENCE);
+        return slotSequence > 0 && buffer.getLong(base + slotSize - 8) == slotSequence ? slotSequence : 0;
+    }
+
+    /**
+     * Writes the records out as a line of JSON(NDJSON) each:
+     *
+     * <pre>
+     * {"sequence":1,"time":"...","connection":1,"direction":"out","length":120,"truncated":false,"payload":"..."}
+     * </pre>
+     */
+    public static void writeAsNdjson(List<Record> records, Writer out) throws IOException {
+        for(Record record : records){
+            writeAsNdjson(record, out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the messages captured since the time out as NDJSON, like {@link #writeAsNdjson(List, Writer)},
+     * but a slot at a time, oldest first - the messages are not all held in memory at once.
+     *
+     * @return Number of messages written
+     */
+    public int writeAsNdjson(long sinceMillis, Writer out) throws IOException {
+        ByteBuffer view = buffer.duplicate();
+        long last = sequence.get();
+        int written = 0;
+        // From the oldest one still in the ring; a slot lapped meanwhile holds another sequence, and is skipped
+        for(long slotSequence = Math.max(1, last - slotCount + 1); slotSequence <= last; slotSequence++){
+            Record record = readRecord(view, HEADER_SIZE + (int) (slotSequence % slotCount) * slotSize, slotSize, sinceMillis);
+            if(record != null && record.sequence == slotSequence){
+                writeAsNdjson(record, out);
+                written++;
+            }
+        }
+        out.flush();
+        return written;
+    }
+
+    private static void writeAsNdjson(Record record, Writer out) throws IOException {
+        JsonGenerator generator = jsonFactory.createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartObject();
+        generator.writeNumberField("sequence", record.sequence);
+        generator.writeStringField("time", Instant.ofEpochMilli(record.timestamp).toString());
+        generator.writeNumberField("connection", record.connectionId);
+        generator.writeStringField("direction", record.direction == INBOUND ? "in" : "out");
+        generator.writeNumberField("length", record.length);
+        generator.writeBooleanField("truncated", record.isTruncated());
+        generator.writeStringField("payload", record.payload);
+        generator.writeEndObject();
+        generator.close();
+        out.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        randomAccessFile.close();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * @return Number of messages captured, including the ones overwritten since
+     */
+    public long getRecordedCount() {
+        return sequence.get();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A message as captured.
+     */
+    public static final class Record {
+
+        private final long sequence;
+        private final long timestamp;
+        private final int connectionId;
+        private final byte direction;
+        private final int length;
+        private final int storedLength;
+        private final String payload;
+
+        private Record(long sequence, long timestamp, int connectionId, byte direction, int length, int storedLength, String payload) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.connectionId = connectionId;
+            this.direction = direction;
+            this.length = length;
+            this.storedLength = storedLength;
+            this.payload = payload;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public int getConnectionId() {
+            return connectionId;
+        }
+
+        public byte getDirection() {
+            return direction;
+        }
+
+        /**
+         * @return Length of the whole payload, in UTF-8 bytes
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return The payload, as much of it as was kept
+         */
+        public String getPayload() {
+            return payload;
+        }
+
+        public boolean isTruncated() {
+            return storedLength < length;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.learncity.backend_flexible.messaging.framework.util.correlation;
+
+import com.learncity.backend_flexible.messaging.framework.util.timer.HashedTimingWheel;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Pending results keyed by message ID - for matching the responses that come in from CCS
+ * (ACKs/NACKs, for ex.) with whoever is waiting on them.
+ *
+ * Any number of results can be pending at a time; the table is a {@link ConcurrentHashMap}, so
+ * the threads registering and the ones completing contend only when they hash to the same bin.
+ * A result not completed within the expiry timeout is completed exceptionally with a
+ * {@link TimeoutException} and let go of, so the table never holds on to the abandoned ones.
+ *
+ * The results are completed on a completion executor of their own, never on the thread
+ * that completes them here - the dependent stages run where the future is completed, and
+ * a slow one(writing a result back to a slow HTTP client, for ex.) must not hold up the
+ * thread reading the responses off the connection(or, the expiry timer).
+ */
+public class CorrelationRegistry<T> {
+
+    public static final long DEFAULT_EXPIRY_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private static final long TICK_MILLIS = 100;
+    private static final int TICKS_PER_WHEEL = 1024;
+    private static final int DEFAULT_COMPLETION_THREADS = 2;
+
+    private final long expiryMillis;
+    private final ConcurrentHashMap<String, Pending<T>> pendingResults;
+    private final HashedTimingWheel timer;
+    private final Executor completionExecutor;
+    // Only the one created here is shut down with the registry
+    private final ExecutorService ownCompletionExecutor;
+
+    /**
+     * @param completionExecutor Executor the results are completed on
+     */
+    public CorrelationRegistry(String name, long expiryMillis, Executor completionExecutor) {
+        this(name, expiryMillis, completionExecutor, null);
+    }
+
+    public CorrelationRegistry(String name, long expiryMillis) {
+        this(name, expiryMillis, null, newCompletionExecutor(name));
+    }
+
+    private CorrelationRegistry(String name, long expiryMillis, Executor completionExecutor, ExecutorService ownCompletionExecutor) {
+        if(expiryMillis <= 0){
+            throw new IllegalArgumentException("Expiry must be positive.");
+        }
+        if(completionExecutor == null && ownCompletionExecutor == null){
+            throw new IllegalArgumentException("Completion executor cannot be null.");
+        }
+        this.expiryMillis = expiryMillis;
+        // Sized for tens of thousands outstanding without resizing under load
+        this.pendingResults = new ConcurrentHashMap<String, Pending<T>>(1 << 16, 0.75f, Runtime.getRuntime().availableProcessors());
+        this.timer = new HashedTimingWheel(name + "-Expiry", TICK_MILLIS, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+        this.ownCompletionExecutor = ownCompletionExecutor;
+        this.completionExecutor = completionExecutor != null ? completionExecutor : ownCompletionExecutor;
+    }
+
+    private static ExecutorService newCompletionExecutor(final String name) {
+        return Executors.newFixedThreadPool(DEFAULT_COMPLETION_THREADS, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-Completion-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Registers a pending result for the message ID, expiring after the default expiry timeout.
+     *
+     * @throws DuplicateMessageIdException If there is one pending for the ID already
+     */
+    public CompletableFuture<T> register(String messageId) {
+        return register(messageId, expiryMillis);
+    }
+
+    /**
+     * Registers a pending result for the message ID, expiring after the given timeout.
+     *
+     * @throws DuplicateMessageIdException If there is one pending for the ID already
+     */
+    public CompletableFuture<T> register(final String messageId, long expiryMillis) {
+        if(messageId == null){
+            throw new IllegalArgumentException("Message ID cannot be null.");
+        }
+        final Pending<T> pending = new Pending<T>(this, messageId);
+        if(pendingResults.putIfAbsent(messageId, pending) != null){
+            throw new DuplicateMessageIdException(messageId);
+        }
+        pending.timeout = timer.newTimeout(pending, expiryMillis, TimeUnit.MILLISECONDS);
+        // However it is completed(or, cancelled by the waiting party), it is done with
+        pending.future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable throwable) {
+                if(pendingResults.remove(messageId, pending)){
+                    pending.timeout.cancel();
+                }
+            }
+        });
+        return pending.future;
+    }
+
+    /**
+     * Completes the result pending for the message ID, if any.
+     *
+     * @return false if there was none(never registered, completed or, expired already)
+     */
+    public boolean complete(String messageId, T result) {
+        if(messageId == null){
+            return false;
+        }
+        Pending<T> pending = pendingResults.get(messageId);
+        return pending != null && handOff(pending, result, null);
+    }
+
+    /**
+     * Completes the result pending for the message ID exceptionally, if any.
+     *
+     * @return false if there was none
+     */
+    public boolean completeExceptionally(String messageId, Throwable throwable) {
+        if(messageId == null){
+            return false;
+        }
+        Pending<T> pending = pendingResults.get(messageId);
+        return pending != null && handOff(pending, null, throwable);
+    }
+
+    /**
+     * Completes the pending result on the completion executor; the first to get here, of the
+     * response and the expiry, wins.
+     *
+     * @return false if it is being completed already
+     */
+    private boolean handOff(final Pending<T> pending, final T result, final Throwable throwable) {
+        if(pending.future.isDone() || !pending.completing.compareAndSet(false, true)){
+            return false;
+        }
+        Runnable completion = new Runnable() {
+            @Override
+            public void run() {
+                if(throwable != null){
+                    pending.future.completeExceptionally(throwable);
+                }
+                else{
+                    pending.future.complete(result);
+                }
+            }
+        };
+        try {
+            completionExecutor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            // Shut down; there is nothing left for it to hold up
+            completion.run();
+        }
+        return true;
+    }
+
+    /**
+     * Completes the result pending for the message ID with that of the other one, once it is
+     * completed(for ex., the message was replaced by the other one before it was sent).
+     *
+     * @return false if there is none pending for the other one
+     */
+    public boolean completeWith(final String messageId, String otherMessageId) {
+        if(messageId == null || otherMessageId == null){
+            return false;
+        }
+        Pending<T> other = pendingResults.get(otherMessageId);
+        if(other == null){
+            return false;
+        }
+        other.future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable throwable) {
+                if(throwable != null){
+                    completeExceptionally(messageId, throwable);
+                }
+                else{
+                    complete(messageId, result);
+                }
+            }
+        });
+        return true;
+    }
+
+    public boolean isPending(String messageId) {
+        return messageId != null && pendingResults.containsKey(messageId);
+    }
+
+    /**
+     * @return Number of results pending
+     */
+    public int size() {
+        return pendingResults.size();
+    }
+
+    public long getExpiryMillis() {
+        return expiryMillis;
+    }
+
+    public void shutdown() {
+        timer.stop();
+        if(ownCompletionExecutor != null){
+            ownCompletionExecutor.shutdown();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    private static class Pending<T> implements Runnable {
+
+        private final CorrelationRegistry<T> registry;
+        private final String messageId;
+        private final CompletableFuture<T> future = new CompletableFuture<T>();
+        private final AtomicBoolean completing = new AtomicBoolean();
+        private volatile HashedTimingWheel.Timeout timeout;
+
+        private Pending(CorrelationRegistry<T> registry, String messageId) {
+            this.registry = registry;
+            this.messageId = messageId;
+        }
+
+        @Override
+        public void run() {
+            // Expired
+            registry.handOff(this, null, new TimeoutException("No response for message: " + messageId));
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.learncity.backend_flexible.messaging.framework.util.correlation;
+
+/**
+ * A result is pending for the message ID already - the ID was reused while the message
+ * it was first used for is still waiting on its response.
+ */
+public class DuplicateMessageIdException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String messageId;
+
+    public DuplicateMessageIdException(String messageId) {
+        super("A result is pending for message: " + messageId + " already.");
+        this.messageId = messageId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+}
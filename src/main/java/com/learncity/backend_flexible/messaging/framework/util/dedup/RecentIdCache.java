@@ -0,0 +1,105 @@
+package com.learncity.backend_flexible.messaging.framework.util.dedup;
+
+import com.learncity.backend_flexible.messaging.framework.util.hash.FingerprintTable;
+import com.learncity.backend_flexible.messaging.framework.util.hash.Hashes;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the IDs seen lately, to tell a message delivered again from a new one.
+ *
+ * The IDs are kept as bare fingerprints in {@link FingerprintTable}s. There are two
+ * generations of them: the IDs go into the current one, and are looked up in both. The
+ * current one becomes the previous one(and the previous one is cleared for reuse) once it
+ * is older than the window or, half full. So, an ID is remembered for at least the window,
+ * unless more than the capacity of IDs come in within it; and no more than twice the
+ * capacity is ever held.
+ */
+public class RecentIdCache {
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+    public static final long DEFAULT_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    // A record is the fingerprint alone
+    private static final int RECORD_SIZE = 8;
+
+    private final int capacity;
+    private final long windowMillis;
+
+    private FingerprintTable current;
+    private FingerprintTable previous;
+    private int currentSize;
+    private long currentStartMillis;
+
+    /**
+     * @param capacity IDs a generation holds; rounded up to a power of two
+     * @param windowMillis How long an ID is to be remembered
+     */
+    public RecentIdCache(int capacity, long windowMillis) {
+        if(capacity <= 0){
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.capacity = capacity;
+        this.windowMillis = windowMillis;
+        // Kept at most half full
+        int slots = (int) FingerprintTable.slotsFor(capacity, 0.5);
+        this.current = new FingerprintTable(slots, RECORD_SIZE, false);
+        this.previous = new FingerprintTable(slots, RECORD_SIZE, false);
+        this.currentStartMillis = System.currentTimeMillis();
+    }
+
+    public RecentIdCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * Remembers the ID.
+     *
+     * @return true if it was seen already, i.e., it is a duplicate
+     */
+    public synchronized boolean markSeen(String id) {
+        long fingerprint = Hashes.fingerprint(id);
+        if(current.find(fingerprint) >= 0 || previous.find(fingerprint) >= 0){
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if(currentSize >= capacity || now - currentStartMillis >= windowMillis){
+            rotate(now);
+        }
+        current.insert(fingerprint);
+        currentSize++;
+        return false;
+    }
+
+    /**
+     * @return Whether the ID was seen lately; doesn't remember it
+     */
+    public synchronized boolean isSeen(String id) {
+        long fingerprint = Hashes.fingerprint(id);
+        return current.find(fingerprint) >= 0 || previous.find(fingerprint) >= 0;
+    }
+
+    private void rotate(long now) {
+        FingerprintTable cleared = previous;
+        cleared.clear();
+        previous = current;
+        current = cleared;
+        currentSize = 0;
+        currentStartMillis = now;
+    }
+
+    /**
+     * @return Number of IDs remembered
+     */
+    public synchronized int size() {
+        return currentSize + previous.count();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+}
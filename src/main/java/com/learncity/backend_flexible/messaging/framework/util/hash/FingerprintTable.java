@@ -0,0 +1,111 @@
+package com.learncity.backend_flexible.messaging.framework.util.hash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed-size open-addressing(linear probing) table of fixed-size records over a
+ * {@link ByteBuffer}, keyed by the {@link Hashes#fingerprint(String) fingerprint} in the
+ * first 8 bytes of each - no entry objects, no keys held on to. The rest of a record is
+ * the owner's to lay out, at the offset {@link #find(long)} and {@link #insert(long)} give.
+ *
+ * Nothing is ever removed; the owner keeps it well short of full and, {@link #clear()}s it
+ * to reuse it. Not thread-safe.
+ */
+public class FingerprintTable {
+
+    // Marks a free slot; a fingerprint never takes this value
+    public static final long EMPTY = 0L;
+
+    private final ByteBuffer buffer;
+    private final int recordSize;
+    private final int mask;
+
+    /**
+     * @param slots Number of records; a power of two
+     * @param recordSize Bytes a record takes, the fingerprint included; a multiple of 8
+     * @param offHeap Whether it is to be a direct buffer
+     */
+    public FingerprintTable(int slots, int recordSize, boolean offHeap) {
+        if(slots <= 0 || Integer.bitCount(slots) != 1){
+            throw new IllegalArgumentException("Slots must be a power of two.");
+        }
+        if(recordSize < 8 || recordSize % 8 != 0 || (long) slots * recordSize > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Record size: " + recordSize + " does not fit.");
+        }
+        this.recordSize = recordSize;
+        this.mask = slots - 1;
+        this.buffer = offHeap ? ByteBuffer.allocateDirect(slots * recordSize) : ByteBuffer.allocate(slots * recordSize);
+    }
+
+    /**
+     * @return Slots needed to hold so many keys at no more than the load factor; a power of two
+     */
+    public static long slotsFor(int keys, double loadFactor) {
+        long needed = Math.max(2L, (long) Math.ceil(keys / loadFactor));
+        return Long.highestOneBit(needed - 1) << 1;
+    }
+
+    /**
+     * @return Offset of the record or, -1 if there is none
+     */
+    public int find(long fingerprint) {
+        int slot = (int) fingerprint & mask;
+        while(true){
+            long entry = buffer.getLong(slot * recordSize);
+            if(entry == fingerprint){
+                return slot * recordSize;
+            }
+            if(entry == EMPTY){
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Takes a free slot for the fingerprint; it is not to be in the table already.
+     *
+     * @return Offset of the record, zeroed but for the fingerprint
+     */
+    public int insert(long fingerprint) {
+        int slot = (int) fingerprint & mask;
+        while(buffer.getLong(slot * recordSize) != EMPTY){
+            slot = (slot + 1) & mask;
+        }
+        buffer.putLong(slot * recordSize, fingerprint);
+        return slot * recordSize;
+    }
+
+    /**
+     * Empties it, for reuse; takes a while for a large one
+     */
+    public void clear() {
+        for(int i = 0; i < buffer.capacity(); i += 8){
+            buffer.putLong(i, 0L);
+        }
+    }
+
+    /**
+     * @return Number of records in use; counted, so takes a while for a large one
+     */
+    public int count() {
+        int count = 0;
+        for(int i = 0; i < buffer.capacity(); i += recordSize){
+            if(buffer.getLong(i) != EMPTY){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The records; absolute gets and puts only, at the offsets handed out
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getSlotCount() {
+        return mask + 1;
+    }
+}
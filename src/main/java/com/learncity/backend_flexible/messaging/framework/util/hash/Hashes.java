@@ -0,0 +1,52 @@
+package com.learncity.backend_flexible.messaging.framework.util.hash;
+
+/**
+ * The hashes of the message IDs and registration tokens the tables are keyed by.
+ */
+public final class Hashes {
+
+    private Hashes() {
+    }
+
+    /**
+     * The String hash, spread - the registration tokens share long prefixes, so it is the
+     * bits of their last characters that set them apart. For a stripe, lane or slot out of
+     * a power of two(the low bits) or, out of any number(mod).
+     */
+    public static int spread(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * 64 bit FNV-1a of the characters
+     */
+    public static long fnv1a64(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < key.length(); i++){
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * The FNV-1a, with all the bits mixed(the murmur3 finalizer) - the keys differ in their
+     * last characters mostly, which the FNV-1a carries into its low bits only. Any of the
+     * bits do for an index, then. Never {@link FingerprintTable#EMPTY}.
+     *
+     * Two different keys with the same fingerprint are taken as the same; at 64 bits, that
+     * is not a practical concern.
+     */
+    public static long fingerprint(String key) {
+        long hash = fnv1a64(key);
+        hash ^= (hash >>> 33);
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= (hash >>> 33);
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= (hash >>> 33);
+        return hash == FingerprintTable.EMPTY ? 1L : hash;
+    }
+}
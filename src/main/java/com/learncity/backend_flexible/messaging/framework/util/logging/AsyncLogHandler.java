@@ -0,0 +1,155 @@
+package com.learncity.backend_flexible.messaging.framework.util.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the log records to the handlers it wraps on a thread of its own, so that the
+ * threads logging don't wait on formatting or I/O.
+ *
+ * The records are queued up to a capacity; past it, the records below {@link Level#WARNING}
+ * are dropped(and counted) rather than block the logging thread, while the rest are
+ * published right away on it.
+ */
+public class AsyncLogHandler extends Handler {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    // Records published to the wrapped handlers in one go, at most
+    private static final int MAX_DRAIN_SIZE = 256;
+
+    private final Handler[] targets;
+    private final BlockingQueue<LogRecord> records;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread publisherThread;
+
+    private volatile boolean running = true;
+
+    public AsyncLogHandler(int capacity, Handler... targets) {
+        this.targets = targets;
+        this.records = new ArrayBlockingQueue<LogRecord>(capacity);
+        this.publisherThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                publishLoop();
+            }
+        }, AsyncLogHandler.class.getSimpleName());
+        publisherThread.setDaemon(true);
+        publisherThread.start();
+    }
+
+    /**
+     * Moves the handlers of the logger(the root logger, usually) behind an AsyncLogHandler.
+     * Does nothing if it has one already.
+     *
+     * @return The handler installed or, the one there already
+     */
+    public static synchronized AsyncLogHandler install(Logger logger, int capacity) {
+        Handler[] handlers = logger.getHandlers();
+        for(Handler handler : handlers){
+            if(handler instanceof AsyncLogHandler){
+                return (AsyncLogHandler) handler;
+            }
+        }
+        AsyncLogHandler asyncHandler = new AsyncLogHandler(capacity, handlers);
+        for(Handler handler : handlers){
+            logger.removeHandler(handler);
+        }
+        logger.addHandler(asyncHandler);
+        return asyncHandler;
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if(!running || !isLoggable(record)){
+            return;
+        }
+        // The caller is inferred off the stack of the logging thread, if it is to be at all;
+        // it can't be once the record is on the publisher thread
+        record.getSourceClassName();
+
+        if(!records.offer(record)){
+            if(record.getLevel().intValue() >= Level.WARNING.intValue()){
+                publishToTargets(record);
+            }
+            else{
+                droppedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void publishLoop() {
+        List<LogRecord> drained = new ArrayList<LogRecord>(MAX_DRAIN_SIZE);
+        while(running || !records.isEmpty()){
+            try {
+                LogRecord record = records.poll(1, TimeUnit.SECONDS);
+                if(record == null){
+                    continue;
+                }
+                publishToTargets(record);
+                records.drainTo(drained, MAX_DRAIN_SIZE);
+                for(LogRecord drainedRecord : drained){
+                    publishToTargets(drainedRecord);
+                }
+                drained.clear();
+            } catch (InterruptedException e) {
+                // Closing; whatever is left is published before the thread is done
+                running = false;
+            }
+        }
+    }
+
+    private void publishToTargets(LogRecord record) {
+        for(Handler target : targets){
+            try {
+                target.publish(record);
+            } catch (RuntimeException e) {
+                reportError(null, e, ErrorManager.WRITE_FAILURE);
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        for(Handler target : targets){
+            target.flush();
+        }
+    }
+
+    /**
+     * Publishes whatever is queued and closes the wrapped handlers.
+     */
+    @Override
+    public void close() throws SecurityException {
+        running = false;
+        publisherThread.interrupt();
+        try {
+            publisherThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for(Handler target : targets){
+            target.close();
+        }
+    }
+
+    /**
+     * @return Number of records dropped for the queue being full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public int getQueuedCount() {
+        return records.size();
+    }
+}
@@ -0,0 +1,118 @@
+package com.learncity.backend_flexible.messaging.framework.util.logging;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs the messages going out to and coming in from CCS - one record a message, on the
+ * hot path.
+ *
+ * Nothing is formatted unless the level is enabled and the message makes the sample of its
+ * type; even then, the message is handed to the log record as a parameter and only turned
+ * into text by the handler that publishes it(with an {@link AsyncLogHandler}, on its own
+ * thread). The caller is given as the source, so the stack is not walked for it either.
+ *
+ * The sample rates are per message type(for ex., {@link #ACK}) and shared by all the
+ * message loggers; 1 logs them all, 0 none.
+ */
+public final class MessageLogger {
+
+    // Message types, as sampled
+    public static final String DOWNSTREAM = "downstream";
+    public static final String UPSTREAM = "upstream";
+    public static final String ACK = "ack";
+    public static final String NACK = "nack";
+    public static final String RECEIPT = "receipt";
+    public static final String CONTROL = "control";
+
+    public static final double DEFAULT_SAMPLE_RATE = 1.0;
+
+    // Replaced as a whole on change; read on every message
+    private static volatile Map<String, Double> sampleRates = Collections.emptyMap();
+    private static volatile double defaultSampleRate = DEFAULT_SAMPLE_RATE;
+
+    private final Logger logger;
+    private final Level level;
+
+    /**
+     * @param level Level the messages are logged at
+     */
+    public MessageLogger(Logger logger, Level level) {
+        this.logger = logger;
+        this.level = level;
+    }
+
+    /**
+     * @return Whether a message of the type is to be logged; decides the sample as well, so
+     * ask once a message
+     */
+    public boolean isLoggable(String messageType) {
+        if(!logger.isLoggable(level)){
+            return false;
+        }
+        double rate = getSampleRate(messageType);
+        if(rate >= 1.0){
+            return true;
+        }
+        if(rate <= 0.0){
+            return false;
+        }
+        return ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * Logs the message, if it is to be logged.
+     *
+     * @param format Format of the record, with the message as its {0}
+     * @param message Turned into text only if the record gets published
+     */
+    public void log(String messageType, String format, Object message) {
+        if(isLoggable(messageType)){
+            logRecord(format, message);
+        }
+    }
+
+    /**
+     * Logs the message without asking {@link #isLoggable(String)}; for when it has been asked already.
+     */
+    public void logRecord(String format, Object message) {
+        logger.logp(level, logger.getName(), null, format, message);
+    }
+
+    // Sample rates-------------------------------------------------------------------------------------------------------
+
+    public static double getSampleRate(String messageType) {
+        Double rate = messageType == null ? null : sampleRates.get(messageType);
+        return rate == null ? defaultSampleRate : rate;
+    }
+
+    public static synchronized void setSampleRate(String messageType, double rate) {
+        Map<String, Double> rates = new HashMap<String, Double>(sampleRates);
+        rates.put(messageType, rate);
+        sampleRates = rates;
+    }
+
+    /**
+     * Sets the rates of the given types; the others are left as they are.
+     */
+    public static synchronized void setSampleRates(Map<String, Double> rates) {
+        Map<String, Double> merged = new HashMap<String, Double>(sampleRates);
+        merged.putAll(rates);
+        sampleRates = merged;
+    }
+
+    public static double getDefaultSampleRate() {
+        return defaultSampleRate;
+    }
+
+    /**
+     * Rate of the types with none of their own
+     */
+    public static void setDefaultSampleRate(double defaultSampleRate) {
+        MessageLogger.defaultSampleRate = defaultSampleRate;
+    }
+}
@@ -16,11 +16,9 @@
  */
 package com.learncity.backend_flexible.messaging.framework.util.smackx.fcm.packet;
 
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.InboundMessage;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smackx.gcm.packet.GcmPacketExtension;
-import org.jivesoftware.smackx.pubsub.util.XmlUtils;
-
-import java.util.logging.Logger;
 
 /**
  * XMPP extension elements as used by FCM Cloud Connection Server (XMPP).
@@ -31,24 +29,33 @@ import java.util.logging.Logger;
  */
 public class FcmPacketExtension extends GcmPacketExtension {
 
-    private static final Logger logger = Logger.getLogger(FcmPacketExtension.class.getSimpleName());
-
     // Reserved in case Google decides to change them for Firebase.
     public static final String ELEMENT = "gcm";
     public static final String NAMESPACE = "google:mobile:data";
 
+    // Decoded at parse time, by a typed FcmExtensionProvider; null otherwise
+    private final InboundMessage inboundMessage;
+
     public FcmPacketExtension(String json) {
+        this(json, null);
+    }
+
+    public FcmPacketExtension(String json, InboundMessage inboundMessage) {
         super(json);
+        this.inboundMessage = inboundMessage;
+    }
+
+    /**
+     * @return The message decoded from the JSON or, null if it was not decoded at parse time
+     */
+    public InboundMessage getInboundMessage() {
+        return inboundMessage;
     }
 
     public Message toMessage() {
 
         Message message = new Message();
         message.addExtension(this);
-
-        logger.info("The Message(Stanza) is:");
-        XmlUtils.prettyPrint(null, message.toXML().toString());
-
         return message;
     }
 }
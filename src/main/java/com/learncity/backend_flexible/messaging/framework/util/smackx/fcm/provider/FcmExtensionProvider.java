@@ -16,13 +16,55 @@
  */
 package com.learncity.backend_flexible.messaging.framework.util.smackx.fcm.provider;
 
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.InboundMessage;
+import com.learncity.backend_flexible.messaging.framework.message.util.json.InboundMessageDecoder;
 import com.learncity.backend_flexible.messaging.framework.util.smackx.fcm.packet.FcmPacketExtension;
 import org.jivesoftware.smackx.gcm.provider.GcmExtensionProvider;
 
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Makes an {@link FcmPacketExtension} of the JSON text of a {@code <gcm>} element.
+ *
+ * In the typed mode, the JSON is also decoded right here, at XML-parse time on the reader
+ * thread, into an {@link InboundMessage} that the extension carries along - the listeners
+ * get the message already typed and bound.
+ */
 public class FcmExtensionProvider extends GcmExtensionProvider {
 
+    private static final Logger logger = Logger.getLogger(FcmExtensionProvider.class.getSimpleName());
+
+    private final boolean typed;
+
+    public FcmExtensionProvider() {
+        this(false);
+    }
+
+    /**
+     * @param typed Whether to decode the JSON into an {@link InboundMessage} as well
+     */
+    public FcmExtensionProvider(boolean typed) {
+        this.typed = typed;
+    }
+
     @Override
     public FcmPacketExtension from(String json) {
-        return new FcmPacketExtension(json);
+        if(!typed){
+            return new FcmPacketExtension(json);
+        }
+        InboundMessage inboundMessage = null;
+        try {
+            inboundMessage = InboundMessageDecoder.decode(json);
+        } catch (IOException e) {
+            // Left to the listener; it decodes it again and fails it the usual way
+            logger.log(Level.WARNING, "Could not decode the JSON of a <gcm> element: " + json, e);
+        }
+        return new FcmPacketExtension(json, inboundMessage);
+    }
+
+    public boolean isTyped() {
+        return typed;
     }
 }
@@ -0,0 +1,291 @@
+package com.learncity.backend_flexible.messaging.framework.util.timer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timing wheel - a timer for a very large number of (mostly short) timeouts,
+ * all of them served by a single thread.
+ *
+ * Time is divided into ticks and the timeouts are hashed into a fixed number of buckets
+ * by the tick they expire on. Scheduling and cancelling are O(1); on every tick, only the
+ * timeouts of one bucket are looked at. The price is precision - a timeout expires on
+ * the first tick at or after its deadline.
+ *
+ * The tasks are run on the timer thread, so they are expected to be quick(hand the
+ * actual work over, if need be).
+ */
+public class HashedTimingWheel {
+
+    private static final Logger logger = Logger.getLogger(HashedTimingWheel.class.getSimpleName());
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    // Timeouts scheduled/cancelled since the last tick; picked up by the timer thread
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final Thread timerThread;
+    private volatile long startTime;
+    private volatile boolean running;
+
+    // Accessed by the timer thread only
+    private long tick;
+
+    /**
+     * @param name Name of the timer thread
+     * @param tickDuration Duration of a tick
+     * @param ticksPerWheel Number of buckets; rounded up to a power of 2
+     */
+    public HashedTimingWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if(tickDuration <= 0){
+            throw new IllegalArgumentException("Tick duration must be positive.");
+        }
+        if(ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)){
+            throw new IllegalArgumentException("Ticks per wheel must be in (0, 2^30].");
+        }
+        int size = 1;
+        while(size < ticksPerWheel){
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for(int i = 0; i < size; i++){
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.tickNanos = unit.toNanos(tickDuration);
+
+        this.timerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runTimer();
+            }
+        }, name);
+        this.timerThread.setDaemon(true);
+    }
+
+    public synchronized void start() {
+        if(running){
+            return;
+        }
+        startTime = System.nanoTime();
+        running = true;
+        timerThread.start();
+    }
+
+    /**
+     * Stops the timer; the timeouts yet to expire never will.
+     */
+    public void stop() {
+        running = false;
+        timerThread.interrupt();
+    }
+
+    /**
+     * Schedules the task to be run once the delay has passed.
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        if(task == null){
+            throw new IllegalArgumentException("Task cannot be null.");
+        }
+        if(!running){
+            start();
+        }
+        long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0));
+        Timeout timeout = new Timeout(this, task, deadline);
+        pendingCount.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return Number of timeouts yet to expire(or, be cancelled)
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    private void runTimer() {
+        while(running){
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if(sleepNanos > 0){
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if(!running){
+                        return;
+                    }
+                    continue;
+                }
+            }
+
+            removeCancelledTimeouts();
+            transferNewTimeouts();
+            wheel[(int)(tick & mask)].expireTimeouts(deadline);
+            tick++;
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Timeout timeout;
+        while((timeout = newTimeouts.poll()) != null){
+            if(timeout.state == Timeout.CANCELLED){
+                continue;
+            }
+            long expiryTick = timeout.deadline / tickNanos;
+            // Already past? It goes on the current tick.
+            long targetTick = Math.max(expiryTick, tick);
+            timeout.remainingRounds = (targetTick - tick) / wheel.length;
+            wheel[(int)(targetTick & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while((timeout = cancelledTimeouts.poll()) != null){
+            if(timeout.bucket != null){
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void expire(Timeout timeout) {
+        pendingCount.decrementAndGet();
+        try {
+            timeout.task.run();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "A timer task threw an exception.", e);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * Handle to a scheduled task.
+     */
+    public static final class Timeout {
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final HashedTimingWheel timer;
+        private final Runnable task;
+        private final long deadline;
+
+        private volatile int state = PENDING;
+
+        // Accessed by the timer thread only
+        private long remainingRounds;
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+
+        private Timeout(HashedTimingWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the task has already been run(or, cancelled)
+         */
+        public boolean cancel() {
+            synchronized (this){
+                if(state != PENDING){
+                    return false;
+                }
+                state = CANCELLED;
+            }
+            timer.pendingCount.decrementAndGet();
+            timer.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        private boolean markExpired() {
+            synchronized (this){
+                if(state != PENDING){
+                    return false;
+                }
+                state = EXPIRED;
+                return true;
+            }
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+    }
+
+    /**
+     * A doubly linked list of the timeouts that hash to the same slot of the wheel.
+     */
+    private final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if(head == null){
+                head = tail = timeout;
+            }
+            else{
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void expireTimeouts(long deadline) {
+            Timeout timeout = head;
+            while(timeout != null){
+                Timeout next = timeout.next;
+                if(timeout.remainingRounds <= 0){
+                    remove(timeout);
+                    if(timeout.deadline <= deadline && timeout.markExpired()){
+                        expire(timeout);
+                    }
+                }
+                else{
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if(timeout.bucket != this){
+                return;
+            }
+            if(timeout.prev != null){
+                timeout.prev.next = timeout.next;
+            }
+            if(timeout.next != null){
+                timeout.next.prev = timeout.prev;
+            }
+            if(timeout == head){
+                head = timeout.next;
+            }
+            if(timeout == tail){
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package com.learncity.backend_flexible.messaging.model;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.AbstractDownstreamMessage;
 import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.DataMessage;
 import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.NotificationMessage;
+import com.learncity.backend_flexible.messaging.framework.message.util.json.DownstreamMessageJsonWriter;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.StringWriter;
 import java.util.UUID;
 import java.util.logging.Logger;
 
@@ -67,18 +70,40 @@ public class Message implements Serializable{
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
     /**
-     * @return Returns a JSON Stringified representation of this object using Jackson Object Mapper.
+     * @return Returns a JSON Stringified representation of this object; the same as Jackson's
+     * bean serialization makes of it, written by hand(see {@link DownstreamMessageJsonWriter}).
      */
     @Override
     public String toString(){
-        String json;
+        StringWriter json = new StringWriter();
         try {
-            json = objectMapper.writeValueAsString(this);
-        } catch (JsonProcessingException e) {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(json);
+            generator.writeStartObject();
+            // The fields in order, the nulls left out
+            if(messageType != null){
+                generator.writeNumberField("messageType", messageType);
+            }
+            if(from != null){
+                generator.writeStringField("from", from);
+            }
+            if(to != null){
+                generator.writeStringField("to", to);
+            }
+            if(dataMessage != null){
+                generator.writeFieldName("dataMessage");
+                DownstreamMessageJsonWriter.write(generator, dataMessage);
+            }
+            if(notificationMessage != null){
+                generator.writeFieldName("notificationMessage");
+                DownstreamMessageJsonWriter.write(generator, notificationMessage);
+            }
+            generator.writeEndObject();
+            generator.close();
+        } catch (IOException e) {
             e.printStackTrace();
             throw new RuntimeException("There was a problem processing Json.");
         }
-        return json;
+        return json.toString();
     }
 
     //Default constructor for Serialization
@@ -0,0 +1,124 @@
+package com.learncity.backend_flexible.messaging.endpoints;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learncity.backend_flexible.messaging.framework.client.CcsClient;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchSendTaskTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Never connected; every send fails, which is all there is to answer a message with here
+    private final CcsClient client = new CcsClient();
+
+    @Test
+    public void answersEachMessageWithALine() throws IOException {
+        String message = "{\"messageType\":8,\"from\":\"3f2504e0-4f89-11d3-9a0c-0305e82c3301\",\"to\":\"t\",\"dataMessage\":{\"to\":\"t\",\"message_id\":\"m\"}}";
+        CapturingEmitter emitter = run("[" + message + "," + message + "]");
+
+        assertTrue(emitter.completed);
+        assertEquals(2, emitter.lines.size());
+        for(int i = 0; i < 2; i++){
+            JsonNode line = objectMapper.readTree(emitter.lines.get(i));
+            assertEquals(i, line.get("index").asInt());
+            assertEquals("error", line.get("status").asText());
+            assertEquals("You have to connect the client first", line.get("error").asText());
+            assertTrue(emitter.lines.get(i).endsWith("\n"));
+        }
+    }
+
+    @Test
+    public void goesOnPastAMessageThatFailsToBind() throws IOException {
+        String message = "{\"messageType\":8,\"from\":\"3f2504e0-4f89-11d3-9a0c-0305e82c3301\",\"to\":\"t\",\"dataMessage\":{\"to\":\"t\",\"message_id\":\"m\"}}";
+        String unknownField = "{\"bogus\":{\"a\":[1,2]},\"to\":\"t\"}";
+        // Fails at its first field, with the rest of it(nested as well) yet to be read
+        String wrongType = "{\"messageType\":\"eight\",\"dataMessage\":{\"to\":\"t\",\"data\":{\"k\":[{}]}}}";
+        CapturingEmitter emitter = run("[" + unknownField + "," + wrongType + "," + message + "]");
+
+        assertTrue(emitter.completed);
+        assertEquals(3, emitter.lines.size());
+        for(int i = 0; i < 2; i++){
+            JsonNode line = objectMapper.readTree(emitter.lines.get(i));
+            assertEquals(i, line.get("index").asInt());
+            assertTrue(line.get("error").asText().startsWith("Invalid message: "));
+        }
+        JsonNode last = objectMapper.readTree(emitter.lines.get(2));
+        assertEquals(2, last.get("index").asInt());
+        assertEquals("You have to connect the client first", last.get("error").asText());
+    }
+
+    @Test
+    public void answersANonArrayWithAnErrorLine() throws IOException {
+        CapturingEmitter emitter = run("{}");
+
+        assertTrue(emitter.completed);
+        assertEquals(1, emitter.lines.size());
+        JsonNode line = objectMapper.readTree(emitter.lines.get(0));
+        assertFalse(line.has("index"));
+        assertEquals("Expected a JSON array of messages.", line.get("error").asText());
+    }
+
+    @Test
+    public void stopsAtWhatIsMalformed() throws IOException {
+        CapturingEmitter emitter = run("[1]");
+
+        assertTrue(emitter.completed);
+        assertEquals(1, emitter.lines.size());
+        JsonNode line = objectMapper.readTree(emitter.lines.get(0));
+        assertEquals(0, line.get("index").asInt());
+        assertEquals("Expected a message object.", line.get("error").asText());
+    }
+
+    @Test
+    public void stopsAtWhatIsNotJson() throws IOException {
+        CapturingEmitter emitter = run("[{\"bogus\":1},{\"to\":");
+
+        assertTrue(emitter.completed);
+        assertEquals(2, emitter.lines.size());
+        JsonNode line = objectMapper.readTree(emitter.lines.get(1));
+        assertEquals(1, line.get("index").asInt());
+        assertTrue(line.get("error").asText().startsWith("Malformed batch: "));
+    }
+
+    @Test
+    public void completesAnEmptyBatch() {
+        CapturingEmitter emitter = run("[]");
+        assertTrue(emitter.completed);
+        assertTrue(emitter.lines.isEmpty());
+    }
+
+    private CapturingEmitter run(String body) {
+        CapturingEmitter emitter = new CapturingEmitter();
+        new BatchSendTask(client, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), emitter, 1000).run();
+        return emitter;
+    }
+
+    private static class CapturingEmitter extends ResponseBodyEmitter {
+
+        private final List<String> lines = new ArrayList<String>();
+        private boolean completed;
+
+        @Override
+        public synchronized void send(Object object, MediaType mediaType) {
+            lines.add((String) object);
+        }
+
+        @Override
+        public synchronized void complete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.learncity.backend_flexible.messaging.framework.client;
+
+import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.DataMessage;
+import org.junit.Test;
+
+public class CcsClientTest {
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesToSendBeforeConnecting() {
+        new CcsClient().sendAsync(DataMessage.Builder.newInstance("token", "m-1", null).build());
+    }
+}
@@ -0,0 +1,80 @@
+package com.learncity.backend_flexible.messaging.framework.client.connection;
+
+import org.jivesoftware.smack.tcp.XMPPTCPConnectionConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CcsConnectionTest {
+
+    private final List<Map<String, String>> lost = new ArrayList<Map<String, String>>();
+    private int drainedCount;
+
+    // Never connected; nothing it writes goes out
+    private CcsConnection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
+                .setXmppDomain("gcm.googleapis.com")
+                .build();
+        connection = new CcsConnection(config, new CcsConnection.Listener() {
+            @Override
+            public void onMessagesLost(CcsConnection connection, Map<String, String> messages) {
+                lost.add(messages);
+            }
+
+            @Override
+            public void onDrained(CcsConnection connection) {
+                drainedCount++;
+            }
+        });
+    }
+
+    @Test
+    public void handsBackWhatCouldNotBeWritten() throws InterruptedException {
+        assertTrue(connection.send("m-1", "{\"n\":1}"));
+
+        assertEquals(1, lost.size());
+        assertEquals("{\"n\":1}", lost.get(0).get("m-1"));
+        // And, does not hold up the window
+        assertEquals(0, connection.getInFlightCount());
+    }
+
+    @Test
+    public void doesNotWriteAMessageInFlightAgain() throws InterruptedException {
+        connection.getInFlightWindow().acquire("m-1", "{\"n\":1}");
+        assertTrue(connection.send("m-1", "{\"n\":1}"));
+
+        // Not written, so nothing failed; the original keeps its slot
+        assertTrue(lost.isEmpty());
+        assertEquals(1, connection.getInFlightCount());
+    }
+
+    @Test
+    public void takesNothingNewOnceDraining() throws InterruptedException {
+        assertTrue(connection.markDraining());
+        assertFalse(connection.markDraining());
+
+        assertTrue(connection.isDraining());
+        assertFalse(connection.isUsable());
+        assertFalse(connection.send("m-1", "{\"n\":1}"));
+        assertTrue(lost.isEmpty());
+    }
+
+    @Test
+    public void closesOnceDrained() {
+        connection.markDraining();
+        connection.release("none");
+
+        // Nothing in flight, and not connected anyway; told once only
+        assertEquals(1, drainedCount);
+    }
+}
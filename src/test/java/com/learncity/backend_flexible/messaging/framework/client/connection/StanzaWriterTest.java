@@ -0,0 +1,130 @@
+package com.learncity.backend_flexible.messaging.framework.client.connection;
+
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.Nonza;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StanzaWriterTest {
+
+    private final List<String> writes = Collections.synchronizedList(new ArrayList<String>());
+    private StanzaWriter writer;
+
+    @After
+    public void tearDown() {
+        if(writer != null){
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    public void coalescesWhatQueuesUpWhileWritingPriorityFirst() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        XMPPConnection connection = connection(new NonzaSender() {
+            @Override
+            public void send(Nonza nonza) throws Exception {
+                writes.add(nonza.toXML().toString());
+                if(writes.size() == 1){
+                    writing.countDown();
+                    release.await();
+                }
+            }
+        });
+        writer = new StanzaWriter(connection, StanzaWriter.DEFAULT_MAX_BATCH_CHARS, null);
+        writer.start();
+
+        writer.write("m-1", "{\"n\":1}");
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        // Held up on the first write; these queue up behind it
+        writer.write("m-2", "{\"n\":2}");
+        writer.write("m-3", "{\"n\":3}");
+        writer.writePriority("{\"ack\":1}");
+        release.countDown();
+
+        awaitWritten(4);
+        assertEquals(2, writer.getWrittenBatchCount());
+        assertEquals(StanzaWriter.toStanza("{\"ack\":1}") + StanzaWriter.toStanza("{\"n\":2}") + StanzaWriter.toStanza("{\"n\":3}"),
+                writes.get(1));
+    }
+
+    @Test
+    public void handsWhatCouldNotBeWrittenToTheListener() throws Exception {
+        XMPPConnection connection = connection(new NonzaSender() {
+            @Override
+            public void send(Nonza nonza) throws Exception {
+                throw new SmackException.NotConnectedException();
+            }
+        });
+        final List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(1);
+        writer = new StanzaWriter(connection, StanzaWriter.DEFAULT_MAX_BATCH_CHARS, new StanzaWriter.WriteFailureListener() {
+            @Override
+            public void onWriteFailure(String messageId, String jsonMessage, Exception e) {
+                failed.add(messageId);
+                done.countDown();
+            }
+        });
+        writer.start();
+
+        writer.write("m-1", "{}");
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("m-1", failed.get(0));
+        assertEquals(0, writer.getWrittenStanzaCount());
+    }
+
+    private interface NonzaSender {
+        void send(Nonza nonza) throws Exception;
+    }
+
+    // A connection that only takes nonzas
+    private static XMPPConnection connection(final NonzaSender sender) {
+        return (XMPPConnection) Proxy.newProxyInstance(XMPPConnection.class.getClassLoader(), new Class<?>[]{XMPPConnection.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if(method.getName().equals("sendNonza")){
+                            sender.send((Nonza) args[0]);
+                            return null;
+                        }
+                        if(method.getName().equals("hashCode")){
+                            return System.identityHashCode(proxy);
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private void awaitWritten(long stanzas) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(writer.getWrittenStanzaCount() < stanzas && System.nanoTime() < deadline){
+            Thread.sleep(5);
+        }
+        assertEquals(stanzas, writer.getWrittenStanzaCount());
+    }
+
+    @Test
+    public void escapesTheJsonForXml() {
+        assertEquals("<message><gcm xmlns='google:mobile:data'>{\"data\":\"a &lt; b &amp;&amp; c > d\"}</gcm></message>",
+                StanzaWriter.toStanza("{\"data\":\"a < b && c > d\"}"));
+    }
+
+    @Test
+    public void leavesThePlainJsonAsItIs() {
+        assertEquals("<message><gcm xmlns='google:mobile:data'>{\"to\":\"t\",\"message_id\":\"m\"}</gcm></message>",
+                StanzaWriter.toStanza("{\"to\":\"t\",\"message_id\":\"m\"}"));
+    }
+}
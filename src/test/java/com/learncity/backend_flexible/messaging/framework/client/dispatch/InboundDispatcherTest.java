@@ -0,0 +1,146 @@
+package com.learncity.backend_flexible.messaging.framework.client.dispatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InboundDispatcherTest {
+
+    private final InboundDispatcher dispatcher = new InboundDispatcher("Test", 4, 16);
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void handlesTheMessagesOfADeviceInOrder() throws Exception {
+        dispatcher.start();
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(200);
+        for(int i = 0; i < 200; i++){
+            final int sequence = i;
+            dispatcher.dispatch("device", new Runnable() {
+                @Override
+                public void run() {
+                    handled.add(sequence);
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for(int i = 0; i < 200; i++){
+            assertEquals(Integer.valueOf(i), handled.get(i));
+        }
+    }
+
+    @Test
+    public void handlesTheDevicesInParallel() throws Exception {
+        dispatcher.start();
+        // Spread over the lanes, by the device
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch done = new CountDownLatch(32);
+        for(int i = 0; i < 32; i++){
+            dispatcher.dispatch("device-" + i, new Runnable() {
+                @Override
+                public void run() {
+                    threads.add(Thread.currentThread().getName());
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue("Handled on: " + threads, threads.size() > 1);
+    }
+
+    @Test
+    public void keepsGoingPastAFailedMessage() throws Exception {
+        dispatcher.start();
+        final CountDownLatch done = new CountDownLatch(1);
+        dispatcher.dispatch("device", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("Bad message");
+            }
+        });
+        dispatcher.dispatch("device", new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void holdsTheDispatcherBackWhenALaneIsFull() throws Exception {
+        final InboundDispatcher single = new InboundDispatcher("Single", 1, 1);
+        single.start();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        try {
+            single.dispatch("device", new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            // Takes the only place in the lane
+            single.dispatch("device", new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            final CountDownLatch dispatched = new CountDownLatch(1);
+            Thread dispatching = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        single.dispatch("device", new Runnable() {
+                            @Override
+                            public void run() {
+                            }
+                        });
+                        dispatched.countDown();
+                    } catch (InterruptedException e) {
+                        // Done
+                    }
+                }
+            });
+            dispatching.start();
+            assertFalse(dispatched.await(200, TimeUnit.MILLISECONDS));
+            release.countDown();
+            assertTrue(dispatched.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            single.shutdown();
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectsWhenNotRunning() throws Exception {
+        dispatcher.dispatch("device", new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+}
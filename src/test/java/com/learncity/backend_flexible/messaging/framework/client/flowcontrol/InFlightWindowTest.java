@@ -0,0 +1,91 @@
+package com.learncity.backend_flexible.messaging.framework.client.flowcontrol;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightWindowTest {
+
+    @Test
+    public void accountsForTheMessagesUntilReleased() throws InterruptedException {
+        InFlightWindow window = new InFlightWindow(2);
+        window.acquire("m-1", "{1}");
+        window.acquire("m-2", "{2}");
+        assertEquals(2, window.size());
+        assertTrue(window.isInFlight("m-1"));
+
+        assertEquals("{1}", window.release("m-1"));
+        assertFalse(window.isInFlight("m-1"));
+        // A duplicate ACK frees nothing
+        assertNull(window.release("m-1"));
+        assertEquals(1, window.size());
+    }
+
+    @Test
+    public void parksTheSenderWhileFull() throws InterruptedException {
+        final InFlightWindow window = new InFlightWindow(1);
+        window.acquire("m-1", "{1}");
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    window.acquire("m-2", "{2}");
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        sender.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, window.getParkedCount());
+        window.release("m-1");
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertTrue(window.isInFlight("m-2"));
+        sender.join();
+    }
+
+    @Test
+    public void takesNoSecondSlotForAResend() throws InterruptedException {
+        InFlightWindow window = new InFlightWindow(2);
+        assertTrue(window.acquire("m-1", "{1}"));
+        assertFalse(window.acquire("m-1", "{1}"));
+        assertEquals(1, window.size());
+        // Both slots free once it is released
+        window.release("m-1");
+        window.acquire("m-2", "{2}");
+        window.acquire("m-3", "{3}");
+        assertEquals(2, window.size());
+    }
+
+    @Test
+    public void doesNotParkADuplicateWhileFull() throws InterruptedException {
+        InFlightWindow window = new InFlightWindow(1);
+        window.acquire("m-1", "{1}");
+        // Would park for good if it went for a slot
+        assertFalse(window.acquire("m-1", "{1}"));
+        assertEquals(0, window.getParkedCount());
+        assertEquals(1, window.size());
+    }
+
+    @Test
+    public void releasesAllOnceTheConnectionIsGone() throws InterruptedException {
+        InFlightWindow window = new InFlightWindow(3);
+        window.acquire("m-1", "{1}");
+        window.acquire("m-2", "{2}");
+
+        Map<String, String> released = window.releaseAll();
+        assertEquals(2, released.size());
+        assertEquals("{2}", released.get("m-2"));
+        assertEquals(0, window.size());
+    }
+}
@@ -0,0 +1,183 @@
+package com.learncity.backend_flexible.messaging.framework.client.outbox;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedOutboxTest {
+
+    // Room for about two of the messages below in a segment
+    private static final int SEGMENT_SIZE = 512;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<MappedOutbox> opened = new ArrayList<MappedOutbox>();
+
+    @After
+    public void tearDown() {
+        for(MappedOutbox outbox : opened){
+            outbox.close();
+        }
+    }
+
+    @Test
+    public void replaysTheMessagesNotDoneInTheOrderAppended() throws IOException {
+        File directory = folder.newFolder();
+        MappedOutbox outbox = open(directory);
+        outbox.append("a", message("a"));
+        outbox.append("b", message("b"));
+        outbox.append("c", message("c"));
+        outbox.markDone("b");
+        assertEquals(2, outbox.getPendingCount());
+        outbox.close();
+
+        Map<String, String> unfinished = replay(directory);
+        assertEquals(Arrays.asList("a", "c"), new ArrayList<String>(unfinished.keySet()));
+        assertEquals(message("c"), unfinished.get("c"));
+    }
+
+    @Test
+    public void replaysNothingOnceAllAreDone() throws IOException {
+        File directory = folder.newFolder();
+        MappedOutbox outbox = open(directory);
+        for(int i = 0; i < 20; i++){
+            outbox.append("m" + i, message("m" + i));
+            outbox.markDone("m" + i);
+        }
+        outbox.close();
+
+        assertTrue(replay(directory).isEmpty());
+    }
+
+    @Test
+    public void keepsTheDoneRecordsOfAnOlderSegment() throws IOException {
+        File directory = folder.newFolder();
+        MappedOutbox outbox = open(directory);
+        // Both in the first segment
+        outbox.append("old", message("old"));
+        outbox.append("live", message("live"));
+        // Rolls over; the "done" record of the old one goes into the second segment
+        outbox.append("next", message("next"));
+        outbox.markDone("old");
+        outbox.markDone("next");
+        // And that one is rolled over as well, with all of its own messages done
+        outbox.append("last", message("last"));
+        outbox.append("later", message("later"));
+        outbox.markDone("last");
+        outbox.markDone("later");
+        outbox.close();
+
+        Map<String, String> unfinished = replay(directory);
+        assertEquals(Arrays.asList("live"), new ArrayList<String>(unfinished.keySet()));
+    }
+
+    @Test
+    public void carriesALiveMessageForwardSoTheSegmentsCanGo() throws IOException {
+        File directory = folder.newFolder();
+        MappedOutbox outbox = open(directory);
+        outbox.append("never-answered", message("never-answered"));
+        for(int i = 0; i < 100; i++){
+            outbox.append("m" + i, message("m" + i));
+            outbox.markDone("m" + i);
+        }
+        assertTrue("Segments: " + outbox.getSegmentCount(), outbox.getSegmentCount() <= 3);
+        assertEquals(1, outbox.getPendingCount());
+        outbox.close();
+
+        Map<String, String> unfinished = replay(directory);
+        assertEquals(Arrays.asList("never-answered"), new ArrayList<String>(unfinished.keySet()));
+        assertEquals(message("never-answered"), unfinished.get("never-answered"));
+    }
+
+    @Test
+    public void readsNoFurtherThanATornRecord() throws IOException {
+        File directory = folder.newFolder();
+        MappedOutbox outbox = open(directory);
+        outbox.append("whole", message("whole"));
+        outbox.append("torn", message("torn"));
+        outbox.close();
+
+        corrupt(directory, message("torn"));
+
+        Map<String, String> unfinished = replay(directory);
+        assertEquals(Arrays.asList("whole"), new ArrayList<String>(unfinished.keySet()));
+    }
+
+    @Test
+    public void appendsAgainAfterReopening() throws IOException {
+        File directory = folder.newFolder();
+        MappedOutbox outbox = open(directory);
+        outbox.append("a", message("a"));
+        outbox.close();
+
+        outbox = newOutbox(directory);
+        assertEquals(1, outbox.open().size());
+        outbox.append("b", message("b"));
+        outbox.markDone("a");
+        outbox.close();
+
+        Map<String, String> unfinished = replay(directory);
+        assertEquals(Arrays.asList("b"), new ArrayList<String>(unfinished.keySet()));
+    }
+
+    private MappedOutbox open(File directory) throws IOException {
+        MappedOutbox outbox = newOutbox(directory);
+        outbox.open();
+        return outbox;
+    }
+
+    // What a restart finds unfinished
+    private Map<String, String> replay(File directory) throws IOException {
+        return newOutbox(directory).open();
+    }
+
+    private MappedOutbox newOutbox(File directory) {
+        MappedOutbox outbox = new MappedOutbox(directory, SEGMENT_SIZE);
+        opened.add(outbox);
+        return outbox;
+    }
+
+    private static String message(String messageId) {
+        StringBuilder message = new StringBuilder("{\"message_id\":\"").append(messageId).append("\",\"data\":{\"text\":\"");
+        while(message.length() < 180){
+            message.append('x');
+        }
+        return message.append("\"}}").toString();
+    }
+
+    // Flips a byte of the message in whichever segment it is in
+    private static void corrupt(File directory, String message) throws IOException {
+        byte[] target = message.getBytes(StandardCharsets.UTF_8);
+        for(File file : directory.listFiles()){
+            RandomAccessFile segment = new RandomAccessFile(file, "rw");
+            try {
+                byte[] content = new byte[(int) segment.length()];
+                segment.readFully(content);
+                for(int i = 0; i + target.length <= content.length; i++){
+                    if(Arrays.equals(Arrays.copyOfRange(content, i, i + target.length), target)){
+                        segment.seek(i + target.length / 2);
+                        segment.write(content[i + target.length / 2] ^ 0x01);
+                        return;
+                    }
+                }
+            } finally {
+                segment.close();
+            }
+        }
+        throw new AssertionError("Message not found in the segments");
+    }
+}
@@ -0,0 +1,151 @@
+package com.learncity.backend_flexible.messaging.framework.client.queue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundMessageQueueTest {
+
+    @Test
+    public void takesTheHighPriorityOnesFirstThenInOrder() throws InterruptedException {
+        OutboundMessageQueue queue = new OutboundMessageQueue(10);
+        queue.offer(message("n-1", false));
+        queue.offer(message("h-1", true));
+        queue.offer(message("n-2", false));
+        queue.offer(message("h-2", true));
+
+        assertEquals(2, queue.getHighPriorityCount());
+        assertEquals("h-1", queue.take().getMessageId());
+        assertEquals("h-2", queue.take().getMessageId());
+        assertEquals("n-1", queue.take().getMessageId());
+        assertEquals("n-2", queue.take().getMessageId());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void rejectsOnceFull() {
+        OutboundMessageQueue queue = new OutboundMessageQueue(2);
+        assertTrue(queue.offer(message("m-1", false)));
+        assertTrue(queue.offer(message("m-2", true)));
+        assertFalse(queue.offer(message("m-3", true)));
+        assertEquals(1, queue.getRejectedCount());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void putsARequeuedMessageAheadRegardlessOfTheCapacity() throws InterruptedException {
+        OutboundMessageQueue queue = new OutboundMessageQueue(1);
+        queue.offer(message("h-1", true));
+        queue.requeue(message("again", false));
+        assertEquals(2, queue.size());
+        assertEquals("again", queue.take().getMessageId());
+    }
+
+    @Test
+    public void countsTheReservedPlacesAgainstTheCapacity() throws InterruptedException {
+        OutboundMessageQueue queue = new OutboundMessageQueue(2);
+        assertTrue(queue.reserve());
+        assertTrue(queue.offer(message("m-1", false)));
+        // Full, with the place held for the one to come
+        assertFalse(queue.offer(message("m-2", false)));
+        assertFalse(queue.reserve());
+        assertEquals(2, queue.getRejectedCount());
+
+        queue.offerReserved(message("held", false));
+        assertEquals(0, queue.getReservedCount());
+        assertEquals(2, queue.size());
+        assertEquals("m-1", queue.take().getMessageId());
+        assertEquals("held", queue.take().getMessageId());
+    }
+
+    @Test
+    public void waitsNoLongerThanTheTimeout() throws InterruptedException {
+        OutboundMessageQueue queue = new OutboundMessageQueue(1);
+        long start = System.nanoTime();
+        assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(45));
+    }
+
+    @Test
+    public void replacesTheWaitingMessageWithTheSameCollapseKeyInItsPlace() throws InterruptedException {
+        OutboundMessageQueue queue = new OutboundMessageQueue(2);
+        final List<String> coalesced = new ArrayList<String>();
+        queue.setCoalescingListener(new OutboundMessageQueue.CoalescingListener() {
+            @Override
+            public void onCoalesced(OutboundMessage older, OutboundMessage newer) {
+                coalesced.add(older.getMessageId() + "->" + newer.getMessageId());
+            }
+        });
+        queue.offer(collapsible("score-1", "device", "score", false));
+        queue.offer(message("other", false));
+        // Full, but it only takes the place of the waiting one
+        assertTrue(queue.offer(collapsible("score-2", "device", "score", false)));
+
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getCoalescedCount());
+        assertEquals(0, queue.getRejectedCount());
+        assertEquals(1, coalesced.size());
+        assertEquals("score-1->score-2", coalesced.get(0));
+        OutboundMessage first = queue.take();
+        assertEquals("score-2", first.getMessageId());
+        assertEquals("{\"message_id\":\"score-2\"}", first.getJsonMessage());
+        assertEquals("other", queue.take().getMessageId());
+    }
+
+    @Test
+    public void keepsTheRecipientsApart() {
+        OutboundMessageQueue queue = new OutboundMessageQueue(10);
+        queue.offer(collapsible("a-1", "device-a", "score", false));
+        queue.offer(collapsible("b-1", "device-b", "score", false));
+        assertEquals(2, queue.size());
+        assertEquals(0, queue.getCoalescedCount());
+    }
+
+    @Test
+    public void doesNotReplaceAcrossThePriorities() throws InterruptedException {
+        OutboundMessageQueue queue = new OutboundMessageQueue(10);
+        queue.offer(collapsible("normal", "device", "score", false));
+        queue.offer(collapsible("high", "device", "score", true));
+        assertEquals(2, queue.size());
+        assertEquals(0, queue.getCoalescedCount());
+        assertEquals("high", queue.take().getMessageId());
+        assertEquals("normal", queue.take().getMessageId());
+    }
+
+    @Test
+    public void doesNotReplaceAMessageAlreadyTaken() throws InterruptedException {
+        OutboundMessageQueue queue = new OutboundMessageQueue(10);
+        queue.offer(collapsible("score-1", "device", "score", false));
+        OutboundMessage taken = queue.take();
+        queue.offer(collapsible("score-2", "device", "score", false));
+
+        assertEquals("score-1", taken.getMessageId());
+        assertEquals(0, queue.getCoalescedCount());
+        assertEquals(1, queue.size());
+        assertEquals("score-2", queue.take().getMessageId());
+    }
+
+    @Test
+    public void doesNotCollapseWithoutAKey() {
+        assertNull(OutboundMessage.collapseKeyOf("device", null));
+        assertNull(OutboundMessage.collapseKeyOf(null, "score"));
+        OutboundMessage message = message("m-1", false);
+        assertNull(message.getCollapseKey());
+    }
+
+    private static OutboundMessage message(String messageId, boolean highPriority) {
+        return new OutboundMessage(messageId, "{\"message_id\":\"" + messageId + "\"}", highPriority);
+    }
+
+    private static OutboundMessage collapsible(String messageId, String to, String collapseKey, boolean highPriority) {
+        return new OutboundMessage(messageId, "{\"message_id\":\"" + messageId + "\"}", highPriority, null,
+                OutboundMessage.collapseKeyOf(to, collapseKey));
+    }
+}
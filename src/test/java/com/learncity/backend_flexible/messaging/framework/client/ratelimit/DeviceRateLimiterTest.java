@@ -0,0 +1,66 @@
+package com.learncity.backend_flexible.messaging.framework.client.ratelimit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceRateLimiterTest {
+
+    // A message a second, with a burst of 3
+    private final DeviceRateLimiter limiter = new DeviceRateLimiter(60, 3, 1024);
+
+    @Test
+    public void letsTheBurstThroughRightAway() {
+        for(int i = 0; i < 3; i++){
+            assertEquals(0, limiter.reserve("device", 10000));
+        }
+    }
+
+    @Test
+    public void pacesThoseOverTheBurstAtTheRate() {
+        for(int i = 0; i < 3; i++){
+            limiter.reserve("device", 10000);
+        }
+        long first = limiter.reserve("device", 10000);
+        long second = limiter.reserve("device", 10000);
+        assertTrue("Held back for: " + first, first > 900 && first <= 1000);
+        assertTrue("Held back for: " + second, second > 1900 && second <= 2000);
+    }
+
+    @Test
+    public void refusesWhatWouldWaitTooLongWithoutReservingIt() {
+        for(int i = 0; i < 3; i++){
+            limiter.reserve("device", 10000);
+        }
+        assertEquals(-1, limiter.reserve("device", 500));
+        // Nothing was taken for the refused one
+        long delay = limiter.reserve("device", 10000);
+        assertTrue("Held back for: " + delay, delay <= 1000);
+    }
+
+    @Test
+    public void keepsTheDevicesApart() {
+        for(int i = 0; i < 3; i++){
+            limiter.reserve("device-a", 10000);
+        }
+        assertEquals(0, limiter.reserve("device-b", 10000));
+    }
+
+    @Test
+    public void drainsTheBucketOnBackOff() {
+        limiter.backOff("device");
+        // No burst left; the next one waits its interval
+        long delay = limiter.reserve("device", 10000);
+        assertTrue("Held back for: " + delay, delay > 900 && delay <= 1000);
+    }
+
+    @Test
+    public void limitsTheDevicesOnly() {
+        assertTrue(DeviceRateLimiter.isDevice("fXk2:APA91b"));
+        assertFalse(DeviceRateLimiter.isDevice("/topics/news"));
+        assertFalse(DeviceRateLimiter.isDevice(null));
+        assertEquals(1024, limiter.getSlotCount());
+    }
+}
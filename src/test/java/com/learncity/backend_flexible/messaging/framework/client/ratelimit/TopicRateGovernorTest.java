@@ -0,0 +1,87 @@
+package com.learncity.backend_flexible.messaging.framework.client.ratelimit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TopicRateGovernorTest {
+
+    // A message a second, with a burst of 2
+    private final TopicRateGovernor governor = new TopicRateGovernor(60, 2);
+
+    @Test
+    public void tellsTheTopicalMessages() {
+        assertTrue(TopicRateGovernor.isTopical("/topics/news", null));
+        assertTrue(TopicRateGovernor.isTopical(null, "'news' in topics"));
+        assertFalse(TopicRateGovernor.isTopical("device-token", null));
+        assertFalse(TopicRateGovernor.isTopical(null, null));
+    }
+
+    @Test
+    public void readsTheTopicOfTheRecipient() {
+        assertArrayEquals(new String[]{"news"}, governor.topicsOf("/topics/news", null));
+        assertEquals(0, governor.topicsOf("device-token", null).length);
+    }
+
+    @Test
+    public void readsTheTopicsOfACondition() {
+        String condition = "'sports' in topics && ('news' in topics || \"sports\" in topics)";
+        assertArrayEquals(new String[]{"news", "sports"}, governor.topicsOf(null, condition));
+        // Cached, as is
+        assertArrayEquals(new String[]{"news", "sports"}, governor.topicsOf(null, condition));
+    }
+
+    @Test
+    public void readsTheTopicsOfAMessage() {
+        assertArrayEquals(new String[]{"news"}, governor.topicsOfMessage("{\"to\":\"/topics/news\",\"message_id\":\"m1\"}"));
+        assertArrayEquals(new String[]{"a", "b"}, governor.topicsOfMessage("{\"condition\":\"'b' in topics && 'a' in topics\"}"));
+        assertEquals(0, governor.topicsOfMessage("not json").length);
+    }
+
+    @Test
+    public void pacesThoseOverTheBurstAtTheRate() {
+        String[] topics = {"news"};
+        assertEquals(0, governor.reserve(topics, 10000));
+        assertEquals(0, governor.reserve(topics, 10000));
+        long delay = governor.reserve(topics, 10000);
+        assertTrue("Held back for: " + delay, delay > 900 && delay <= 1000);
+    }
+
+    @Test
+    public void holdsAConditionBackOnItsBusiestTopic() {
+        for(int i = 0; i < 3; i++){
+            governor.reserve(new String[]{"news"}, 10000);
+        }
+        long delay = governor.reserve(new String[]{"news", "sports"}, 10000);
+        assertTrue("Held back for: " + delay, delay > 1900 && delay <= 2000);
+        // The other topic is taken up to the same time
+        long sportsDelay = governor.reserve(new String[]{"sports"}, 10000);
+        assertTrue("Held back for: " + sportsDelay, sportsDelay > 1900);
+    }
+
+    @Test
+    public void refusesWhatWouldWaitTooLongWithoutReservingIt() {
+        String[] topics = {"news"};
+        governor.reserve(topics, 10000);
+        governor.reserve(topics, 10000);
+        assertEquals(-1, governor.reserve(topics, 500));
+        long delay = governor.reserve(topics, 10000);
+        assertTrue("Held back for: " + delay, delay <= 1000);
+    }
+
+    @Test
+    public void drainsTheBucketsOnBackOff() {
+        governor.backOff(new String[]{"news"});
+        long delay = governor.reserve(new String[]{"news"}, 10000);
+        assertTrue("Held back for: " + delay, delay > 900 && delay <= 1000);
+        assertEquals(0, governor.reserve(new String[]{"sports"}, 10000));
+    }
+
+    @Test
+    public void letsTheMessagesToNoTopicThrough() {
+        assertEquals(0, governor.reserve(new String[0], 0));
+    }
+}
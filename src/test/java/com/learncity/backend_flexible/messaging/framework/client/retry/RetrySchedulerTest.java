@@ -0,0 +1,94 @@
+package com.learncity.backend_flexible.messaging.framework.client.retry;
+
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RetrySchedulerTest {
+
+    private static final long BASE_DELAY_MILLIS = 200;
+
+    private final BlockingQueue<Long> resentAt = new LinkedBlockingQueue<Long>();
+    private final BlockingQueue<Integer> deadLetters = new LinkedBlockingQueue<Integer>();
+
+    private final RetryScheduler scheduler = new RetryScheduler(new RetryScheduler.Resender() {
+        @Override
+        public void resend(String messageId, String jsonMessage) {
+            resentAt.add(System.nanoTime());
+        }
+    }, 3, BASE_DELAY_MILLIS, 10000);
+
+    {
+        scheduler.setDeadLetterListener(new RetryScheduler.DeadLetterListener() {
+            @Override
+            public void onDeadLetter(String messageId, String jsonMessage, int attempts, DownstreamMessageResponse lastResponse) {
+                deadLetters.add(attempts);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void retriesTheTransientFailuresOnly() {
+        assertTrue(RetryScheduler.isRetryable(nack(DownstreamMessageResponse.ErrorResponseCodes.SERVICE_UNAVAILABLE)));
+        assertTrue(RetryScheduler.isRetryable(nack(DownstreamMessageResponse.ErrorResponseCodes.INTERNAL_SERVER_ERROR)));
+        assertFalse(RetryScheduler.isRetryable(nack(DownstreamMessageResponse.ErrorResponseCodes.DEVICE_UNREGISTERED)));
+    }
+
+    @Test
+    public void backsOffExponentiallyThenGivesUp() throws InterruptedException {
+        DownstreamMessageResponse nack = nack(DownstreamMessageResponse.ErrorResponseCodes.SERVICE_UNAVAILABLE);
+        long[] minDelays = {BASE_DELAY_MILLIS / 2, BASE_DELAY_MILLIS, BASE_DELAY_MILLIS * 2};
+        for(long minDelay : minDelays){
+            long start = System.nanoTime();
+            assertTrue(scheduler.scheduleRetry("m-1", "{}", nack));
+            Long resent = resentAt.poll(5, TimeUnit.SECONDS);
+            assertNotNull(resent);
+            long delayMillis = TimeUnit.NANOSECONDS.toMillis(resent - start);
+            assertTrue("Resent after: " + delayMillis + " ms", delayMillis >= minDelay);
+        }
+
+        assertFalse(scheduler.scheduleRetry("m-1", "{}", nack));
+        assertEquals(Integer.valueOf(3), deadLetters.poll());
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void schedulesOnceForADuplicateNack() throws InterruptedException {
+        DownstreamMessageResponse nack = nack(DownstreamMessageResponse.ErrorResponseCodes.SERVICE_UNAVAILABLE);
+        assertTrue(scheduler.scheduleRetry("m-1", "{}", nack));
+        assertTrue(scheduler.scheduleRetry("m-1", null, nack));
+
+        assertNotNull(resentAt.poll(5, TimeUnit.SECONDS));
+        assertNull(resentAt.poll(BASE_DELAY_MILLIS * 2, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void dropsTheRetryOnceForgotten() throws InterruptedException {
+        assertTrue(scheduler.scheduleRetry("m-1", "{}", nack(DownstreamMessageResponse.ErrorResponseCodes.SERVICE_UNAVAILABLE)));
+        scheduler.forget("m-1");
+
+        assertEquals(0, scheduler.getPendingCount());
+        assertNull(resentAt.poll(BASE_DELAY_MILLIS * 2, TimeUnit.MILLISECONDS));
+        // Nothing kept to resend
+        assertFalse(scheduler.scheduleRetry("m-1", null, nack(DownstreamMessageResponse.ErrorResponseCodes.SERVICE_UNAVAILABLE)));
+    }
+
+    private static DownstreamMessageResponse nack(String error) {
+        return DownstreamMessageResponse.Builder.newBuilder(null, "m-1", "nack").setError(error).build();
+    }
+}
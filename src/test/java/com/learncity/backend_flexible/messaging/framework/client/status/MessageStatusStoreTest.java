@@ -0,0 +1,86 @@
+package com.learncity.backend_flexible.messaging.framework.client.status;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageStatusStoreTest {
+
+    private MessageStatusStore store;
+
+    @After
+    public void tearDown() {
+        store.shutdown();
+    }
+
+    @Test
+    public void followsAMessageAlong() {
+        store = new MessageStatusStore(1024, 60000, false);
+        store.onAccepted("m-1");
+        assertEquals(MessageStatus.State.ACCEPTED, store.get("m-1").getState());
+        store.onSent("m-1");
+        store.onResponse("m-1", true, null);
+        store.onDelivered("m-1");
+
+        MessageStatus status = store.get("m-1");
+        assertEquals(MessageStatus.State.DELIVERED, status.getState());
+        assertTrue(status.getAcceptedAt() > 0);
+        assertTrue(status.getSentAt() >= status.getAcceptedAt());
+        assertTrue(status.getDeliveredAt() > 0);
+        assertNull(status.getError());
+        assertNull(store.get("m-2"));
+    }
+
+    @Test
+    public void neverMovesBack() {
+        store = new MessageStatusStore(1024, 60000, true);
+        store.onDelivered("m-1");
+        store.onResponse("m-1", true, null);
+        store.onSent("m-1");
+        assertEquals(MessageStatus.State.DELIVERED, store.get("m-1").getState());
+    }
+
+    @Test
+    public void keepsTheErrorOfTheLastResponse() {
+        store = new MessageStatusStore(1024, 60000, false);
+        store.onResponse("m-1", false, "SERVICE_UNAVAILABLE");
+        assertEquals(MessageStatus.State.NACKED, store.get("m-1").getState());
+        assertEquals("SERVICE_UNAVAILABLE", store.get("m-1").getError());
+        store.onResponse("m-2", false, null);
+        assertEquals("UNKNOWN", store.get("m-2").getError());
+        // Retried, and ACKed after all
+        store.onResponse("m-1", true, null);
+        assertEquals(MessageStatus.State.ACKED, store.get("m-1").getState());
+        assertNull(store.get("m-1").getError());
+
+        Map<String, MessageStatus> statuses = store.getAll(Arrays.asList("m-2", "none", "m-1"));
+        assertEquals(Arrays.asList("m-2", "m-1"), Arrays.asList(statuses.keySet().toArray()));
+    }
+
+    @Test
+    public void keepsAGenerationBackOnceFull() {
+        store = new MessageStatusStore(1024, 60000, false);
+        int messages = 1024 * 4;
+        for(int i = 0; i < messages; i++){
+            store.onAccepted("m-" + i);
+        }
+        // The latest are all still tracked(each stripe holds its share, a generation back); the earliest are gone
+        for(int i = messages - 256; i < messages; i++){
+            assertEquals(MessageStatus.State.ACCEPTED, store.get("m-" + i).getState());
+        }
+        int tracked = 0;
+        for(int i = 0; i < messages; i++){
+            if(store.get("m-" + i) != null){
+                tracked++;
+            }
+        }
+        assertTrue(tracked < messages);
+        assertTrue(store.getCurrentSize() <= 1024 + 16);
+    }
+}
@@ -0,0 +1,50 @@
+package com.learncity.backend_flexible.messaging.framework.client.tokens;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CanonicalTokenCacheTest {
+
+    @Test
+    public void resolvesToTheCanonicalToken() {
+        CanonicalTokenCache cache = new CanonicalTokenCache(64);
+        cache.put("old", "new");
+        assertEquals("new", cache.get("old"));
+        assertEquals("new", cache.resolve("old"));
+        assertEquals("other", cache.resolve("other"));
+        assertNull(cache.get("other"));
+    }
+
+    @Test
+    public void followsAChainOfStaleTokens() {
+        CanonicalTokenCache cache = new CanonicalTokenCache(64);
+        cache.put("b", "c");
+        cache.put("a", "b");
+        assertEquals("c", cache.get("a"));
+        cache.put("c", "d");
+        assertEquals("d", cache.get("a"));
+    }
+
+    @Test
+    public void dropsTheLoopWhenBackToTheOldToken() {
+        CanonicalTokenCache cache = new CanonicalTokenCache(64);
+        cache.put("a", "b");
+        cache.put("b", "a");
+        assertNull(cache.get("a"));
+        assertEquals("a", cache.get("b"));
+    }
+
+    @Test
+    public void staysWithinTheSize() {
+        CanonicalTokenCache cache = new CanonicalTokenCache(160);
+        for(int i = 0; i < 10000; i++){
+            cache.put("APA91b-shared-prefix-" + i, "canonical-" + i);
+        }
+        assertTrue(cache.size() <= 160);
+        // The latest is always there
+        assertEquals("canonical-9999", cache.get("APA91b-shared-prefix-9999"));
+    }
+}
@@ -0,0 +1,141 @@
+package com.learncity.backend_flexible.messaging.framework.client.tokens;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeadTokenRegistryTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void knowsTheDeadTokensAndTheirErrors() {
+        DeadTokenRegistry registry = new DeadTokenRegistry(100, 60000, null, 60000);
+        registry.markDead("token-a", "DEVICE_UNREGISTERED");
+        registry.markDead("token-b", "BAD_REGISTRATION");
+
+        assertTrue(registry.isDead("token-a"));
+        assertEquals("BAD_REGISTRATION", registry.getDeadError("token-b"));
+        assertFalse(registry.isDead("token-c"));
+        assertNull(registry.getDeadError(null));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void bringsATokenBackToLife() {
+        DeadTokenRegistry registry = new DeadTokenRegistry(100, 60000, null, 60000);
+        registry.markDead("token", "DEVICE_UNREGISTERED");
+
+        assertTrue(registry.revive("token"));
+        assertFalse(registry.isDead("token"));
+        assertFalse(registry.revive("token"));
+        // And dead again
+        registry.markDead("token", "BAD_REGISTRATION");
+        assertEquals("BAD_REGISTRATION", registry.getDeadError("token"));
+    }
+
+    @Test
+    public void forgetsATokenOnceItsRetentionIsUp() throws InterruptedException {
+        DeadTokenRegistry registry = new DeadTokenRegistry(100, 50, null, 60000);
+        registry.markDead("token-a", "DEVICE_UNREGISTERED");
+        assertTrue(registry.isDead("token-a"));
+
+        Thread.sleep(80);
+        assertFalse(registry.isDead("token-a"));
+        // Cleared out as the next one is marked
+        registry.markDead("token-b", "DEVICE_UNREGISTERED");
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void forgetsTheEarliestMarkedPastTheMaxSize() {
+        DeadTokenRegistry registry = new DeadTokenRegistry(2, 60000, null, 60000);
+        registry.markDead("token-a", "DEVICE_UNREGISTERED");
+        registry.markDead("token-b", "DEVICE_UNREGISTERED");
+        registry.markDead("token-c", "DEVICE_UNREGISTERED");
+
+        assertEquals(2, registry.size());
+        assertFalse(registry.isDead("token-a"));
+        assertTrue(registry.isDead("token-b"));
+        assertTrue(registry.isDead("token-c"));
+    }
+
+    @Test
+    public void keepsTheDeadTokensAcrossARestart() throws Exception {
+        File snapshotFile = new File(folder.getRoot(), "dead-tokens");
+        DeadTokenRegistry registry = new DeadTokenRegistry(100, 60000, snapshotFile, 60000);
+        registry.open();
+        registry.markDead("token-a", "DEVICE_UNREGISTERED");
+        registry.markDead("token-b", "BAD_REGISTRATION");
+        registry.markDead("token-c", "BAD_REGISTRATION");
+        registry.revive("token-c");
+        registry.close();
+        assertTrue(snapshotFile.exists());
+        assertFalse(new File(snapshotFile.getPath() + ".tmp").exists());
+
+        DeadTokenRegistry reopened = new DeadTokenRegistry(100, 60000, snapshotFile, 60000);
+        reopened.open();
+        try {
+            assertEquals(2, reopened.size());
+            assertEquals("DEVICE_UNREGISTERED", reopened.getDeadError("token-a"));
+            assertEquals("BAD_REGISTRATION", reopened.getDeadError("token-b"));
+            assertFalse(reopened.isDead("token-c"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void leavesOutOfTheSnapshotWhatHasExpired() throws Exception {
+        File snapshotFile = new File(folder.getRoot(), "dead-tokens");
+        long longAgo = System.currentTimeMillis() - 120000;
+        Writer writer = new OutputStreamWriter(new FileOutputStream(snapshotFile), StandardCharsets.UTF_8);
+        try {
+            writer.write("token-a\tDEVICE_UNREGISTERED\t" + longAgo + "\ntoken-b\tBAD_REGISTRATION\t" + System.currentTimeMillis() + "\n");
+        } finally {
+            writer.close();
+        }
+        DeadTokenRegistry registry = new DeadTokenRegistry(100, 60000, snapshotFile, 60000);
+        registry.open();
+        try {
+            assertEquals(1, registry.size());
+            assertFalse(registry.isDead("token-a"));
+            assertEquals("BAD_REGISTRATION", registry.getDeadError("token-b"));
+        } finally {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void skipsALineCutShort() throws Exception {
+        File snapshotFile = new File(folder.getRoot(), "dead-tokens");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(snapshotFile), StandardCharsets.UTF_8);
+        try {
+            // The time marked at is left out of the first line
+            writer.write("token-a\tDEVICE_UNREGISTERED\n\ntoken-b");
+        } finally {
+            writer.close();
+        }
+        DeadTokenRegistry registry = new DeadTokenRegistry(100, 60000, snapshotFile, 60000);
+        registry.open();
+        try {
+            assertEquals(1, registry.size());
+            assertTrue(registry.isDead("token-a"));
+            assertFalse(registry.isDead("token-b"));
+        } finally {
+            registry.close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.learncity.backend_flexible.messaging.framework.message.model.incoming;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class UpstreamMessageTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void writesTheAckAsJacksonDoes() throws Exception {
+        assertAckAsJackson("fXk2:APA91bH-token_01", "m-1");
+    }
+
+    @Test
+    public void escapesWhatNeedsEscapingInTheAck() throws Exception {
+        assertAckAsJackson("to\"ken\\", "id\n\u0001");
+    }
+
+    private void assertAckAsJackson(String to, String messageId) throws Exception {
+        UpstreamMessage.Acknowledgement ack = new UpstreamMessage.Acknowledgement(to, messageId, "ack");
+        assertEquals(objectMapper.writeValueAsString(ack), ack.toString());
+        UpstreamMessage.Acknowledgement read = objectMapper.readValue(ack.toString(), UpstreamMessage.Acknowledgement.class);
+        assertEquals(to, read.getTo());
+        assertEquals(messageId, read.getMessageId());
+    }
+}
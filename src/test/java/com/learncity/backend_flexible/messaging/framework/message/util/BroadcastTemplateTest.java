@@ -0,0 +1,72 @@
+package com.learncity.backend_flexible.messaging.framework.message.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.DataMessage;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BroadcastTemplateTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void rendersTheMessageForEachRecipient() throws Exception {
+        Map<String, String> data = new LinkedHashMap<String, String>();
+        data.put("text", "Hello");
+        DataMessage.Builder builder = DataMessage.Builder.newInstance("original", "id-0", data);
+        builder.setPriority("high");
+        builder.setCollapseKey("news");
+        DataMessage message = builder.build();
+        BroadcastTemplate template = BroadcastTemplate.of(message);
+
+        ObjectNode expected = (ObjectNode) objectMapper.readTree(message.toString());
+        for(String to : new String[]{"token-a", "token-b"}){
+            expected.put("to", to);
+            expected.put("message_id", "id-" + to);
+            assertEquals(expected, objectMapper.readTree(template.render(to, "id-" + to)));
+        }
+        // The message it was made from is left as it was
+        assertEquals("original", message.getTo());
+    }
+
+    @Test
+    public void leavesOutTheCondition() throws Exception {
+        DataMessage.Builder builder = DataMessage.Builder.newInstance(null, "id-0", null);
+        builder.setCondition("'a' in topics");
+        BroadcastTemplate template = BroadcastTemplate.of(builder.build());
+
+        JsonNode rendered = objectMapper.readTree(template.render("token", "id-1"));
+        assertFalse(rendered.has("condition"));
+        assertEquals("token", rendered.get("to").asText());
+    }
+
+    @Test
+    public void escapesTheRecipient() throws Exception {
+        BroadcastTemplate template = BroadcastTemplate.of(DataMessage.Builder.newInstance("t", "id-0", null).build());
+
+        JsonNode rendered = objectMapper.readTree(template.render("to\"ken\\", "id-1"));
+        assertEquals("to\"ken\\", rendered.get("to").asText());
+    }
+
+    @Test
+    public void givesEachRecipientItsOwnMessageId() {
+        BroadcastTemplate template = BroadcastTemplate.of(DataMessage.Builder.newInstance("t", "id-0", null).build());
+        BroadcastTemplate other = BroadcastTemplate.of(DataMessage.Builder.newInstance("t", "id-0", null).build());
+
+        Set<String> messageIds = new HashSet<String>();
+        for(int i = 0; i < 1000; i++){
+            assertTrue(messageIds.add(template.messageId(i)));
+            assertTrue(messageIds.add(other.messageId(i)));
+        }
+    }
+}
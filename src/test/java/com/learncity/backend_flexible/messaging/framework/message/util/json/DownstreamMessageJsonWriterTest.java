@@ -0,0 +1,216 @@
+package com.learncity.backend_flexible.messaging.framework.message.util.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.AbstractDownstreamMessage;
+import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.DataMessage;
+import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.NotificationMessage;
+import com.learncity.backend_flexible.messaging.framework.message.model.outgoing.NotificationMessage.NotificationPayload;
+import com.learncity.backend_flexible.messaging.framework.message.util.MessageUtils;
+import com.learncity.backend_flexible.messaging.model.Message;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The hand-written output against what Jackson's bean serialization makes of the same
+ */
+public class DownstreamMessageJsonWriterTest {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void writesADataMessageAsJacksonDoes() throws Exception {
+        Map<String, String> data = new LinkedHashMap<String, String>();
+        data.put("text", "Hello \"there\"\né中");
+        data.put("empty", "");
+        data.put("none", null);
+        DataMessage.Builder builder = DataMessage.Builder.newInstance("token", "id-1", data);
+        builder.setPriority("high");
+        builder.setTimeToLive(60);
+        builder.setDryRun(false);
+        DataMessage message = builder.build();
+
+        assertEquals(objectMapper.writeValueAsString(message), message.toString());
+    }
+
+    @Test
+    public void leavesOutAnEmptyRecipient() throws Exception {
+        DataMessage.Builder builder = DataMessage.Builder.newInstance("", "id-1", null);
+        builder.setCondition("'a' in topics");
+        DataMessage message = builder.build();
+
+        assertEquals(objectMapper.writeValueAsString(message), message.toString());
+    }
+
+    @Test
+    public void writesANotificationMessageAsJacksonDoes() throws Exception {
+        Map<String, Object> extras = new LinkedHashMap<String, Object>();
+        extras.put("count", 3);
+        extras.put("ratio", 0.5);
+        extras.put("nested", Arrays.asList("a", 1, null));
+        NotificationPayload.Builder payload = NotificationPayload.Builder.newBuilder();
+        payload.setTitle("Title");
+        payload.setBody("Body \\ with a backslash");
+        payload.setNotificationExtras(extras);
+        NotificationMessage.Builder builder = NotificationMessage.Builder.newBuilderInstance("token", "id-1");
+        builder.setNotificationPayload(payload.build());
+        builder.setDeliveryReceiptRequested(true);
+        NotificationMessage message = builder.build();
+
+        assertEquals(objectMapper.writeValueAsString(message), message.toString());
+    }
+
+    @Test
+    public void takesThePayloadAsTheBeanConversionDid() throws Exception {
+        Map<String, Object> extras = new LinkedHashMap<String, Object>();
+        extras.put("count", 3L);
+        extras.put("flag", true);
+        NotificationPayload.Builder payload = NotificationPayload.Builder.newBuilder();
+        payload.setTitle("Title");
+        payload.setClick_action("OPEN");
+        payload.setTitle_loc_args("[\"x\"]");
+        payload.setNotificationExtras(extras);
+        NotificationPayload built = payload.build();
+        NotificationMessage.Builder builder = NotificationMessage.Builder.newBuilderInstance("token", "id-1");
+        builder.setNotificationPayload(built);
+
+        assertEquals(objectMapper.writeValueAsString(MessageUtils.toAttributeMap(built)),
+                objectMapper.writeValueAsString(builder.build().getNotificationPayload()));
+    }
+
+    @Test
+    public void writesRandomMessagesAsJacksonDoes() throws Exception {
+        for(int i = 0; i < 2000; i++){
+            AbstractDownstreamMessage message = randomMessage();
+            // Assigns the message ID, if there is none
+            String json = message.toString();
+            assertEquals(objectMapper.writeValueAsString(message), json);
+        }
+    }
+
+    @Test
+    public void writesAMapAsJacksonDoes() throws Exception {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("message_type", "ack");
+        map.put("to", "token");
+        map.put("message_id", "id-1");
+        map.put("missing", null);
+        map.put("big", Long.MAX_VALUE);
+        map.put("list", Arrays.asList(1, "two"));
+
+        assertEquals(objectMapper.writeValueAsString(map), MessageUtils.createJsonMessage(map));
+    }
+
+    @Test
+    public void writesTheApiMessageAsJacksonDoes() throws Exception {
+        Message message = new Message(UUID.randomUUID().toString(), "token", Message.FCM_NOTIFICATION_MESSAGE);
+        message.setDataMessage((DataMessage) randomMessage(false));
+        message.setNotificationMessage((NotificationMessage) randomMessage(true));
+        assertEquals(objectMapper.writeValueAsString(message), message.toString());
+
+        Message bare = new Message(UUID.randomUUID().toString(), null, Message.FCM_DATA_MESSAGE);
+        assertEquals(objectMapper.writeValueAsString(bare), bare.toString());
+    }
+
+    @Test
+    public void leavesAnyOtherMessageToJackson() {
+        assertNull(DownstreamMessageJsonWriter.toJson(new AbstractDownstreamMessage("token", "id-1") {
+        }));
+    }
+
+    private AbstractDownstreamMessage randomMessage() throws Exception {
+        return randomMessage(random.nextBoolean());
+    }
+
+    // Read from JSON, as /send does
+    private AbstractDownstreamMessage randomMessage(boolean notification) throws Exception {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        putMaybe(json, "to", random.nextInt(5) == 0 ? "" : randomString());
+        putMaybe(json, "condition", randomString());
+        putMaybe(json, "message_id", randomString());
+        putMaybe(json, "collapse_key", randomString());
+        putMaybe(json, "priority", random.nextBoolean() ? "high" : "normal");
+        putMaybe(json, "content_available", random.nextBoolean());
+        putMaybe(json, "time_to_live", random.nextInt(2419200));
+        putMaybe(json, "delivery_receipt_requested", random.nextBoolean());
+        putMaybe(json, "dry_run", random.nextBoolean());
+        if(random.nextBoolean()){
+            Map<String, String> data = new LinkedHashMap<String, String>();
+            for(int i = random.nextInt(4); i > 0; i--){
+                data.put(randomString(), random.nextInt(4) == 0 ? null : randomString());
+            }
+            json.put("data", data);
+        }
+        if(notification && random.nextBoolean()){
+            Map<String, Object> payload = new LinkedHashMap<String, Object>();
+            for(int i = random.nextInt(4); i > 0; i--){
+                payload.put(randomString(), randomValue());
+            }
+            json.put("notification", payload);
+        }
+        String jsonString = objectMapper.writeValueAsString(json);
+        Class<? extends DataMessage> messageClass = notification ? NotificationMessage.class : DataMessage.class;
+        return objectMapper.readValue(jsonString, messageClass);
+    }
+
+    private void putMaybe(Map<String, Object> json, String name, Object value) {
+        if(random.nextBoolean()){
+            json.put(name, value);
+        }
+    }
+
+    private Object randomValue() {
+        switch(random.nextInt(7)){
+            case 0:
+                return null;
+            case 1:
+                return random.nextInt();
+            case 2:
+                return random.nextLong();
+            case 3:
+                return random.nextDouble();
+            case 4:
+                return random.nextBoolean();
+            case 5:
+                List<Object> list = new ArrayList<Object>();
+                list.add(randomString());
+                list.add(random.nextInt(10));
+                return list;
+            default:
+                return randomString();
+        }
+    }
+
+    private String randomString() {
+        StringBuilder string = new StringBuilder();
+        for(int i = random.nextInt(12); i > 0; i--){
+            switch(random.nextInt(6)){
+                case 0:
+                    // Control characters and the ones to be escaped
+                    string.append("\"\\/\n\t\u0001".charAt(random.nextInt(6)));
+                    break;
+                case 1:
+                    string.append((char) (0x80 + random.nextInt(0x700)));
+                    break;
+                case 2:
+                    // A surrogate pair
+                    string.append("😀");
+                    break;
+                default:
+                    string.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return string.toString();
+    }
+}
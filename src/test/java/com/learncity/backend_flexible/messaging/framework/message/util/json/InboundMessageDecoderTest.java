@@ -0,0 +1,92 @@
+package com.learncity.backend_flexible.messaging.framework.message.util.json;
+
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DeliveryReceiptOrControlMessage;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.InboundMessage;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.UpstreamMessage;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class InboundMessageDecoderTest {
+
+    @Test
+    public void decodesAnUpstreamMessage() throws IOException {
+        String json = "{\"from\":\"token\",\"category\":\"com.example\",\"message_id\":\"u-1\",\"data\":{\"text\":\"hi\",\"nested\":{\"a\":1}}}";
+        InboundMessage inbound = InboundMessageDecoder.decode(json);
+
+        assertEquals(InboundMessage.Type.UPSTREAM, inbound.getType());
+        assertNull(inbound.getMessageType());
+        assertEquals(json, inbound.getJson());
+        UpstreamMessage message = (UpstreamMessage) inbound.getMessage();
+        assertEquals("token", message.getFrom());
+        assertEquals("u-1", message.getMessageId());
+        assertEquals("hi", message.getDataPayload().get("text"));
+    }
+
+    @Test
+    public void findsTheMessageTypeWhereverItIs() throws IOException {
+        InboundMessage inbound = InboundMessageDecoder.decode(
+                "{\"from\":\"token\",\"message_id\":\"m-1\",\"error\":\"BAD_REGISTRATION\",\"message_type\":\"nack\"}");
+
+        assertEquals(InboundMessage.Type.NACK, inbound.getType());
+        DownstreamMessageResponse response = (DownstreamMessageResponse) inbound.getMessage();
+        assertEquals("m-1", response.getMessageId());
+        assertEquals("BAD_REGISTRATION", response.getError());
+    }
+
+    @Test
+    public void decodesAControlMessage() throws IOException {
+        InboundMessage inbound = InboundMessageDecoder.decode(
+                "{\"message_type\":\"control\",\"control_type\":\"CONNECTION_DRAINING\"}");
+
+        assertEquals(InboundMessage.Type.CONTROL, inbound.getType());
+        assertEquals("CONNECTION_DRAINING", ((DeliveryReceiptOrControlMessage) inbound.getMessage()).getControlType());
+    }
+
+    @Test
+    public void bindsPastTheFieldsItDoesNotKnow() throws IOException {
+        InboundMessage inbound = InboundMessageDecoder.decode(
+                "{\"message_type\":\"ack\",\"brand_new\":{\"a\":[1]},\"from\":\"token\",\"message_id\":\"m-1\"}");
+
+        DownstreamMessageResponse response = (DownstreamMessageResponse) inbound.getMessage();
+        assertEquals("m-1", response.getMessageId());
+        assertEquals("token", response.getFrom());
+    }
+
+    @Test
+    public void readsTheIdSenderAndErrorOfWhatFailsToBind() throws IOException {
+        InboundMessage inbound = InboundMessageDecoder.decode(
+                "{\"message_type\":\"nack\",\"registration_id\":[1],\"from\":\"token\",\"message_id\":\"m-1\",\"error\":\"SERVICE_UNAVAILABLE\"}");
+
+        assertEquals(InboundMessage.Type.NACK, inbound.getType());
+        assertNull(inbound.getMessage());
+        assertEquals("m-1", inbound.getMessageId());
+        assertEquals("token", inbound.getFrom());
+        assertEquals("SERVICE_UNAVAILABLE", inbound.getError());
+    }
+
+    @Test
+    public void leavesAnUnknownTypeUnbound() throws IOException {
+        InboundMessage inbound = InboundMessageDecoder.decode("{\"message_type\":\"new_kind\",\"x\":1}");
+
+        assertEquals(InboundMessage.Type.UNKNOWN, inbound.getType());
+        assertEquals("new_kind", inbound.getMessageType());
+        assertNull(inbound.getMessage());
+    }
+
+    @Test
+    public void failsOnWhatIsNotAnObject() {
+        for(String json : new String[]{"[1]", "{\"from\":", "\"text\""}){
+            try {
+                InboundMessageDecoder.decode(json);
+                throw new AssertionError("Decoded: " + json);
+            } catch (IOException expected) {
+                // Not a well-formed object
+            }
+        }
+    }
+}
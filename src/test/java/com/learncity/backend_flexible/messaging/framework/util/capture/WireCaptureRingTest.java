@@ -0,0 +1,135 @@
+package com.learncity.backend_flexible.messaging.framework.util.capture;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WireCaptureRingTest {
+
+    private static final int SLOT_SIZE = 256;
+    private static final int SLOT_COUNT = 4;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private WireCaptureRing ring;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "wire.ring");
+        ring = new WireCaptureRing(file, 64 + SLOT_COUNT * SLOT_SIZE, SLOT_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        ring.close();
+    }
+
+    @Test
+    public void readsBackWhatWasRecorded() {
+        ring.record(7, WireCaptureRing.OUTBOUND, "{\"message_id\":\"m1\"}");
+        ring.record(7, WireCaptureRing.INBOUND, "{\"message_id\":\"m1\",\"message_type\":\"ack\"}");
+
+        List<WireCaptureRing.Record> records = ring.read(0);
+        assertEquals(2, records.size());
+        assertEquals(1, records.get(0).getSequence());
+        assertEquals(WireCaptureRing.OUTBOUND, records.get(0).getDirection());
+        assertEquals(7, records.get(0).getConnectionId());
+        assertEquals("{\"message_id\":\"m1\"}", records.get(0).getPayload());
+        assertEquals(WireCaptureRing.INBOUND, records.get(1).getDirection());
+        assertFalse(records.get(1).isTruncated());
+    }
+
+    @Test
+    public void truncatesWhatDoesNotFitInASlot() {
+        StringBuilder json = new StringBuilder("{\"data\":\"");
+        for(int i = 0; i < SLOT_SIZE; i++){
+            json.append('x');
+        }
+        json.append("\"}");
+        ring.record(1, WireCaptureRing.OUTBOUND, json.toString());
+
+        WireCaptureRing.Record record = ring.read(0).get(0);
+        assertTrue(record.isTruncated());
+        assertEquals(json.length(), record.getLength());
+        assertTrue(record.getPayload().length() < SLOT_SIZE);
+        assertTrue(json.toString().startsWith(record.getPayload()));
+    }
+
+    @Test
+    public void keepsOnlyTheLatestOnceWrappedAround() {
+        for(int i = 1; i <= SLOT_COUNT + 2; i++){
+            ring.record(1, WireCaptureRing.OUTBOUND, "{\"n\":" + i + "}");
+        }
+
+        List<WireCaptureRing.Record> records = ring.read(0);
+        assertEquals(SLOT_COUNT, records.size());
+        for(int i = 0; i < SLOT_COUNT; i++){
+            assertEquals(3 + i, records.get(i).getSequence());
+            assertEquals("{\"n\":" + (3 + i) + "}", records.get(i).getPayload());
+        }
+    }
+
+    @Test
+    public void streamsTheRecordsOldestFirstAsNdjson() throws IOException {
+        for(int i = 1; i <= SLOT_COUNT + 1; i++){
+            ring.record(1, WireCaptureRing.OUTBOUND, "{\"n\":" + i + "}");
+        }
+
+        StringWriter out = new StringWriter();
+        assertEquals(SLOT_COUNT, ring.writeAsNdjson(0, out));
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(SLOT_COUNT, lines.length);
+        for(int i = 0; i < SLOT_COUNT; i++){
+            JsonNode line = objectMapper.readTree(lines[i]);
+            assertEquals(2 + i, line.get("sequence").asLong());
+            assertEquals("out", line.get("direction").asText());
+            assertEquals("{\"n\":" + (2 + i) + "}", line.get("payload").asText());
+        }
+        // The same as the records read all at once
+        StringWriter all = new StringWriter();
+        WireCaptureRing.writeAsNdjson(ring.read(0), all);
+        assertEquals(all.toString(), out.toString());
+    }
+
+    @Test
+    public void leavesOutWhatIsOlderThanTheTime() throws IOException {
+        ring.record(1, WireCaptureRing.OUTBOUND, "{\"n\":1}");
+
+        StringWriter out = new StringWriter();
+        assertEquals(0, ring.writeAsNdjson(System.currentTimeMillis() + 60000, out));
+        assertEquals("", out.toString());
+        assertEquals(0, ring.read(System.currentTimeMillis() + 60000).size());
+    }
+
+    @Test
+    public void carriesOnFromTheFileWhenReopened() throws IOException {
+        ring.record(1, WireCaptureRing.OUTBOUND, "{\"n\":1}");
+        ring.record(1, WireCaptureRing.OUTBOUND, "{\"n\":2}");
+        ring.close();
+
+        ring = new WireCaptureRing(file, 64 + SLOT_COUNT * SLOT_SIZE, SLOT_SIZE);
+        ring.record(1, WireCaptureRing.OUTBOUND, "{\"n\":3}");
+
+        List<WireCaptureRing.Record> records = WireCaptureRing.read(file, 0);
+        assertEquals(3, records.size());
+        assertEquals(3, records.get(2).getSequence());
+    }
+}
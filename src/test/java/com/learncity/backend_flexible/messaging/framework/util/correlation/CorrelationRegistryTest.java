@@ -0,0 +1,137 @@
+package com.learncity.backend_flexible.messaging.framework.util.correlation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CorrelationRegistryTest {
+
+    private CorrelationRegistry<String> registry;
+
+    @Before
+    public void setUp() {
+        registry = new CorrelationRegistry<String>("Test", TimeUnit.SECONDS.toMillis(30));
+    }
+
+    @After
+    public void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    public void completesTheResultOfTheMessageId() throws Exception {
+        CompletableFuture<String> first = registry.register("1");
+        CompletableFuture<String> second = registry.register("2");
+
+        assertTrue(registry.complete("2", "ack-2"));
+        assertTrue(registry.complete("1", "ack-1"));
+
+        assertEquals("ack-1", first.get(5, TimeUnit.SECONDS));
+        assertEquals("ack-2", second.get(5, TimeUnit.SECONDS));
+        awaitEmpty();
+    }
+
+    @Test
+    public void completesOnlyOnce() throws Exception {
+        CompletableFuture<String> result = registry.register("1");
+
+        assertTrue(registry.complete("1", "ack"));
+        assertFalse(registry.complete("1", "ack-again"));
+        assertFalse(registry.complete("unknown", "ack"));
+
+        assertEquals("ack", result.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = DuplicateMessageIdException.class)
+    public void rejectsADuplicateMessageId() {
+        registry.register("1");
+        registry.register("1");
+    }
+
+    @Test
+    public void completesOffTheCompletingThread() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Thread> completedOn = new AtomicReference<Thread>();
+        CompletableFuture<String> result = registry.register("1");
+        result.thenAccept(new Consumer<String>() {
+            @Override
+            public void accept(String ack) {
+                completedOn.set(Thread.currentThread());
+                started.countDown();
+                try {
+                    // A slow dependent
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        // Returns without waiting on the dependent
+        assertTrue(registry.complete("1", "ack"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), completedOn.get());
+        release.countDown();
+
+        result.get(5, TimeUnit.SECONDS);
+        awaitEmpty();
+    }
+
+    @Test
+    public void expiresAnUnansweredResult() throws Exception {
+        CompletableFuture<String> result = registry.register("1", 200);
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("Expected it to expire");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        awaitEmpty();
+        assertFalse(registry.complete("1", "ack"));
+    }
+
+    @Test
+    public void completesWithTheResultOfTheOtherMessage() throws Exception {
+        CompletableFuture<String> older = registry.register("older");
+        CompletableFuture<String> newer = registry.register("newer");
+
+        assertTrue(registry.completeWith("older", "newer"));
+        registry.complete("newer", "ack");
+
+        assertEquals("ack", newer.get(5, TimeUnit.SECONDS));
+        assertEquals("ack", older.get(5, TimeUnit.SECONDS));
+        assertFalse(registry.completeWith("older", "unknown"));
+    }
+
+    @Test
+    public void letsGoOfACancelledResult() throws Exception {
+        CompletableFuture<String> result = registry.register("1");
+        result.cancel(false);
+
+        assertFalse(registry.isPending("1"));
+        assertFalse(registry.complete("1", "ack"));
+    }
+
+    private void awaitEmpty() throws InterruptedException {
+        // The result is let go of once completed, on the completion thread
+        for(int i = 0; i < 100 && registry.size() > 0; i++){
+            Thread.sleep(10);
+        }
+        assertEquals(0, registry.size());
+    }
+}
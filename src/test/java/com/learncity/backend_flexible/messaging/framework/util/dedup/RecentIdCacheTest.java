@@ -0,0 +1,51 @@
+package com.learncity.backend_flexible.messaging.framework.util.dedup;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecentIdCacheTest {
+
+    @Test
+    public void tellsADuplicateFromANewOne() {
+        RecentIdCache cache = new RecentIdCache(16, 60000);
+        assertFalse(cache.markSeen("m-1"));
+        assertTrue(cache.markSeen("m-1"));
+        assertFalse(cache.markSeen("m-2"));
+        assertTrue(cache.isSeen("m-2"));
+        assertFalse(cache.isSeen("m-3"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void remembersAGenerationBackOnly() {
+        RecentIdCache cache = new RecentIdCache(4, 60000);
+        for(int i = 0; i < 4; i++){
+            cache.markSeen("old-" + i);
+        }
+        // Into the next generation; the old ones are still there
+        for(int i = 0; i < 4; i++){
+            cache.markSeen("new-" + i);
+        }
+        assertTrue(cache.isSeen("old-0"));
+        // And, out with the old ones
+        cache.markSeen("newer");
+        assertFalse(cache.isSeen("old-0"));
+        assertTrue(cache.isSeen("new-3"));
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    public void forgetsOnceTheWindowHasPassedTwice() throws InterruptedException {
+        RecentIdCache cache = new RecentIdCache(16, 20);
+        cache.markSeen("m-1");
+        Thread.sleep(30);
+        cache.markSeen("m-2");
+        assertTrue(cache.isSeen("m-1"));
+        Thread.sleep(30);
+        cache.markSeen("m-3");
+        assertFalse(cache.isSeen("m-1"));
+    }
+}
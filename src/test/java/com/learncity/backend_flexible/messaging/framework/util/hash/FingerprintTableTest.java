@@ -0,0 +1,61 @@
+package com.learncity.backend_flexible.messaging.framework.util.hash;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FingerprintTableTest {
+
+    @Test
+    public void findsWhatWasInsertedPastTheCollisions() {
+        FingerprintTable table = new FingerprintTable(8, 16, false);
+        // Same slot, all of them
+        int first = table.insert(3L);
+        int second = table.insert(3L + 8);
+        int third = table.insert(3L + 16);
+        table.getBuffer().putLong(second + 8, 42L);
+
+        assertEquals(first, table.find(3L));
+        assertEquals(second, table.find(3L + 8));
+        assertEquals(third, table.find(3L + 16));
+        assertEquals(42L, table.getBuffer().getLong(table.find(3L + 8) + 8));
+        assertEquals(-1, table.find(3L + 24));
+        assertEquals(3, table.count());
+    }
+
+    @Test
+    public void wrapsAroundTheEnd() {
+        FingerprintTable table = new FingerprintTable(4, 8, true);
+        table.insert(3L);
+        assertEquals(0, table.insert(7L));
+        assertEquals(0, table.find(7L));
+    }
+
+    @Test
+    public void clearsForReuse() {
+        FingerprintTable table = new FingerprintTable(4, 8, false);
+        table.insert(1L);
+        table.insert(2L);
+        table.clear();
+        assertEquals(0, table.count());
+        assertEquals(-1, table.find(1L));
+    }
+
+    @Test
+    public void sizesForTheLoadFactor() {
+        assertEquals(8, FingerprintTable.slotsFor(4, 0.5));
+        assertEquals(8, FingerprintTable.slotsFor(6, 0.75));
+        assertEquals(16, FingerprintTable.slotsFor(7, 0.75));
+    }
+
+    @Test
+    public void neverFingerprintsAsEmpty() {
+        assertNotEquals(FingerprintTable.EMPTY, Hashes.fingerprint(""));
+        assertTrue(Hashes.fingerprint("m-1") != Hashes.fingerprint("m-2"));
+        // The FNV-1a reference values
+        assertEquals(0xcbf29ce484222325L, Hashes.fnv1a64(""));
+        assertEquals(0xaf63dc4c8601ec8cL, Hashes.fnv1a64("a"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.learncity.backend_flexible.messaging.framework.util.logging;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageLoggerTest {
+
+    private final Logger logger = Logger.getLogger(MessageLoggerTest.class.getSimpleName());
+    private final List<LogRecord> records = new ArrayList<LogRecord>();
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final MessageLogger messageLogger = new MessageLogger(logger, Level.INFO);
+
+    @Before
+    public void setUp() {
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.ALL);
+        logger.addHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        logger.removeHandler(handler);
+        // The rates are shared; back to logging them all
+        MessageLogger.setSampleRate(MessageLogger.ACK, MessageLogger.DEFAULT_SAMPLE_RATE);
+        MessageLogger.setSampleRate(MessageLogger.DOWNSTREAM, MessageLogger.DEFAULT_SAMPLE_RATE);
+        MessageLogger.setDefaultSampleRate(MessageLogger.DEFAULT_SAMPLE_RATE);
+    }
+
+    @Test
+    public void logsTheMessageUnformatted() {
+        Object message = new Object();
+        messageLogger.log(MessageLogger.UPSTREAM, "Received: {0}", message);
+
+        assertEquals(1, records.size());
+        assertEquals("Received: {0}", records.get(0).getMessage());
+        assertSame(message, records.get(0).getParameters()[0]);
+        assertEquals(Level.INFO, records.get(0).getLevel());
+    }
+
+    @Test
+    public void samplesByType() {
+        MessageLogger.setSampleRate(MessageLogger.ACK, 0.0);
+        MessageLogger.setSampleRate(MessageLogger.DOWNSTREAM, 0.1);
+        for(int i = 0; i < 10000; i++){
+            messageLogger.log(MessageLogger.ACK, "{0}", i);
+            messageLogger.log(MessageLogger.DOWNSTREAM, "{0}", i);
+        }
+
+        // None of the ACKs; about a tenth of the rest
+        assertTrue("Logged: " + records.size(), records.size() > 700 && records.size() < 1300);
+        assertFalse(messageLogger.isLoggable(MessageLogger.ACK));
+    }
+
+    @Test
+    public void takesTheDefaultForTheTypesWithoutARate() {
+        MessageLogger.setDefaultSampleRate(0.0);
+        messageLogger.log(MessageLogger.CONTROL, "{0}", "x");
+        assertTrue(records.isEmpty());
+        assertEquals(0.0, MessageLogger.getSampleRate(null), 0.0);
+    }
+
+    @Test
+    public void logsNothingBelowTheLevel() {
+        logger.setLevel(Level.WARNING);
+        assertFalse(messageLogger.isLoggable(MessageLogger.UPSTREAM));
+        messageLogger.log(MessageLogger.UPSTREAM, "{0}", "x");
+        assertTrue(records.isEmpty());
+    }
+}
@@ -0,0 +1,40 @@
+package com.learncity.backend_flexible.messaging.framework.util.smackx.fcm.provider;
+
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.DownstreamMessageResponse;
+import com.learncity.backend_flexible.messaging.framework.message.model.incoming.InboundMessage;
+import com.learncity.backend_flexible.messaging.framework.util.smackx.fcm.packet.FcmPacketExtension;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FcmExtensionProviderTest {
+
+    private static final String ACK = "{\"from\":\"token\",\"message_id\":\"m-1\",\"message_type\":\"ack\"}";
+
+    @Test
+    public void decodesAtParseTimeWhenTyped() {
+        FcmPacketExtension extension = new FcmExtensionProvider(true).from(ACK);
+
+        assertEquals(ACK, extension.getJson());
+        InboundMessage inbound = extension.getInboundMessage();
+        assertEquals(InboundMessage.Type.ACK, inbound.getType());
+        assertEquals("m-1", ((DownstreamMessageResponse) inbound.getMessage()).getMessageId());
+    }
+
+    @Test
+    public void leavesTheJsonAsItIsOtherwise() {
+        FcmPacketExtension extension = new FcmExtensionProvider().from(ACK);
+
+        assertEquals(ACK, extension.getJson());
+        assertNull(extension.getInboundMessage());
+    }
+
+    @Test
+    public void leavesMalformedJsonToTheListener() {
+        FcmPacketExtension extension = new FcmExtensionProvider(true).from("{\"from\":");
+
+        assertEquals("{\"from\":", extension.getJson());
+        assertNull(extension.getInboundMessage());
+    }
+}
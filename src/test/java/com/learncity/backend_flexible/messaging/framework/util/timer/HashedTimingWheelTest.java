@@ -0,0 +1,85 @@
+package com.learncity.backend_flexible.messaging.framework.util.timer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedTimingWheelTest {
+
+    // A short wheel, so that the longer timeouts go round it more than once
+    private final HashedTimingWheel timer = new HashedTimingWheel("HashedTimingWheelTest", 10, TimeUnit.MILLISECONDS, 4);
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    public void expiresNoSoonerThanTheDelay() throws InterruptedException {
+        assertExpiresAfter(30);
+        // Goes round the wheel a few times first
+        assertExpiresAfter(150);
+    }
+
+    @Test
+    public void neverRunsACancelledOne() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(1);
+        HashedTimingWheel.Timeout timeout = timer.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        assertEquals(1, timer.getPendingCount());
+
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        assertEquals(0, timer.getPendingCount());
+        assertFalse(ran.await(150, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void runsEachOfManyOnce() throws InterruptedException {
+        int count = 1000;
+        final CountDownLatch ran = new CountDownLatch(count);
+        HashedTimingWheel.Timeout[] timeouts = new HashedTimingWheel.Timeout[count];
+        for(int i = 0; i < count; i++){
+            timeouts[i] = timer.newTimeout(new Runnable() {
+                @Override
+                public void run() {
+                    ran.countDown();
+                }
+            }, i % 100, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        for(HashedTimingWheel.Timeout timeout : timeouts){
+            assertTrue(timeout.isExpired());
+            assertFalse(timeout.cancel());
+        }
+        assertEquals(0, timer.getPendingCount());
+    }
+
+    private void assertExpiresAfter(long delayMillis) throws InterruptedException {
+        final AtomicLong expiredAt = new AtomicLong();
+        final CountDownLatch ran = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.newTimeout(new Runnable() {
+            @Override
+            public void run() {
+                expiredAt.set(System.nanoTime());
+                ran.countDown();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        long tookMillis = TimeUnit.NANOSECONDS.toMillis(expiredAt.get() - start);
+        assertTrue("Took: " + tookMillis + " ms", tookMillis >= delayMillis);
+    }
+}